@@ -26,7 +26,37 @@ public abstract class ByteBuffers {
      * @see #newBuffer(int, int)
      */
     public static ByteBufferType DEFAULT_BUFFER_TYPE = ByteBufferType.HEAP;
-    public static boolean DEFAULT_POOLED = true;
+    /**
+     * 调用 newBuffer(int, int)或者 newBuffer(int)时是否创建池化缓冲区，默认不池化，开启后调用方需要释放创建的缓冲区
+     *
+     * @see #newBuffer(int, int)
+     */
+    public static boolean DEFAULT_POOLED = false;
+    /**
+     * 创建池化缓冲区使用的共享分配器，堆内存和直接内存分别使用独立的内存区和线程缓存
+     */
+    private static volatile ByteBufferAllocator pooledAllocator = PooledByteBufferAllocator.DEFAULT;
+
+    /**
+     * 获取创建池化缓冲区使用的共享分配器
+     *
+     * @return 分配器，默认为{@link PooledByteBufferAllocator#DEFAULT}
+     */
+    public static ByteBufferAllocator getPooledAllocator() {
+        return pooledAllocator;
+    }
+
+    /**
+     * 设置创建池化缓冲区使用的共享分配器
+     *
+     * @param allocator 分配器
+     */
+    public static void setPooledAllocator(ByteBufferAllocator allocator) {
+        if (allocator == null) {
+            throw new NullPointerException("allocator");
+        }
+        pooledAllocator = allocator;
+    }
 
     /**
      * 获取一个指定长度的字节数组
@@ -49,7 +79,7 @@ public abstract class ByteBuffers {
     }
 
     /**
-     * 创建一个基于堆字节数组的非池化字节缓冲区
+     * 创建一个字节缓冲区，池化缓冲区从共享分配器的内存区分配，使用完毕后需要释放
      *
      * @param type         缓存类型
      * @param pooled       是否进行池化
@@ -59,9 +89,9 @@ public abstract class ByteBuffers {
      */
     public static final ByteBuffer newBuffer(ByteBufferType type, boolean pooled, int initCapacity, int maxCapacity) {
         if (type == ByteBufferType.DIRECT) {
-            return new UnpooledDirectByteBuffer(UnpooledByteBufferAllocator.DEFAULT, initCapacity, maxCapacity);
+            return pooled ? pooledAllocator.directBuffer(initCapacity, maxCapacity) : new UnpooledDirectByteBuffer(UnpooledByteBufferAllocator.DEFAULT, initCapacity, maxCapacity);
         } else if (type == ByteBufferType.HEAP) {
-            return new UnpooledHeapByteBuffer(UnpooledByteBufferAllocator.DEFAULT, initCapacity, maxCapacity);
+            return pooled ? pooledAllocator.heapBuffer(initCapacity, maxCapacity) : new UnpooledHeapByteBuffer(UnpooledByteBufferAllocator.DEFAULT, initCapacity, maxCapacity);
         } else {
             throw new IllegalArgumentException("illegal argument type:" + type);
         }
@@ -69,7 +99,7 @@ public abstract class ByteBuffers {
     }
 
     /**
-     * 创建一个固定容量的缓冲区
+     * 创建一个固定容量的缓冲区，{@link #DEFAULT_POOLED}开启时为池化缓冲区，使用完毕后需要释放
      *
      * @param fixedCapacity 固定容量，字节数组长度
      * @return 缓冲区对象
@@ -78,7 +108,7 @@ public abstract class ByteBuffers {
         return newBuffer(fixedCapacity, fixedCapacity);
     }
     /**
-     * 创建一个有初始容量和最大容量的缓冲区，根据需要进行扩增
+     * 创建一个有初始容量和最大容量的缓冲区，根据需要进行扩增，{@link #DEFAULT_POOLED}开启时为池化缓冲区，使用完毕后需要释放
      *
      * @param initCapacity 初始容量，字节数组长度
      * @param maxCapacity  最大容量，字节数组长度
@@ -45,7 +45,10 @@ abstract class PoolArena<T> implements PoolArenaMetric {
     final int pageSize;
     final int pageShifts;
     final int chunkSize;
-    final int subpageOverflowMask;
+    /** Use fine-grained size classes and runs of pages instead of power-of-two buddy allocation. */
+    final boolean sizeClasses;
+    /** Normalized capacities below this limit are served out of {@link PoolSubpage}s. */
+    final int maxSubpageSize;
     final int numSmallSubpagePools;
     final int directMemoryCacheAlignment;
     final int directMemoryCacheAlignmentMask;
@@ -62,18 +65,20 @@ abstract class PoolArena<T> implements PoolArenaMetric {
     private final List<PoolChunkListMetric> chunkListMetrics;
 
     // Metrics for allocations and deallocations
-    private long allocationsNormal;
-    // We need to use the LongCounter here as this is not guarded via synchronized block.
+    // All metrics use LongCounter so that reading them never needs to take the arena lock.
     private final LongCounter allocationsTiny = PlatformDependent.newLongCounter();
     private final LongCounter allocationsSmall = PlatformDependent.newLongCounter();
+    private final LongCounter allocationsNormal = PlatformDependent.newLongCounter();
     private final LongCounter allocationsHuge = PlatformDependent.newLongCounter();
     private final LongCounter activeBytesHuge = PlatformDependent.newLongCounter();
+    private final LongCounter activeBytesChunks = PlatformDependent.newLongCounter();
 
-    private long deallocationsTiny;
-    private long deallocationsSmall;
-    private long deallocationsNormal;
+    // Set while one thread creates a chunk outside the lock, guarded by synchronized(this).
+    private boolean creatingChunk;
 
-    // We need to use the LongCounter here as this is not guarded via synchronized block.
+    private final LongCounter deallocationsTiny = PlatformDependent.newLongCounter();
+    private final LongCounter deallocationsSmall = PlatformDependent.newLongCounter();
+    private final LongCounter deallocationsNormal = PlatformDependent.newLongCounter();
     private final LongCounter deallocationsHuge = PlatformDependent.newLongCounter();
 
     // Number of thread caches backed by this arena.
@@ -83,21 +88,24 @@ abstract class PoolArena<T> implements PoolArenaMetric {
     //private long pad0, pad1, pad2, pad3, pad4, pad5, pad6, pad7;
 
     protected PoolArena(PooledByteBufferAllocator parent, int pageSize,
-          int maxOrder, int pageShifts, int chunkSize, int cacheAlignment) {
+          int maxOrder, int pageShifts, int chunkSize, int cacheAlignment, boolean sizeClasses) {
         this.parent = parent;
         this.pageSize = pageSize;
         this.maxOrder = maxOrder;
         this.pageShifts = pageShifts;
         this.chunkSize = chunkSize;
+        this.sizeClasses = sizeClasses;
         directMemoryCacheAlignment = cacheAlignment;
         directMemoryCacheAlignmentMask = cacheAlignment - 1;
-        subpageOverflowMask = ~(pageSize - 1);
+        // With size classes the small classes extend beyond the page size up to four pages, so payloads just
+        // above a page (e.g. 9-12 KiB with 8 KiB pages) share multi-page runs instead of doubling.
+        maxSubpageSize = sizeClasses ? pageSize << 2 : pageSize;
         tinySubpagePools = newSubpagePoolArray(numTinySubpagePools);
         for (int i = 0; i < tinySubpagePools.length; i ++) {
             tinySubpagePools[i] = newSubpagePoolHead(pageSize);
         }
 
-        numSmallSubpagePools = pageShifts - 9;
+        numSmallSubpagePools = sizeClasses ? sizeClassIdx(maxSubpageSize) : pageShifts - 9;
         smallSubpagePools = newSubpagePoolArray(numSmallSubpagePools);
         for (int i = 0; i < smallSubpagePools.length; i ++) {
             smallSubpagePools[i] = newSubpagePoolHead(pageSize);
@@ -151,7 +159,10 @@ abstract class PoolArena<T> implements PoolArenaMetric {
         return normCapacity >>> 4;
     }
 
-    static int smallIdx(int normCapacity) {
+    int smallIdx(int normCapacity) {
+        if (sizeClasses) {
+            return sizeClassIdx(normCapacity);
+        }
         int tableIdx = 0;
         int i = normCapacity >>> 10;
         while (i != 0) {
@@ -161,9 +172,58 @@ abstract class PoolArena<T> implements PoolArenaMetric {
         return tableIdx;
     }
 
-    // capacity < pageSize
+    /**
+     * Index of the size class of {@code normCapacity} (>= 512). Every power-of-two group above 512 is split
+     * into four equally spaced classes, e.g. 512, 640, 768, 896, 1024, 1280, ...
+     */
+    static int sizeClassIdx(int normCapacity) {
+        int log2Group = log2(normCapacity - 1);
+        return ((log2Group - 9) << 2) + (normCapacity >>> (log2Group - 2)) - 4;
+    }
+
+    /**
+     * Index of the normal thread cache used for {@code normCapacity}. Capacities which are not a size class are
+     * rounded down to the next smaller one.
+     */
+    int normalCacheIdx(int normCapacity) {
+        if (sizeClasses) {
+            return sizeClassIdx(normCapacity) - numSmallSubpagePools;
+        }
+        return log2(normCapacity >>> pageShifts);
+    }
+
+    /**
+     * Capacity of the small buffers cached at {@code idx}, the inverse of {@link #smallIdx(int)}.
+     */
+    int smallCapacity(int idx) {
+        return sizeClasses ? sizeClassCapacity(idx) : 512 << idx;
+    }
+
+    /**
+     * Capacity of the normal buffers cached at {@code idx}, the upper bound of {@link #normalCacheIdx(int)}.
+     */
+    int normalCacheCapacity(int idx) {
+        return sizeClasses ? sizeClassCapacity(idx + numSmallSubpagePools) : pageSize << idx;
+    }
+
+    /**
+     * Capacity of the size class with index {@code idx}, the inverse of {@link #sizeClassIdx(int)}.
+     */
+    static int sizeClassCapacity(int idx) {
+        if (idx == 0) {
+            return 512;
+        }
+        int group = 512 << (idx - 1 >> 2);
+        return group + ((idx - 1 & 3) + 1) * (group >>> 2);
+    }
+
+    private static int log2(int val) {
+        return val <= 1 ? 0 : Integer.SIZE - 1 - Integer.numberOfLeadingZeros(val);
+    }
+
+    // capacity < maxSubpageSize
     boolean isTinyOrSmall(int normCapacity) {
-        return (normCapacity & subpageOverflowMask) == 0;
+        return normCapacity < maxSubpageSize;
     }
 
     // normCapacity < 512
@@ -210,9 +270,7 @@ abstract class PoolArena<T> implements PoolArenaMetric {
                     return;
                 }
             }
-            synchronized (this) {
-                allocateNormal(buf, reqCapacity, normCapacity);
-            }
+            allocateNormal(buf, reqCapacity, normCapacity);
 
             incTinySmallAllocation(tiny);
             return;
@@ -222,30 +280,77 @@ abstract class PoolArena<T> implements PoolArenaMetric {
                 // was able to allocate out of the cache so move on
                 return;
             }
-            synchronized (this) {
-                allocateNormal(buf, reqCapacity, normCapacity);
-                ++allocationsNormal;
-            }
+            allocateNormal(buf, reqCapacity, normCapacity);
+            allocationsNormal.increment();
         } else {
             // Huge allocations are never served via the cache so just call allocateHuge
             allocateHuge(buf, reqCapacity);
         }
     }
 
-    // Method must be called inside synchronized(this) { ... } block
+    /**
+     * The chunk lists are only accessed while holding the arena's monitor, only the creation of a new chunk happens
+     * outside of it.
+     */
     private void allocateNormal(PooledByteBuffer<T> buf, int reqCapacity, int normCapacity) {
-        if (q050.allocate(buf, reqCapacity, normCapacity) || q025.allocate(buf, reqCapacity, normCapacity) ||
-            q000.allocate(buf, reqCapacity, normCapacity) || qInit.allocate(buf, reqCapacity, normCapacity) ||
-            q075.allocate(buf, reqCapacity, normCapacity)) {
-            return;
+        synchronized (this) {
+            boolean interrupted = false;
+            try {
+                for (;;) {
+                    if (allocateFromChunkLists(buf, reqCapacity, normCapacity)) {
+                        return;
+                    }
+                    if (!creatingChunk) {
+                        creatingChunk = true;
+                        break;
+                    }
+                    // Another thread is creating a chunk, wait for it instead of creating one more.
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        // Creating a chunk allocates chunkSize bytes, so do not block the other threads of this arena meanwhile.
+        PoolChunk<T> c = null;
+        try {
+            c = newChunk(pageSize, maxOrder, pageShifts, chunkSize);
+        } finally {
+            if (c == null) {
+                // Let one of the waiting threads try again.
+                synchronized (this) {
+                    creatingChunk = false;
+                    notifyAll();
+                }
+            }
+        }
+        synchronized (this) {
+            creatingChunk = false;
+            notifyAll();
+            if (!allocateFromChunkLists(buf, reqCapacity, normCapacity)) {
+                long handle = c.allocate(normCapacity);
+                assert handle > 0;
+                c.initBuf(buf, handle, reqCapacity);
+            }
+            // Add the new chunk even if enough room was freed in the meantime, creating it was the expensive part and
+            // it is released by the PoolReclaimer if it stays unused.
+            qInit.add(c);
+            activeBytesChunks.add(chunkSize);
         }
+    }
 
-        // Add a new chunk.
-        PoolChunk<T> c = newChunk(pageSize, maxOrder, pageShifts, chunkSize);
-        long handle = c.allocate(normCapacity);
-        assert handle > 0;
-        c.initBuf(buf, handle, reqCapacity);
-        qInit.add(c);
+    // Method must be called inside synchronized(this) { ... } block
+    private boolean allocateFromChunkLists(PooledByteBuffer<T> buf, int reqCapacity, int normCapacity) {
+        return q050.allocate(buf, reqCapacity, normCapacity) || q025.allocate(buf, reqCapacity, normCapacity) ||
+            q000.allocate(buf, reqCapacity, normCapacity) || qInit.allocate(buf, reqCapacity, normCapacity) ||
+            q075.allocate(buf, reqCapacity, normCapacity);
     }
 
     private void incTinySmallAllocation(boolean tiny) {
@@ -280,6 +385,22 @@ abstract class PoolArena<T> implements PoolArenaMetric {
         }
     }
 
+    /**
+     * Destroy the chunks which were completely free during the last {@code idleSweeps} sweeps of the
+     * {@link PoolReclaimer}. Only chunks in qInit can be completely free, all others are destroyed right away.
+     */
+    int releaseIdleChunks(int idleSweeps) {
+        List<PoolChunk<T>> idleChunks = new ArrayList<PoolChunk<T>>();
+        synchronized (this) {
+            qInit.removeIdleChunks(idleSweeps, idleChunks);
+        }
+        for (PoolChunk<T> chunk : idleChunks) {
+            activeBytesChunks.add(-chunk.chunkSize());
+            destroyChunk(chunk);
+        }
+        return idleChunks.size();
+    }
+
     private SizeClass sizeClass(int normCapacity) {
         if (!isTinyOrSmall(normCapacity)) {
             return SizeClass.Normal;
@@ -288,46 +409,35 @@ abstract class PoolArena<T> implements PoolArenaMetric {
     }
 
     void freeChunk(PoolChunk<T> chunk, long handle, SizeClass sizeClass) {
+        switch (sizeClass) {
+        case Normal:
+            deallocationsNormal.increment();
+            break;
+        case Small:
+            deallocationsSmall.increment();
+            break;
+        case Tiny:
+            deallocationsTiny.increment();
+            break;
+        default:
+            throw new Error();
+        }
         final boolean destroyChunk;
         synchronized (this) {
-            switch (sizeClass) {
-            case Normal:
-                ++deallocationsNormal;
-                break;
-            case Small:
-                ++deallocationsSmall;
-                break;
-            case Tiny:
-                ++deallocationsTiny;
-                break;
-            default:
-                throw new Error();
-            }
             destroyChunk = !chunk.parent.free(chunk, handle);
         }
         if (destroyChunk) {
+            activeBytesChunks.add(-chunk.chunkSize());
             // destroyChunk not need to be called while holding the synchronized lock.
             destroyChunk(chunk);
         }
     }
 
     PoolSubpage<T> findSubpagePoolHead(int elemSize) {
-        int tableIdx;
-        PoolSubpage<T>[] table;
         if (isTiny(elemSize)) { // < 512
-            tableIdx = elemSize >>> 4;
-            table = tinySubpagePools;
-        } else {
-            tableIdx = 0;
-            elemSize >>>= 10;
-            while (elemSize != 0) {
-                elemSize >>>= 1;
-                tableIdx ++;
-            }
-            table = smallSubpagePools;
+            return tinySubpagePools[tinyIdx(elemSize)];
         }
-
-        return table[tableIdx];
+        return smallSubpagePools[smallIdx(elemSize)];
     }
 
     int normalizeCapacity(int reqCapacity) {
@@ -340,6 +450,15 @@ abstract class PoolArena<T> implements PoolArenaMetric {
         }
 
         if (!isTiny(reqCapacity)) { // >= 512
+            if (sizeClasses) {
+                // Four classes per power-of-two group, so at most 25% is wasted
+                int step = Integer.highestOneBit(reqCapacity - 1) >>> 2;
+                int normalizedCapacity = reqCapacity + step - 1 & -step;
+                assert directMemoryCacheAlignment == 0 || (normalizedCapacity & directMemoryCacheAlignmentMask) == 0;
+
+                return normalizedCapacity;
+            }
+
             // Doubled
 
             int normalizedCapacity = reqCapacity;
@@ -476,11 +595,8 @@ abstract class PoolArena<T> implements PoolArenaMetric {
 
     @Override
     public long numAllocations() {
-        final long allocsNormal;
-        synchronized (this) {
-            allocsNormal = allocationsNormal;
-        }
-        return allocationsTiny.value() + allocationsSmall.value() + allocsNormal + allocationsHuge.value();
+        return allocationsTiny.value() + allocationsSmall.value() + allocationsNormal.value()
+                + allocationsHuge.value();
     }
 
     @Override
@@ -494,32 +610,29 @@ abstract class PoolArena<T> implements PoolArenaMetric {
     }
 
     @Override
-    public synchronized long numNormalAllocations() {
-        return allocationsNormal;
+    public long numNormalAllocations() {
+        return allocationsNormal.value();
     }
 
     @Override
     public long numDeallocations() {
-        final long deallocs;
-        synchronized (this) {
-            deallocs = deallocationsTiny + deallocationsSmall + deallocationsNormal;
-        }
-        return deallocs + deallocationsHuge.value();
+        return deallocationsTiny.value() + deallocationsSmall.value() + deallocationsNormal.value()
+                + deallocationsHuge.value();
     }
 
     @Override
-    public synchronized long numTinyDeallocations() {
-        return deallocationsTiny;
+    public long numTinyDeallocations() {
+        return deallocationsTiny.value();
     }
 
     @Override
-    public synchronized long numSmallDeallocations() {
-        return deallocationsSmall;
+    public long numSmallDeallocations() {
+        return deallocationsSmall.value();
     }
 
     @Override
-    public synchronized long numNormalDeallocations() {
-        return deallocationsNormal;
+    public long numNormalDeallocations() {
+        return deallocationsNormal.value();
     }
 
     @Override
@@ -534,12 +647,7 @@ abstract class PoolArena<T> implements PoolArenaMetric {
 
     @Override
     public  long numActiveAllocations() {
-        long val = allocationsTiny.value() + allocationsSmall.value() + allocationsHuge.value()
-                - deallocationsHuge.value();
-        synchronized (this) {
-            val += allocationsNormal - (deallocationsTiny + deallocationsSmall + deallocationsNormal);
-        }
-        return max(val, 0);
+        return max(numAllocations() - numDeallocations(), 0);
     }
 
     @Override
@@ -554,11 +662,7 @@ abstract class PoolArena<T> implements PoolArenaMetric {
 
     @Override
     public long numActiveNormalAllocations() {
-        final long val;
-        synchronized (this) {
-            val = allocationsNormal - deallocationsNormal;
-        }
-        return max(val, 0);
+        return max(numNormalAllocations() - numNormalDeallocations(), 0);
     }
 
     @Override
@@ -568,15 +672,7 @@ abstract class PoolArena<T> implements PoolArenaMetric {
 
     @Override
     public long numActiveBytes() {
-        long val = activeBytesHuge.value();
-        synchronized (this) {
-            for (int i = 0; i < chunkListMetrics.size(); i++) {
-                for (PoolChunkMetric m: chunkListMetrics.get(i)) {
-                    val += m.chunkSize();
-                }
-            }
-        }
-        return max(0, val);
+        return max(0, activeBytesHuge.value() + activeBytesChunks.value());
     }
 
     protected abstract PoolChunk<T> newChunk(int pageSize, int maxOrder, int pageShifts, int chunkSize);
@@ -669,9 +765,9 @@ abstract class PoolArena<T> implements PoolArenaMetric {
     static final class HeapArena extends PoolArena<byte[]> {
 
         HeapArena(PooledByteBufferAllocator parent, int pageSize, int maxOrder,
-                int pageShifts, int chunkSize, int directMemoryCacheAlignment) {
+                int pageShifts, int chunkSize, int directMemoryCacheAlignment, boolean sizeClasses) {
             super(parent, pageSize, maxOrder, pageShifts, chunkSize,
-                    directMemoryCacheAlignment);
+                    directMemoryCacheAlignment, sizeClasses);
         }
 
         private static byte[] newByteArray(int size) {
@@ -717,9 +813,9 @@ abstract class PoolArena<T> implements PoolArenaMetric {
     static final class DirectArena extends PoolArena<ByteBuffer> {
 
         DirectArena(PooledByteBufferAllocator parent, int pageSize, int maxOrder,
-                int pageShifts, int chunkSize, int directMemoryCacheAlignment) {
+                int pageShifts, int chunkSize, int directMemoryCacheAlignment, boolean sizeClasses) {
             super(parent, pageSize, maxOrder, pageShifts, chunkSize,
-                    directMemoryCacheAlignment);
+                    directMemoryCacheAlignment, sizeClasses);
         }
 
         @Override
@@ -16,6 +16,8 @@
 
 package com.rnkrsoft.io.buffer;
 
+import java.util.TreeSet;
+
 /**
  * Description of algorithm for PageRun/PoolSubpage allocation from PoolChunk
  *
@@ -99,10 +101,22 @@ package com.rnkrsoft.io.buffer;
  * memoryMap[id]= (depth_of_id, x)
  * where as per convention defined above
  * the second value (i.e, x) indicates that the first node which is free to be allocated is at depth x (from root)
+ *
+ * Size classes:
+ * -------------
+ * If the owning PoolArena uses size classes the memoryMap is not used at all. Instead the chunk is managed as
+ * runs of pages:
+ * > a run is a contiguous range of pages, encoded in the handle as (runOffset in pages << 15 | pages)
+ * > free runs are kept in runsAvail ordered by (pages, runOffset), so allocating takes the smallest free run
+ *   that fits (lowest offset first) and splits off the remainder
+ * > freeing a run coalesces it with the free runs directly before and after it (runHeads / runTails)
+ * > subpages may span several pages so that sizes like 10k are packed without waste (4 x 10k in a 40k run)
  */
 final class PoolChunk<T> implements PoolChunkMetric {
 
     private static final int INTEGER_SIZE_MINUS_ONE = Integer.SIZE - 1;
+    private static final int RUN_PAGES_SHIFT = 15;
+    private static final int RUN_PAGES_MASK = (1 << RUN_PAGES_SHIFT) - 1;
 
     final PoolArena<T> arena;
     final T memory;
@@ -112,8 +126,12 @@ final class PoolChunk<T> implements PoolChunkMetric {
     private final byte[] memoryMap;
     private final byte[] depthMap;
     private final PoolSubpage<T>[] subpages;
-    /** Used to determine if the requested capacity is equal to or greater than pageSize. */
-    private final int subpageOverflowMask;
+    /** Free runs keyed by (pages << 32 | runOffset), only used if the arena uses size classes. */
+    private final TreeSet<Long> runsAvail;
+    /** Length in pages of the free run starting at a page, 0 if none starts there. */
+    private final int[] runHeads;
+    /** First page + 1 of the free run ending at a page, 0 if none ends there. */
+    private final int[] runTails;
     private final int pageSize;
     private final int pageShifts;
     private final int maxOrder;
@@ -123,11 +141,14 @@ final class PoolChunk<T> implements PoolChunkMetric {
     /** Used to mark memory as unusable */
     private final byte unusable;
 
-    private int freeBytes;
+    // Written while holding the arena lock, volatile so that metrics can read it without taking the lock.
+    private volatile int freeBytes;
 
     PoolChunkList<T> parent;
     PoolChunk<T> prev;
     PoolChunk<T> next;
+    // Number of consecutive PoolReclaimer sweeps which found this chunk completely free, guarded by the arena lock.
+    int idleSweeps;
 
     // TODO: Test if adding padding helps under contention
     //private long pad0, pad1, pad2, pad3, pad4, pad5, pad6, pad7;
@@ -143,11 +164,24 @@ final class PoolChunk<T> implements PoolChunkMetric {
         this.offset = offset;
         unusable = (byte) (maxOrder + 1);
         log2ChunkSize = log2(chunkSize);
-        subpageOverflowMask = ~(pageSize - 1);
         freeBytes = chunkSize;
 
         assert maxOrder < 30 : "maxOrder should be < 30, but is: " + maxOrder;
         maxSubpageAllocs = 1 << maxOrder;
+        subpages = newSubpageArray(maxSubpageAllocs);
+
+        if (arena.sizeClasses) {
+            memoryMap = null;
+            depthMap = null;
+            runsAvail = new TreeSet<Long>();
+            runHeads = new int[maxSubpageAllocs];
+            runTails = new int[maxSubpageAllocs];
+            addRun(0, maxSubpageAllocs);
+            return;
+        }
+        runsAvail = null;
+        runHeads = null;
+        runTails = null;
 
         // Generate the memory map.
         memoryMap = new byte[maxSubpageAllocs << 1];
@@ -162,8 +196,6 @@ final class PoolChunk<T> implements PoolChunkMetric {
                 memoryMapIndex ++;
             }
         }
-
-        subpages = newSubpageArray(maxSubpageAllocs);
     }
 
     /** Creates a special chunk that is not pooled. */
@@ -175,7 +207,9 @@ final class PoolChunk<T> implements PoolChunkMetric {
         memoryMap = null;
         depthMap = null;
         subpages = null;
-        subpageOverflowMask = 0;
+        runsAvail = null;
+        runHeads = null;
+        runTails = null;
         pageSize = 0;
         pageShifts = 0;
         maxOrder = 0;
@@ -192,10 +226,6 @@ final class PoolChunk<T> implements PoolChunkMetric {
 
     @Override
     public int usage() {
-        final int freeBytes;
-        synchronized (arena) {
-            freeBytes = this.freeBytes;
-        }
         return usage(freeBytes);
     }
 
@@ -212,7 +242,8 @@ final class PoolChunk<T> implements PoolChunkMetric {
     }
 
     long allocate(int normCapacity) {
-        if ((normCapacity & subpageOverflowMask) != 0) { // >= pageSize
+        idleSweeps = 0;
+        if (!arena.isTinyOrSmall(normCapacity)) { // >= maxSubpageSize
             return allocateRun(normCapacity);
         } else {
             return allocateSubpage(normCapacity);
@@ -301,8 +332,13 @@ final class PoolChunk<T> implements PoolChunkMetric {
      * @return index in memoryMap
      */
     private long allocateRun(int normCapacity) {
-        int d = maxOrder - (log2(normCapacity) - pageShifts);
-        int id = allocateNode(d);
+        int id;
+        if (runsAvail != null) {
+            id = allocatePages(normCapacity >>> pageShifts);
+        } else {
+            int d = maxOrder - (log2(normCapacity) - pageShifts);
+            id = allocateNode(d);
+        }
         if (id < 0) {
             return id;
         }
@@ -322,21 +358,26 @@ final class PoolChunk<T> implements PoolChunkMetric {
         // This is need as we may add it back and so alter the linked-list structure.
         PoolSubpage<T> head = arena.findSubpagePoolHead(normCapacity);
         synchronized (head) {
-            int d = maxOrder; // subpages are only be allocated from pages i.e., leaves
-            int id = allocateNode(d);
+            final int runSize = subpageRunSize(normCapacity);
+            int id;
+            if (runsAvail != null) {
+                id = allocatePages(runSize >>> pageShifts);
+            } else {
+                int d = maxOrder; // subpages are only be allocated from pages i.e., leaves
+                id = allocateNode(d);
+            }
             if (id < 0) {
                 return id;
             }
 
             final PoolSubpage<T>[] subpages = this.subpages;
-            final int pageSize = this.pageSize;
 
-            freeBytes -= pageSize;
+            freeBytes -= runSize;
 
             int subpageIdx = subpageIdx(id);
             PoolSubpage<T> subpage = subpages[subpageIdx];
-            if (subpage == null) {
-                subpage = new PoolSubpage<T>(head, this, id, runOffset(id), pageSize, normCapacity);
+            if (subpage == null || subpage.pageSize() != runSize) {
+                subpage = new PoolSubpage<T>(head, this, id, runOffset(id), runSize, normCapacity);
                 subpages[subpageIdx] = subpage;
             } else {
                 subpage.init(head, normCapacity);
@@ -345,6 +386,74 @@ final class PoolChunk<T> implements PoolChunkMetric {
         }
     }
 
+    /**
+     * Size of the run a {@link PoolSubpage} of {@code normCapacity} is carved from. With size classes this is the
+     * smallest multiple of pageSize that is also a multiple of {@code normCapacity}, so no space is wasted.
+     */
+    private int subpageRunSize(int normCapacity) {
+        if (runsAvail == null || PoolArena.isTiny(normCapacity)) {
+            return pageSize;
+        }
+        int shifts = Integer.numberOfTrailingZeros(normCapacity);
+        return (normCapacity >>> shifts) << Math.max(shifts, pageShifts);
+    }
+
+    /**
+     * Allocate a run of {@code pages} out of the smallest free run that is big enough.
+     *
+     * @param pages number of pages
+     * @return run id or -1 if no free run is big enough
+     */
+    private int allocatePages(int pages) {
+        Long run = runsAvail.ceiling((long) pages << Integer.SIZE);
+        if (run == null) {
+            return -1;
+        }
+        int runOffset = (int) (long) run;
+        int runPages = (int) (run >>> Integer.SIZE);
+        removeRun(runOffset, runPages);
+        if (runPages > pages) {
+            addRun(runOffset + pages, runPages - pages);
+        }
+        return runOffset << RUN_PAGES_SHIFT | pages;
+    }
+
+    /**
+     * Give the run back and coalesce it with its free neighbours.
+     *
+     * @param id run id
+     */
+    private void freePages(int id) {
+        int runOffset = id >>> RUN_PAGES_SHIFT;
+        int pages = id & RUN_PAGES_MASK;
+        if (runOffset > 0 && runTails[runOffset - 1] != 0) {
+            int prevOffset = runTails[runOffset - 1] - 1;
+            int prevPages = runHeads[prevOffset];
+            removeRun(prevOffset, prevPages);
+            runOffset = prevOffset;
+            pages += prevPages;
+        }
+        int nextOffset = runOffset + pages;
+        if (nextOffset < maxSubpageAllocs && runHeads[nextOffset] != 0) {
+            int nextPages = runHeads[nextOffset];
+            removeRun(nextOffset, nextPages);
+            pages += nextPages;
+        }
+        addRun(runOffset, pages);
+    }
+
+    private void addRun(int runOffset, int pages) {
+        runsAvail.add((long) pages << Integer.SIZE | runOffset);
+        runHeads[runOffset] = pages;
+        runTails[runOffset + pages - 1] = runOffset + 1;
+    }
+
+    private void removeRun(int runOffset, int pages) {
+        runsAvail.remove((long) pages << Integer.SIZE | runOffset);
+        runHeads[runOffset] = 0;
+        runTails[runOffset + pages - 1] = 0;
+    }
+
     /**
      * Free a subpage or a run of pages
      * When a subpage is freed from PoolSubpage, it might be added back to subpage pool of the owning PoolArena
@@ -371,16 +480,19 @@ final class PoolChunk<T> implements PoolChunkMetric {
             }
         }
         freeBytes += runLength(memoryMapIdx);
-        setValue(memoryMapIdx, depth(memoryMapIdx));
-        updateParentsFree(memoryMapIdx);
+        if (runsAvail != null) {
+            freePages(memoryMapIdx);
+        } else {
+            setValue(memoryMapIdx, depth(memoryMapIdx));
+            updateParentsFree(memoryMapIdx);
+        }
     }
 
     void initBuf(PooledByteBuffer<T> buf, long handle, int reqCapacity) {
         int memoryMapIdx = memoryMapIdx(handle);
         int bitmapIdx = bitmapIdx(handle);
         if (bitmapIdx == 0) {
-            byte val = value(memoryMapIdx);
-            assert val == unusable : String.valueOf(val);
+            assert runsAvail != null || value(memoryMapIdx) == unusable : String.valueOf(value(memoryMapIdx));
             buf.init(this, handle, runOffset(memoryMapIdx) + offset, reqCapacity, runLength(memoryMapIdx),
                      arena.parent.threadCache());
         } else {
@@ -425,17 +537,26 @@ final class PoolChunk<T> implements PoolChunkMetric {
     }
 
     private int runLength(int id) {
+        if (runsAvail != null) {
+            return (id & RUN_PAGES_MASK) << pageShifts;
+        }
         // represents the size in #bytes supported by node 'id' in the tree
         return 1 << log2ChunkSize - depth(id);
     }
 
     private int runOffset(int id) {
+        if (runsAvail != null) {
+            return (id >>> RUN_PAGES_SHIFT) << pageShifts;
+        }
         // represents the 0-based offset in #bytes from start of the byte-array chunk
         int shift = id ^ 1 << depth(id);
         return shift * runLength(id);
     }
 
     private int subpageIdx(int memoryMapIdx) {
+        if (runsAvail != null) {
+            return memoryMapIdx >>> RUN_PAGES_SHIFT; // first page of the run
+        }
         return memoryMapIdx ^ maxSubpageAllocs; // remove highest set bit, to get offset
     }
 
@@ -454,17 +575,12 @@ final class PoolChunk<T> implements PoolChunkMetric {
 
     @Override
     public int freeBytes() {
-        synchronized (arena) {
-            return freeBytes;
-        }
+        return freeBytes;
     }
 
     @Override
     public String toString() {
-        final int freeBytes;
-        synchronized (arena) {
-            freeBytes = this.freeBytes;
-        }
+        final int freeBytes = this.freeBytes;
 
         return new StringBuilder()
                 .append("Chunk(")
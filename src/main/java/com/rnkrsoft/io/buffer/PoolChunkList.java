@@ -176,6 +176,23 @@ final class PoolChunkList<T> implements PoolChunkListMetric {
         }
     }
 
+    /**
+     * Remove the chunks which were found completely free by {@code idleSweeps} consecutive sweeps and add them to
+     * {@code idleChunks}. Method must be called inside synchronized(arena) { ... } block
+     */
+    void removeIdleChunks(int idleSweeps, List<PoolChunk<T>> idleChunks) {
+        for (PoolChunk<T> cur = head; cur != null;) {
+            PoolChunk<T> next = cur.next;
+            if (cur.freeBytes() != cur.chunkSize()) {
+                cur.idleSweeps = 0;
+            } else if (++cur.idleSweeps >= idleSweeps) {
+                remove(cur);
+                idleChunks.add(cur);
+            }
+            cur = next;
+        }
+    }
+
     @Override
     public int minUsage() {
         return minUsage0(minUsage);
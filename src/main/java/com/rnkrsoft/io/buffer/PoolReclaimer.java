@@ -0,0 +1,108 @@
+package com.rnkrsoft.io.buffer;
+
+import com.rnkrsoft.io.buffer.util.internal.SystemPropertyUtil;
+import com.rnkrsoft.io.buffer.util.internal.logging.InternalLogger;
+import com.rnkrsoft.io.buffer.util.internal.logging.InternalLoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 内存池回收线程，定期释放空闲线程的线程缓存以及长时间完全空闲的Chunk，使流量高峰过后进程占用的内存能够回落
+ */
+final class PoolReclaimer {
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(PoolReclaimer.class);
+    /**
+     * 扫描间隔毫秒数，小于等于0时不启用回收线程
+     */
+    static final long RECLAIM_INTERVAL = SystemPropertyUtil.getLong("com.rnkrsoft.io.allocator.reclaimInterval", 1000);
+    /**
+     * 线程缓存和Chunk空闲多少毫秒后被回收
+     */
+    static final long RECLAIM_IDLE_TIME = SystemPropertyUtil.getLong("com.rnkrsoft.io.allocator.reclaimIdleTime", 60000);
+    static final String RECLAIMER_THREAD_NAME = PoolReclaimer.class.getSimpleName() + "Thread";
+
+    private static final List<WeakReference<PooledByteBufferAllocator>> ALLOCATORS = new CopyOnWriteArrayList<WeakReference<PooledByteBufferAllocator>>();
+    private static boolean running;
+
+    static {
+        if (logger.isDebugEnabled()) {
+            logger.debug("-Dcom.rnkrsoft.io.allocator.reclaimInterval: {}", RECLAIM_INTERVAL);
+            logger.debug("-Dcom.rnkrsoft.io.allocator.reclaimIdleTime: {}", RECLAIM_IDLE_TIME);
+        }
+    }
+
+    private PoolReclaimer() {
+    }
+
+    /**
+     * 空闲多少次扫描后回收
+     */
+    static int idleSweeps() {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, RECLAIM_IDLE_TIME / RECLAIM_INTERVAL));
+    }
+
+    /**
+     * 注册内存池分配器，分配器被回收后自动注销
+     *
+     * @param allocator 内存池分配器
+     */
+    static void register(PooledByteBufferAllocator allocator) {
+        if (RECLAIM_INTERVAL <= 0) {
+            return;
+        }
+        ALLOCATORS.add(new WeakReference<PooledByteBufferAllocator>(allocator));
+        ensureStarted();
+    }
+
+    static synchronized void ensureStarted() {
+        if (running) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (sweep()) {
+                    try {
+                        Thread.sleep(RECLAIM_INTERVAL);
+                    } catch (InterruptedException e) {
+                        // 回收线程没有别的任务，继续扫描
+                    }
+                }
+            }
+        }, RECLAIMER_THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+        running = true;
+    }
+
+    /**
+     * 扫描一次所有的分配器
+     *
+     * @return 还有分配器需要扫描返回真
+     */
+    static boolean sweep() {
+        int idleSweeps = idleSweeps();
+        for (WeakReference<PooledByteBufferAllocator> reference : ALLOCATORS) {
+            PooledByteBufferAllocator allocator = reference.get();
+            if (allocator == null) {
+                ALLOCATORS.remove(reference);
+                continue;
+            }
+            try {
+                allocator.reclaim(idleSweeps);
+            } catch (Throwable e) {
+                logger.warn("Failed to reclaim memory of " + allocator, e);
+            }
+        }
+        synchronized (PoolReclaimer.class) {
+            if (ALLOCATORS.isEmpty()) {
+                running = false;
+                return false;
+            }
+            return true;
+        }
+    }
+}
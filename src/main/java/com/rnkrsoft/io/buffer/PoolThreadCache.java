@@ -25,8 +25,11 @@ import com.rnkrsoft.io.buffer.util.internal.PlatformDependent;
 import com.rnkrsoft.io.buffer.util.internal.logging.InternalLogger;
 import com.rnkrsoft.io.buffer.util.internal.logging.InternalLoggerFactory;
 
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Acts a Thread cache for allocations. This implementation is moduled after
@@ -34,6 +37,17 @@ import java.util.Queue;
  * technics of
  * <a href="https://www.facebook.com/notes/facebook-engineering/scalable-memory-allocation-using-jemalloc/480222803919">
  * Scalable memory allocation using jemalloc</a>.
+ *
+ * The capacity of every {@link MemoryRegionCache} adapts to the observed allocations: each trim compares the hits
+ * and misses since the previous trim, grows a cache that missed more often than it hit and shrinks a cache that was
+ * hardly used. A shrunk cache may always grow back to its configured size. Beyond that it grows to at most twice its
+ * configured size, and only while the capacity of all thread caches of the allocator stays within the cache budget.
+ * The trim interval itself grows while trims free nothing and shrinks again once they do.
+ *
+ * Caches of threads which stopped allocating are freed by the {@link PoolReclaimer}. Only one thread at a time
+ * consumes from the queues: the owning thread claims them with an uncontended CAS on every allocation and the
+ * reclaimer only claims them while the owning thread is not allocating, an allocation racing with the reclaimer just
+ * falls back to the arena.
  */
 final class PoolThreadCache {
 
@@ -50,33 +64,48 @@ final class PoolThreadCache {
     private final MemoryRegionCache<byte[]>[] normalHeapCaches;
     private final MemoryRegionCache<ByteBuffer>[] normalDirectCaches;
 
-    // Used for bitshifting when calculate the index of normal caches later
-    private final int numShiftsNormalDirect;
-    private final int numShiftsNormalHeap;
     private final int freeSweepAllocationThreshold;
-
+    private final long cacheBudget;
+    // Capacity in bytes of all thread caches of the allocator, shared by them to enforce cacheBudget.
+    private final AtomicLong cacheCapacity;
+    private final WeakReference<Thread> owner = new WeakReference<Thread>(Thread.currentThread());
+    private final AtomicBoolean freed = new AtomicBoolean();
+    // Set while a thread consumes from the queues, see the class javadoc.
+    private final AtomicBoolean consuming = new AtomicBoolean();
+    // Only accessed by the PoolReclaimer.
+    private int lastAccesses = -1;
+    private int idleSweeps;
+
+    // Number of allocations out of this cache, never reset so the PoolReclaimer can tell whether it is still used.
+    private int accesses;
+    // Number of allocations since the last trim.
     private int allocations;
+    // Number of allocations until the next trim, adapted between freeSweepAllocationThreshold / 8 and * 8
+    private int trimInterval;
 
     // TODO: Test if adding padding helps under contention
     //private long pad0, pad1, pad2, pad3, pad4, pad5, pad6, pad7;
 
     PoolThreadCache(PoolArena<byte[]> heapArena, PoolArena<ByteBuffer> directArena,
                     int tinyCacheSize, int smallCacheSize, int normalCacheSize,
-                    int maxCachedBufferCapacity, int freeSweepAllocationThreshold) {
+                    int maxCachedBufferCapacity, int freeSweepAllocationThreshold,
+                    long cacheBudget, AtomicLong cacheCapacity) {
         if (maxCachedBufferCapacity < 0) {
             throw new IllegalArgumentException("maxCachedBufferCapacity: "
                     + maxCachedBufferCapacity + " (expected: >= 0)");
         }
         this.freeSweepAllocationThreshold = freeSweepAllocationThreshold;
+        this.cacheBudget = cacheBudget;
+        this.cacheCapacity = cacheCapacity;
+        trimInterval = freeSweepAllocationThreshold;
         this.heapArena = heapArena;
         this.directArena = directArena;
         if (directArena != null) {
             tinySubPageDirectCaches = createSubPageCaches(
-                    tinyCacheSize, PoolArena.numTinySubpagePools, SizeClass.Tiny);
+                    tinyCacheSize, PoolArena.numTinySubpagePools, SizeClass.Tiny, directArena);
             smallSubPageDirectCaches = createSubPageCaches(
-                    smallCacheSize, directArena.numSmallSubpagePools, SizeClass.Small);
+                    smallCacheSize, directArena.numSmallSubpagePools, SizeClass.Small, directArena);
 
-            numShiftsNormalDirect = log2(directArena.pageSize);
             normalDirectCaches = createNormalCaches(
                     normalCacheSize, maxCachedBufferCapacity, directArena);
 
@@ -86,16 +115,14 @@ final class PoolThreadCache {
             tinySubPageDirectCaches = null;
             smallSubPageDirectCaches = null;
             normalDirectCaches = null;
-            numShiftsNormalDirect = -1;
         }
         if (heapArena != null) {
             // Create the caches for the heap allocations
             tinySubPageHeapCaches = createSubPageCaches(
-                    tinyCacheSize, PoolArena.numTinySubpagePools, SizeClass.Tiny);
+                    tinyCacheSize, PoolArena.numTinySubpagePools, SizeClass.Tiny, heapArena);
             smallSubPageHeapCaches = createSubPageCaches(
-                    smallCacheSize, heapArena.numSmallSubpagePools, SizeClass.Small);
+                    smallCacheSize, heapArena.numSmallSubpagePools, SizeClass.Small, heapArena);
 
-            numShiftsNormalHeap = log2(heapArena.pageSize);
             normalHeapCaches = createNormalCaches(
                     normalCacheSize, maxCachedBufferCapacity, heapArena);
 
@@ -105,7 +132,6 @@ final class PoolThreadCache {
             tinySubPageHeapCaches = null;
             smallSubPageHeapCaches = null;
             normalHeapCaches = null;
-            numShiftsNormalHeap = -1;
         }
 
         // Only check if there are caches in use.
@@ -115,16 +141,18 @@ final class PoolThreadCache {
             throw new IllegalArgumentException("freeSweepAllocationThreshold: "
                     + freeSweepAllocationThreshold + " (expected: > 0)");
         }
+        cacheCapacity.addAndGet(capacityBytes());
     }
 
     private static <T> MemoryRegionCache<T>[] createSubPageCaches(
-            int cacheSize, int numCaches, SizeClass sizeClass) {
+            int cacheSize, int numCaches, SizeClass sizeClass, PoolArena<T> area) {
         if (cacheSize > 0 && numCaches > 0) {
             @SuppressWarnings("unchecked")
             MemoryRegionCache<T>[] cache = new MemoryRegionCache[numCaches];
             for (int i = 0; i < cache.length; i++) {
                 // TODO: maybe use cacheSize / cache.length
-                cache[i] = new SubPageMemoryRegionCache<T>(cacheSize, sizeClass);
+                int elemSize = sizeClass == SizeClass.Tiny ? i << 4 : area.smallCapacity(i);
+                cache[i] = new SubPageMemoryRegionCache<T>(cacheSize, elemSize, sizeClass);
             }
             return cache;
         } else {
@@ -136,12 +164,12 @@ final class PoolThreadCache {
             int cacheSize, int maxCachedBufferCapacity, PoolArena<T> area) {
         if (cacheSize > 0 && maxCachedBufferCapacity > 0) {
             int max = Math.min(area.chunkSize, maxCachedBufferCapacity);
-            int arraySize = Math.max(1, log2(max / area.pageSize) + 1);
+            int arraySize = Math.max(1, area.normalCacheIdx(max) + 1);
 
             @SuppressWarnings("unchecked")
             MemoryRegionCache<T>[] cache = new MemoryRegionCache[arraySize];
             for (int i = 0; i < cache.length; i++) {
-                cache[i] = new NormalMemoryRegionCache<T>(cacheSize);
+                cache[i] = new NormalMemoryRegionCache<T>(cacheSize, area.normalCacheCapacity(i));
             }
             return cache;
         } else {
@@ -149,15 +177,6 @@ final class PoolThreadCache {
         }
     }
 
-    private static int log2(int val) {
-        int res = 0;
-        while (val > 1) {
-            val >>= 1;
-            res++;
-        }
-        return res;
-    }
-
     /**
      * Try to allocate a tiny buffer out of the cache. Returns {@code true} if successful {@code false} otherwise
      */
@@ -185,12 +204,26 @@ final class PoolThreadCache {
             // no cache found so just return false here
             return false;
         }
-        boolean allocated = cache.allocate(buf, reqCapacity);
-        if (++ allocations >= freeSweepAllocationThreshold) {
-            allocations = 0;
-            trim();
+        if (!consuming.compareAndSet(false, true)) {
+            // the PoolReclaimer frees this cache right now, fall back to the arena
+            return false;
+        }
+        try {
+            boolean allocated = cache.allocate(buf, reqCapacity);
+            ++ accesses;
+            if (++ allocations >= trimInterval) {
+                allocations = 0;
+                int numFreed = trim();
+                if (numFreed == 0) {
+                    trimInterval = Math.min(trimInterval << 1, freeSweepAllocationThreshold << 3);
+                } else {
+                    trimInterval = Math.max(trimInterval >> 1, Math.max(1, freeSweepAllocationThreshold >> 3));
+                }
+            }
+            return allocated;
+        } finally {
+            consuming.lazySet(false);
         }
-        return allocated;
     }
 
     /**
@@ -200,10 +233,10 @@ final class PoolThreadCache {
     @SuppressWarnings({ "unchecked", "rawtypes" })
     boolean add(PoolArena<?> area, PoolChunk chunk, long handle, int normCapacity, SizeClass sizeClass) {
         MemoryRegionCache<?> cache = cache(area, normCapacity, sizeClass);
-        if (cache == null) {
+        if (cache == null || freed.get()) {
             return false;
         }
-        return cache.add(chunk, handle);
+        return cache.add(chunk, handle, normCapacity);
     }
 
     private MemoryRegionCache<?> cache(PoolArena<?> area, int normCapacity, SizeClass sizeClass) {
@@ -223,15 +256,27 @@ final class PoolThreadCache {
      *  Should be called if the Thread that uses this cache is about to exist to release resources out of the cache
      */
     void free() {
-        int numFreed = free(tinySubPageDirectCaches) +
-                free(smallSubPageDirectCaches) +
-                free(normalDirectCaches) +
-                free(tinySubPageHeapCaches) +
-                free(smallSubPageHeapCaches) +
-                free(normalHeapCaches);
+        if (!freed.compareAndSet(false, true)) {
+            // already freed by the PoolReclaimer as the thread died
+            return;
+        }
+        // Either called by the owning thread or after it died, so the reclaimer is the only one to wait for.
+        while (!consuming.compareAndSet(false, true)) {
+            Thread.yield();
+        }
+        int numFreed;
+        try {
+            numFreed = freeCaches();
+            cacheCapacity.addAndGet(-capacityBytes());
+        } finally {
+            consuming.set(false);
+        }
 
         if (numFreed > 0 && logger.isDebugEnabled()) {
-            logger.debug("Freed {} thread-local buffer(s) from thread: {}", numFreed, Thread.currentThread().getName());
+            // free() may run on the reclaimer thread, so name the thread this cache belongs to.
+            Thread thread = owner.get();
+            logger.debug("Freed {} thread-local buffer(s) from thread: {}", numFreed,
+                    thread != null ? thread.getName() : "<terminated>");
         }
 
         if (directArena != null) {
@@ -243,6 +288,49 @@ final class PoolThreadCache {
         }
     }
 
+    /**
+     * Free all cached entries, the caches stay usable.
+     */
+    private int freeCaches() {
+        return free(tinySubPageDirectCaches) +
+                free(smallSubPageDirectCaches) +
+                free(normalDirectCaches) +
+                free(tinySubPageHeapCaches) +
+                free(smallSubPageHeapCaches) +
+                free(normalHeapCaches);
+    }
+
+    /**
+     * Called by the {@link PoolReclaimer} on every sweep. Frees all cached entries once the owning thread did not
+     * allocate out of this cache for {@code idleSweeps} sweeps and frees the cache for good once the owning thread
+     * died. Returns {@code false} in the latter case.
+     */
+    boolean reclaim(int idleSweeps) {
+        Thread thread = owner.get();
+        if (thread == null || !thread.isAlive()) {
+            free();
+            return false;
+        }
+        // accesses is written by the owning thread only, a stale value just delays the reclaim by one sweep.
+        int accesses = this.accesses;
+        if (accesses != lastAccesses) {
+            lastAccesses = accesses;
+            this.idleSweeps = 0;
+        } else if (++this.idleSweeps >= idleSweeps && consuming.compareAndSet(false, true)) {
+            this.idleSweeps = 0;
+            int numFreed;
+            try {
+                numFreed = freeCaches();
+            } finally {
+                consuming.set(false);
+            }
+            if (numFreed > 0 && logger.isDebugEnabled()) {
+                logger.debug("Freed {} thread-local buffer(s) of idle thread: {}", numFreed, thread.getName());
+            }
+        }
+        return true;
+    }
+
     private static int free(MemoryRegionCache<?>[] caches) {
         if (caches == null) {
             return 0;
@@ -262,29 +350,72 @@ final class PoolThreadCache {
         return cache.free();
     }
 
-    void trim() {
-        trim(tinySubPageDirectCaches);
-        trim(smallSubPageDirectCaches);
+    /**
+     * Adapt the capacity of all caches to the allocations since the last trim and free what is not used.
+     * Returns the number of freed entries. Must only be called by the owning thread.
+     */
+    int trim() {
         trim(normalDirectCaches);
-        trim(tinySubPageHeapCaches);
-        trim(smallSubPageHeapCaches);
         trim(normalHeapCaches);
+        trim(smallSubPageDirectCaches);
+        trim(smallSubPageHeapCaches);
+        trim(tinySubPageDirectCaches);
+        trim(tinySubPageHeapCaches);
+        return numFreed(tinySubPageDirectCaches) + numFreed(smallSubPageDirectCaches)
+                + numFreed(normalDirectCaches) + numFreed(tinySubPageHeapCaches)
+                + numFreed(smallSubPageHeapCaches) + numFreed(normalHeapCaches);
     }
 
-    private static void trim(MemoryRegionCache<?>[] caches) {
+    /**
+     * Reserve {@code bytes} of the allocator wide cache budget. Returns {@code false} if they do not fit.
+     */
+    private boolean reserve(long bytes) {
+        for (;;) {
+            long capacity = cacheCapacity.get();
+            if (capacity + bytes > cacheBudget) {
+                return false;
+            }
+            if (cacheCapacity.compareAndSet(capacity, capacity + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    private long capacityBytes() {
+        return capacityBytes(tinySubPageDirectCaches) + capacityBytes(smallSubPageDirectCaches)
+                + capacityBytes(normalDirectCaches) + capacityBytes(tinySubPageHeapCaches)
+                + capacityBytes(smallSubPageHeapCaches) + capacityBytes(normalHeapCaches);
+    }
+
+    private static long capacityBytes(MemoryRegionCache<?>[] caches) {
         if (caches == null) {
-            return;
+            return 0;
         }
+        long bytes = 0;
         for (MemoryRegionCache<?> c: caches) {
-            trim(c);
+            bytes += c.capacityBytes();
         }
+        return bytes;
     }
 
-    private static void trim(MemoryRegionCache<?> cache) {
-        if (cache == null) {
+    private void trim(MemoryRegionCache<?>[] caches) {
+        if (caches == null) {
             return;
         }
-        cache.trim();
+        for (MemoryRegionCache<?> c: caches) {
+            c.trim(this);
+        }
+    }
+
+    private static int numFreed(MemoryRegionCache<?>[] caches) {
+        if (caches == null) {
+            return 0;
+        }
+        int numFreed = 0;
+        for (MemoryRegionCache<?> c: caches) {
+            numFreed += c.numFreed;
+        }
+        return numFreed;
     }
 
     private MemoryRegionCache<?> cacheForTiny(PoolArena<?> area, int normCapacity) {
@@ -296,7 +427,7 @@ final class PoolThreadCache {
     }
 
     private MemoryRegionCache<?> cacheForSmall(PoolArena<?> area, int normCapacity) {
-        int idx = PoolArena.smallIdx(normCapacity);
+        int idx = area.smallIdx(normCapacity);
         if (area.isDirect()) {
             return cache(smallSubPageDirectCaches, idx);
         }
@@ -304,11 +435,10 @@ final class PoolThreadCache {
     }
 
     private MemoryRegionCache<?> cacheForNormal(PoolArena<?> area, int normCapacity) {
+        int idx = area.normalCacheIdx(normCapacity);
         if (area.isDirect()) {
-            int idx = log2(normCapacity >> numShiftsNormalDirect);
             return cache(normalDirectCaches, idx);
         }
-        int idx = log2(normCapacity >> numShiftsNormalHeap);
         return cache(normalHeapCaches, idx);
     }
 
@@ -323,8 +453,8 @@ final class PoolThreadCache {
      * Cache used for buffers which are backed by TINY or SMALL size.
      */
     private static final class SubPageMemoryRegionCache<T> extends MemoryRegionCache<T> {
-        SubPageMemoryRegionCache(int size, SizeClass sizeClass) {
-            super(size, sizeClass);
+        SubPageMemoryRegionCache(int size, int elemSize, SizeClass sizeClass) {
+            super(size, elemSize, sizeClass);
         }
 
         @Override
@@ -338,8 +468,8 @@ final class PoolThreadCache {
      * Cache used for buffers which are backed by NORMAL size.
      */
     private static final class NormalMemoryRegionCache<T> extends MemoryRegionCache<T> {
-        NormalMemoryRegionCache(int size) {
-            super(size, SizeClass.Normal);
+        NormalMemoryRegionCache(int size, int elemSize) {
+            super(size, elemSize, SizeClass.Normal);
         }
 
         @Override
@@ -350,14 +480,26 @@ final class PoolThreadCache {
     }
 
     private abstract static class MemoryRegionCache<T> {
-        private final int size;
+        private final int configuredSize;
+        private final int maxSize;
         private final Queue<Entry<T>> queue;
         private final SizeClass sizeClass;
+        // Current capacity, only changed by the owning thread but read by every thread that frees into this cache.
+        private volatile int size;
+        // Largest capacity of the memory regions cached here.
+        private final int elemSize;
+        // Only accessed by the thread consuming from the queue.
         private int allocations;
+        private int misses;
+        // Number of entries freed by the last trim.
+        private int numFreed;
 
-        MemoryRegionCache(int size, SizeClass sizeClass) {
+        MemoryRegionCache(int size, int elemSize, SizeClass sizeClass) {
             this.size = MathUtil.safeFindNextPositivePowerOfTwo(size);
-            queue = PlatformDependent.newFixedMpscQueue(this.size);
+            this.elemSize = elemSize;
+            configuredSize = this.size;
+            maxSize = this.size << 1;
+            queue = PlatformDependent.newFixedMpscQueue(maxSize);
             this.sizeClass = sizeClass;
         }
 
@@ -371,7 +513,10 @@ final class PoolThreadCache {
          * Add to cache if not already full.
          */
         @SuppressWarnings("unchecked")
-        public final boolean add(PoolChunk<T> chunk, long handle) {
+        public final boolean add(PoolChunk<T> chunk, long handle, int normCapacity) {
+            if (queue.size() >= size) {
+                return false;
+            }
             Entry<T> entry = newEntry(chunk, handle);
             boolean queued = queue.offer(entry);
             if (!queued) {
@@ -383,23 +528,27 @@ final class PoolThreadCache {
         }
 
         /**
-         * Allocate something out of the cache if possible and remove the entry from the cache.
+         * Allocate something out of the cache if possible and remove the entry from the cache. The caller must be
+         * the thread consuming from the queue.
          */
         public final boolean allocate(PooledByteBuffer<T> buf, int reqCapacity) {
             Entry<T> entry = queue.poll();
             if (entry == null) {
+                // misses is not thread-safe which is fine as only the consuming thread calls this.
+                ++ misses;
                 return false;
             }
             initBuf(entry.chunk, entry.handle, buf, reqCapacity);
             entry.recycle();
 
-            // allocations is not thread-safe which is fine as this is only called from the same thread all time.
+            // allocations is not thread-safe which is fine as only the consuming thread calls this.
             ++ allocations;
             return true;
         }
 
         /**
-         * Clear out this cache and free up all previous cached {@link PoolChunk}s and {@code handle}s.
+         * Clear out this cache and free up all previous cached {@link PoolChunk}s and {@code handle}s. The caller
+         * must be the thread consuming from the queue.
          */
         public final int free() {
             return free(Integer.MAX_VALUE);
@@ -420,16 +569,42 @@ final class PoolThreadCache {
         }
 
         /**
-         * Free up cached {@link PoolChunk}s if not allocated frequently enough.
+         * Bytes that may be held by this cache at its current capacity.
+         */
+        final long capacityBytes() {
+            return (long) size * elemSize;
+        }
+
+        /**
+         * Adapt the capacity to the hits and misses since the last trim and free up cached {@link PoolChunk}s if
+         * not allocated frequently enough. Growing beyond the configured size is only allowed within the cache budget
+         * of {@code cache}.
+         * The size is only changed here, so by the owning thread.
          */
-        public final void trim() {
-            int free = size - allocations;
+        final void trim(PoolThreadCache cache) {
+            int hits = allocations;
+            int misses = this.misses;
             allocations = 0;
+            this.misses = 0;
+
+            int size = this.size;
+            if (misses > hits && size < configuredSize) {
+                // Missed more often than hit, the configured size is always granted.
+                cache.cacheCapacity.addAndGet((long) size * elemSize);
+                size <<= 1;
+            } else if (misses > hits && size < maxSize && cache.reserve((long) size * elemSize)) {
+                // Missed more often than hit, so more entries would have been used.
+                size <<= 1;
+            } else if (hits < size >>> 2 && size > 1) {
+                // Hardly used, hold on to less memory.
+                size >>>= 1;
+                cache.cacheCapacity.addAndGet(-(long) size * elemSize);
+            }
+            this.size = size;
 
+            int free = Math.max(size - hits, queue.size() - size);
             // We not even allocated all the number that are
-            if (free > 0) {
-                free(free);
-            }
+            numFreed = free > 0 ? free(free) : 0;
         }
 
         @SuppressWarnings({ "unchecked", "rawtypes" })
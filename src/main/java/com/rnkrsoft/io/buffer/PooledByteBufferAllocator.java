@@ -20,6 +20,7 @@ import com.rnkrsoft.io.buffer.util.DiskSizeUnit;
 import com.rnkrsoft.io.buffer.util.Runtime;
 import com.rnkrsoft.io.buffer.util.concurrent.FastThreadLocal;
 import com.rnkrsoft.io.buffer.util.concurrent.FastThreadLocalThread;
+import com.rnkrsoft.io.buffer.util.internal.ConcurrentSet;
 import com.rnkrsoft.io.buffer.util.internal.PlatformDependent;
 import com.rnkrsoft.io.buffer.util.internal.StringUtil;
 import com.rnkrsoft.io.buffer.util.internal.SystemPropertyUtil;
@@ -29,6 +30,8 @@ import com.rnkrsoft.io.buffer.util.internal.logging.InternalLoggerFactory;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class PooledByteBufferAllocator extends AbstractByteBufferAllocator implements ByteBufferAllocatorMetricProvider {
 
@@ -43,11 +46,15 @@ public class PooledByteBufferAllocator extends AbstractByteBufferAllocator imple
     private static final int DEFAULT_NORMAL_CACHE_SIZE;
     private static final int DEFAULT_MAX_CACHED_BUFFER_CAPACITY;
     private static final int DEFAULT_CACHE_TRIM_INTERVAL;
+    private static final long DEFAULT_CACHE_BUDGET;
     private static final boolean DEFAULT_USE_CACHE_FOR_ALL_THREADS;
     private static final int DEFAULT_DIRECT_MEMORY_CACHE_ALIGNMENT;
+    private static final boolean DEFAULT_USE_SIZE_CLASSES;
 
     private static final int MIN_PAGE_SIZE = DiskSizeUnit.nKB(4);
     private static final int MAX_CHUNK_SIZE = (int) (((long) Integer.MAX_VALUE + 1) / 2);
+    // the largest subpage run with size classes spans 7 pages
+    private static final int MIN_SIZE_CLASSES_MAX_ORDER = 3;
 
     static {
         int defaultPageSize = SystemPropertyUtil.getInt("com.rnkrsoft.io.allocator.pageSize", DiskSizeUnit.nKB(8));
@@ -98,10 +105,17 @@ public class PooledByteBufferAllocator extends AbstractByteBufferAllocator imple
         // the number of threshold of allocations when cached entries will be freed up if not frequently used
         DEFAULT_CACHE_TRIM_INTERVAL = SystemPropertyUtil.getInt("com.rnkrsoft.io.allocator.cacheTrimInterval", 8192);
 
+        // the bytes all thread caches of an allocator together may grow to, the configured cache sizes are always granted
+        DEFAULT_CACHE_BUDGET = Math.max(0, SystemPropertyUtil.getLong("com.rnkrsoft.io.allocator.cacheBudget", DiskSizeUnit.nMB(64)));
+
         DEFAULT_USE_CACHE_FOR_ALL_THREADS = SystemPropertyUtil.getBoolean("com.rnkrsoft.io.allocator.useCacheForAllThreads", true);
 
         DEFAULT_DIRECT_MEMORY_CACHE_ALIGNMENT = SystemPropertyUtil.getInt("com.rnkrsoft.io.allocator.directMemoryCacheAlignment", 0);
 
+        // size classes (jemalloc 4 style) instead of power-of-two buddy allocation, less memory but slower uncached allocations
+        DEFAULT_USE_SIZE_CLASSES = SystemPropertyUtil.getBoolean("com.rnkrsoft.io.allocator.useSizeClasses", false)
+                && DEFAULT_MAX_ORDER >= MIN_SIZE_CLASSES_MAX_ORDER;
+
         if (logger.isDebugEnabled()) {
             logger.debug("-Dcom.rnkrsoft.io.allocator.numHeapArenas: {}", DEFAULT_NUM_HEAP_ARENA);
             logger.debug("-Dcom.rnkrsoft.io.allocator.numDirectArenas: {}", DEFAULT_NUM_DIRECT_ARENA);
@@ -121,7 +135,9 @@ public class PooledByteBufferAllocator extends AbstractByteBufferAllocator imple
             logger.debug("-Dcom.rnkrsoft.io.allocator.normalCacheSize: {}", DEFAULT_NORMAL_CACHE_SIZE);
             logger.debug("-Dcom.rnkrsoft.io.allocator.maxCachedBufferCapacity: {}", DEFAULT_MAX_CACHED_BUFFER_CAPACITY);
             logger.debug("-Dcom.rnkrsoft.io.allocator.cacheTrimInterval: {}", DEFAULT_CACHE_TRIM_INTERVAL);
+            logger.debug("-Dcom.rnkrsoft.io.allocator.cacheBudget: {}", DEFAULT_CACHE_BUDGET);
             logger.debug("-Dcom.rnkrsoft.io.allocator.useCacheForAllThreads: {}", DEFAULT_USE_CACHE_FOR_ALL_THREADS);
+            logger.debug("-Dcom.rnkrsoft.io.allocator.useSizeClasses: {}", DEFAULT_USE_SIZE_CLASSES);
         }
     }
 
@@ -135,6 +151,10 @@ public class PooledByteBufferAllocator extends AbstractByteBufferAllocator imple
     private final List<PoolArenaMetric> heapArenaMetrics;
     private final List<PoolArenaMetric> directArenaMetrics;
     private final PoolThreadLocalCache threadCache;
+    // All thread caches of this allocator, swept by the PoolReclaimer.
+    private final Set<PoolThreadCache> threadCaches = new ConcurrentSet<PoolThreadCache>();
+    // Capacity in bytes of all thread caches of this allocator, bounded by DEFAULT_CACHE_BUDGET.
+    private final AtomicLong threadCacheCapacity = new AtomicLong();
     private final int chunkSize;
     private final PooledByteBufferAllocatorMetric metric;
 
@@ -202,6 +222,49 @@ public class PooledByteBufferAllocator extends AbstractByteBufferAllocator imple
                                      int normalCacheSize,
                                      boolean useCacheForAllThreads,
                                      int directMemoryCacheAlignment) {
+        this(preferDirect, nHeapArena, nDirectArena, pageSize, maxOrder,
+                tinyCacheSize, smallCacheSize, normalCacheSize,
+                useCacheForAllThreads, directMemoryCacheAlignment, DEFAULT_USE_SIZE_CLASSES);
+    }
+
+    /**
+     * @param useSizeClasses {@code true} to round capacities to fine-grained size classes (four per power of two)
+     *                       and allocate them as runs of pages instead of power-of-two buddy blocks.
+     *                       This trades latency for memory: it cuts internal fragmentation, but an allocation that
+     *                       misses the thread cache is slower than with the buddy allocator.
+     */
+    public PooledByteBufferAllocator(boolean preferDirect,
+                                     int nHeapArena,
+                                     int nDirectArena,
+                                     int pageSize,
+                                     int maxOrder,
+                                     int tinyCacheSize,
+                                     int smallCacheSize,
+                                     int normalCacheSize,
+                                     boolean useCacheForAllThreads,
+                                     int directMemoryCacheAlignment,
+                                     boolean useSizeClasses) {
+        this(preferDirect, nHeapArena, nDirectArena, pageSize, maxOrder,
+                tinyCacheSize, smallCacheSize, normalCacheSize,
+                useCacheForAllThreads, directMemoryCacheAlignment, useSizeClasses, true);
+    }
+
+    /**
+     * @param reclaimed {@code false} to leave the allocator out of the {@link PoolReclaimer}, so that idle
+     *                  resources are only freed by explicit {@link #reclaim(int)} calls.
+     */
+    PooledByteBufferAllocator(boolean preferDirect,
+                              int nHeapArena,
+                              int nDirectArena,
+                              int pageSize,
+                              int maxOrder,
+                              int tinyCacheSize,
+                              int smallCacheSize,
+                              int normalCacheSize,
+                              boolean useCacheForAllThreads,
+                              int directMemoryCacheAlignment,
+                              boolean useSizeClasses,
+                              boolean reclaimed) {
         super(preferDirect);
         threadCache = new PoolThreadLocalCache(useCacheForAllThreads);
         this.tinyCacheSize = tinyCacheSize;
@@ -229,6 +292,11 @@ public class PooledByteBufferAllocator extends AbstractByteBufferAllocator imple
                     + directMemoryCacheAlignment + " (expected: power of two)");
         }
 
+        if (useSizeClasses && maxOrder < MIN_SIZE_CLASSES_MAX_ORDER) {
+            throw new IllegalArgumentException("maxOrder: " + maxOrder
+                    + " (expected: " + MIN_SIZE_CLASSES_MAX_ORDER + "-14 when using size classes)");
+        }
+
         int pageShifts = validateAndCalculatePageShifts(pageSize);
 
         if (nHeapArena > 0) {
@@ -237,7 +305,7 @@ public class PooledByteBufferAllocator extends AbstractByteBufferAllocator imple
             for (int i = 0; i < heapArenas.length; i++) {
                 PoolArena.HeapArena arena = new PoolArena.HeapArena(this,
                         pageSize, maxOrder, pageShifts, chunkSize,
-                        directMemoryCacheAlignment);
+                        directMemoryCacheAlignment, useSizeClasses);
                 heapArenas[i] = arena;
                 metrics.add(arena);
             }
@@ -252,7 +320,8 @@ public class PooledByteBufferAllocator extends AbstractByteBufferAllocator imple
             List<PoolArenaMetric> metrics = new ArrayList<PoolArenaMetric>(directArenas.length);
             for (int i = 0; i < directArenas.length; i++) {
                 PoolArena.DirectArena arena = new PoolArena.DirectArena(
-                        this, pageSize, maxOrder, pageShifts, chunkSize, directMemoryCacheAlignment);
+                        this, pageSize, maxOrder, pageShifts, chunkSize, directMemoryCacheAlignment,
+                        useSizeClasses);
                 directArenas[i] = arena;
                 metrics.add(arena);
             }
@@ -262,6 +331,9 @@ public class PooledByteBufferAllocator extends AbstractByteBufferAllocator imple
             directArenaMetrics = Collections.emptyList();
         }
         metric = new PooledByteBufferAllocatorMetric(this);
+        if (reclaimed) {
+            PoolReclaimer.register(this);
+        }
     }
 
     @Deprecated
@@ -377,6 +449,13 @@ public class PooledByteBufferAllocator extends AbstractByteBufferAllocator imple
         return DEFAULT_USE_CACHE_FOR_ALL_THREADS;
     }
 
+    /**
+     * Default size classes behavior - System Property: com.rnkrsoft.io.allocator.useSizeClasses - default false
+     */
+    public static boolean defaultUseSizeClasses() {
+        return DEFAULT_USE_SIZE_CLASSES;
+    }
+
     /**
      * Default prefer direct - System Property: com.rnkrsoft.io.noPreferDirect - default false
      */
@@ -447,18 +526,24 @@ public class PooledByteBufferAllocator extends AbstractByteBufferAllocator imple
             final PoolArena<java.nio.ByteBuffer> directArena = leastUsedArena(directArenas);
 
             Thread current = Thread.currentThread();
+            final PoolThreadCache cache;
             if (useCacheForAllThreads || current instanceof FastThreadLocalThread) {
-                return new PoolThreadCache(
+                cache = new PoolThreadCache(
                         heapArena, directArena, tinyCacheSize, smallCacheSize, normalCacheSize,
-                        DEFAULT_MAX_CACHED_BUFFER_CAPACITY, DEFAULT_CACHE_TRIM_INTERVAL);
+                        DEFAULT_MAX_CACHED_BUFFER_CAPACITY, DEFAULT_CACHE_TRIM_INTERVAL, DEFAULT_CACHE_BUDGET,
+                        threadCacheCapacity);
+            } else {
+                // No caching so just use 0 as sizes.
+                cache = new PoolThreadCache(heapArena, directArena, 0, 0, 0, 0, 0, 0, threadCacheCapacity);
             }
-            // No caching so just use 0 as sizes.
-            return new PoolThreadCache(heapArena, directArena, 0, 0, 0, 0, 0);
+            threadCaches.add(cache);
+            return cache;
         }
 
         @Override
         protected void onRemoval(PoolThreadCache threadCache) {
             threadCache.free();
+            threadCaches.remove(threadCache);
         }
 
         private <T> PoolArena<T> leastUsedArena(PoolArena<T>[] arenas) {
@@ -605,6 +690,33 @@ public class PooledByteBufferAllocator extends AbstractByteBufferAllocator imple
         return used;
     }
 
+    /**
+     * Called by the {@link PoolReclaimer} on every sweep: frees the caches of threads which did not allocate during
+     * the last {@code idleSweeps} sweeps or died, and destroys chunks which were completely free for as long.
+     */
+    final synchronized void reclaim(int idleSweeps) {
+        for (PoolThreadCache cache : threadCaches) {
+            if (!cache.reclaim(idleSweeps)) {
+                threadCaches.remove(cache);
+            }
+        }
+        int numReleased = releaseIdleChunks(heapArenas, idleSweeps) + releaseIdleChunks(directArenas, idleSweeps);
+        if (numReleased > 0 && logger.isDebugEnabled()) {
+            logger.debug("Released {} idle chunk(s)", numReleased);
+        }
+    }
+
+    private static int releaseIdleChunks(PoolArena<?>[] arenas, int idleSweeps) {
+        if (arenas == null) {
+            return 0;
+        }
+        int numReleased = 0;
+        for (PoolArena<?> arena : arenas) {
+            numReleased += arena.releaseIdleChunks(idleSweeps);
+        }
+        return numReleased;
+    }
+
     final PoolThreadCache threadCache() {
         PoolThreadCache cache = threadCache.get();
         assert cache != null;
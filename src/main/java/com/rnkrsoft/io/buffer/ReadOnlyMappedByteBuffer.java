@@ -0,0 +1,22 @@
+package com.rnkrsoft.io.buffer;
+
+import com.rnkrsoft.io.buffer.util.internal.PlatformDependent;
+
+import java.nio.MappedByteBuffer;
+
+/**
+ * Read-only ByteBuf which wraps a read-only memory-mapped file region and unmaps it once released.
+ */
+final class ReadOnlyMappedByteBuffer extends ReadOnlyByteBufferBuffer {
+    private final MappedByteBuffer mapped;
+
+    ReadOnlyMappedByteBuffer(ByteBufferAllocator allocator, MappedByteBuffer mapped) {
+        super(allocator, mapped);
+        this.mapped = mapped;
+    }
+
+    @Override
+    protected void deallocate() {
+        PlatformDependent.freeDirectBuffer(mapped);
+    }
+}
@@ -18,6 +18,7 @@ package com.rnkrsoft.io.buffer;
 import com.rnkrsoft.io.buffer.util.internal.PlatformDependent;
 
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
@@ -206,6 +207,18 @@ public final class Unpooled {
         }
     }
 
+    /**
+     * Creates a new read-only buffer which wraps the specified read-only memory-mapped file region without
+     * copying it. The region is unmapped once the reference count of the returned {@link ByteBuffer} reaches
+     * {@code 0}, so neither the returned buffer nor its derived buffers may be accessed after release.
+     */
+    public static ByteBuffer wrappedMappedBuffer(MappedByteBuffer buffer) {
+        if (!buffer.hasRemaining()) {
+            return EMPTY_BUFFER;
+        }
+        return new ReadOnlyMappedByteBuffer(ALLOC, buffer);
+    }
+
     /**
      * Creates a new buffer which wraps the specified memory address. If {@code doFree} is true the
      * memoryAddress will automatically be freed once the reference count of the {@link ByteBuffer} reaches {@code 0}.
@@ -543,12 +543,12 @@ class WrappedByteBuffer implements ByteBuffer {
 
     @Override
     public String readString(int length, Charset charset) {
-        return null;
+        return buf.readString(length, charset);
     }
 
     @Override
     public String readStringUTF8(int length) {
-        return null;
+        return buf.readStringUTF8(length);
     }
 
     @Override
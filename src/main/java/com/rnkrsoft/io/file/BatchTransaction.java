@@ -0,0 +1,52 @@
+package com.rnkrsoft.io.file;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 多文件事务，通过{@link DynamicFile#beginBatch(DynamicFile...)}获取，同时发布多个相关动态文件的新版本，例如数据文件及其索引文件。
+ * 提交时按加入顺序发布所有版本文件，写入准备标记后创建一个提交标记，再依次追加各文件的提交记录，
+ * 进程崩溃后未完成的事务在下次提交时按提交标记是否存在整体完成或整体撤销，不会只发布部分文件。
+ * 提交标记创建后，其他实例和其他进程校验索引时从准备标记读取尚未追加的提交记录，因此只会看到全部文件的新版本或都看不到。
+ * 同一批次共享一次加锁，开启提交刷盘时每个目录只刷盘一次
+ */
+public interface BatchTransaction {
+    /**
+     * 获取指定动态文件在本事务中的文件事务，通过该文件事务写入数据，不能单独提交
+     *
+     * @param file 动态文件
+     * @return 文件事务
+     */
+    FileTransaction get(DynamicFile file);
+
+    /**
+     * 获取所有文件事务，与加入顺序相同
+     *
+     * @return 文件事务列表
+     */
+    List<FileTransaction> getTransactions();
+
+    /**
+     * 提交所有文件事务
+     *
+     * @return 提交成功返回真，事务已经完成返回假
+     * @throws IOException 提交标记创建之前失败时所有文件事务已回滚；
+     *                     提交标记创建之后失败时所有文件事务已提交，未追加的提交记录在各文件下次持有提交锁时补写
+     */
+    boolean commit() throws IOException;
+
+    /**
+     * 回滚所有文件事务
+     *
+     * @throws IOException IO异常
+     */
+    void rollback() throws IOException;
+
+    /**
+     * 事务是否已经完成
+     *
+     * @return 已提交或已回滚返回真
+     */
+    boolean isFinished();
+}
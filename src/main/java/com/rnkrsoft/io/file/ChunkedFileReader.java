@@ -0,0 +1,237 @@
+package com.rnkrsoft.io.file;
+
+import com.rnkrsoft.io.buffer.ByteBuffer;
+import com.rnkrsoft.io.buffer.ByteBufferAllocator;
+import com.rnkrsoft.io.buffer.PooledByteBufferAllocator;
+import com.rnkrsoft.io.buffer.util.DiskSizeUnit;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 分块文件读取器，通过文件通道将文件数据读入池化字节缓冲区，不需要将整个文件读入堆内存。
+ * 既可以作为字节缓冲区块的迭代器使用，每个块由调用方负责释放；也可以通过asInputStream()作为输入流使用。
+ */
+public class ChunkedFileReader implements Iterator<ByteBuffer>, Closeable {
+    /**
+     * 默认块大小8KB
+     */
+    public static final int DEFAULT_CHUNK_SIZE = DiskSizeUnit.nKB(8);
+
+    final File file;
+    final RandomAccessFile raf;
+    final FileChannel channel;
+    final ByteBufferAllocator allocator;
+    final int chunkSize;
+    /**
+     * 下一个块的读取位置
+     */
+    long position;
+    /**
+     * 读取结束位置
+     */
+    final long end;
+    boolean closed = false;
+    /**
+     * 作为输入流使用时当前正在读取的块
+     */
+    ByteBuffer current;
+
+    public ChunkedFileReader(File file) throws IOException {
+        this(file, PooledByteBufferAllocator.DEFAULT, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ChunkedFileReader(File file, ByteBufferAllocator allocator, int chunkSize) throws IOException {
+        this(file, 0, -1, allocator, chunkSize);
+    }
+
+    /**
+     * 创建读取文件指定范围的分块读取器
+     *
+     * @param file      文件
+     * @param position  起始位置
+     * @param length    读取长度，负数表示读取到文件末尾
+     * @param allocator 块缓冲区分配器
+     * @param chunkSize 块大小
+     * @throws IOException IO异常
+     */
+    public ChunkedFileReader(File file, long position, long length, ByteBufferAllocator allocator, int chunkSize) throws IOException {
+        if (position < 0) {
+            throw new IllegalArgumentException("position: " + position + " (expected: >= 0)");
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize: " + chunkSize + " (expected: > 0)");
+        }
+        this.file = file;
+        this.allocator = allocator;
+        this.chunkSize = chunkSize;
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+        long size = channel.size();
+        this.position = Math.min(position, size);
+        this.end = length < 0 ? size : Math.min(size, this.position + length);
+        this.channel.position(this.position);
+    }
+
+    /**
+     * 读取下一个块
+     *
+     * @return 字节缓冲区块，由调用方释放，读取结束返回null
+     * @throws IOException IO异常
+     */
+    public ByteBuffer readChunk() throws IOException {
+        if (closed || position >= end) {
+            return null;
+        }
+        int length = (int) Math.min(chunkSize, end - position);
+        ByteBuffer chunk = allocator.ioBuffer(length, length);
+        try {
+            while (chunk.isWritable()) {
+                if (chunk.writeBytes(channel, chunk.writableBytesLength()) < 0) {
+                    //文件被截断
+                    position = end;
+                    break;
+                }
+            }
+            position += chunk.readableBytesLength();
+            return chunk;
+        } catch (IOException e) {
+            chunk.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 剩余未读取的字节数
+     *
+     * @return 字节数
+     */
+    public long remaining() {
+        return closed ? 0 : end - position;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !closed && position < end;
+    }
+
+    @Override
+    public ByteBuffer next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            return readChunk();
+        } catch (IOException e) {
+            throw new IllegalStateException("read file '" + file + "' happens error!", e);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    /**
+     * 将读取器作为输入流使用，关闭输入流时关闭读取器
+     *
+     * @return 输入流
+     */
+    public InputStream asInputStream() {
+        return new ChunkedInputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (current != null) {
+            current.release();
+            current = null;
+        }
+        raf.close();
+    }
+
+    /**
+     * 基于块的输入流
+     */
+    class ChunkedInputStream extends InputStream {
+        /**
+         * 确保当前块有可读数据
+         *
+         * @return 读取结束返回假
+         */
+        boolean ensureReadable() throws IOException {
+            if (current != null && current.isReadable()) {
+                return true;
+            }
+            if (current != null) {
+                current.release();
+                current = null;
+            }
+            current = readChunk();
+            return current != null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!ensureReadable()) {
+                return -1;
+            }
+            return current.readByte() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureReadable()) {
+                return -1;
+            }
+            int length = Math.min(len, current.readableBytesLength());
+            current.readBytes(b, off, length);
+            return length;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0 || closed) {
+                return 0;
+            }
+            long skipped = 0;
+            if (current != null) {
+                int length = (int) Math.min(n, current.readableBytesLength());
+                current.skipBytes(length);
+                skipped += length;
+            }
+            long length = Math.min(n - skipped, end - position);
+            position += length;
+            channel.position(position);
+            return skipped + length;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (closed) {
+                return 0;
+            }
+            long available = (current == null ? 0 : current.readableBytesLength()) + end - position;
+            return (int) Math.min(Integer.MAX_VALUE, available);
+        }
+
+        @Override
+        public void close() throws IOException {
+            ChunkedFileReader.this.close();
+        }
+    }
+}
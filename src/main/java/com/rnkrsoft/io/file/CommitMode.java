@@ -0,0 +1,16 @@
+package com.rnkrsoft.io.file;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 事务提交时发布新版本文件的方式
+ */
+public enum CommitMode {
+    /**
+     * 在同一目录下将临时文件原子重命名为版本文件，提交耗时与文件大小无关，读取方不会看到写了一半的版本文件
+     */
+    RENAME,
+    /**
+     * 将临时文件复制为版本文件后删除临时文件，数据需要写入两次
+     */
+    COPY
+}
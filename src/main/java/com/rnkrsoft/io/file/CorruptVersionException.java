@@ -0,0 +1,13 @@
+package com.rnkrsoft.io.file;
+
+import java.io.IOException;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 版本数据的长度或校验和与提交时记录的不一致
+ */
+public class CorruptVersionException extends IOException {
+    public CorruptVersionException(String message) {
+        super(message);
+    }
+}
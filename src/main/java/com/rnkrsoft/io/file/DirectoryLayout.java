@@ -0,0 +1,20 @@
+package com.rnkrsoft.io.file;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 版本文件的目录布局，布局记录在每个版本的提交记录中，修改布局只影响之后提交的版本，读取时通过版本索引直接定位文件
+ */
+public enum DirectoryLayout {
+    /**
+     * 所有版本文件位于动态文件目录下
+     */
+    FLAT,
+    /**
+     * 版本文件按版本号的散列值分布到256个子目录
+     */
+    HASHED,
+    /**
+     * 版本文件按提交时间分布到日期和小时两级子目录，过期的子目录随版本删除而删除
+     */
+    TIME_BUCKETED
+}
@@ -205,20 +205,25 @@
 package com.rnkrsoft.io.file;
 
 import com.rnkrsoft.io.buffer.ByteBuffer;
-import com.rnkrsoft.io.file.impl.DynamicFileImpl;
+import com.rnkrsoft.io.file.codec.CompressionCodec;
+import com.rnkrsoft.io.file.impl.BatchTransactionImpl;
 import lombok.Getter;
+import lombok.Setter;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Created by rnkrsoft.com on 2018/2/15.
- * 动态文件格式
+ * 动态文件格式，通过file(...)获取的动态文件由DynamicFileRegistry按规范路径共享
  */
 public abstract class DynamicFile {
     /**
@@ -253,6 +258,82 @@ public abstract class DynamicFile {
     @Getter
     protected int timeoutSec = DEFAULT_COMMIT_TIMEOUT_SEC;
 
+    /**
+     * 提交时发布版本文件的方式，默认原子重命名。
+     * 动态文件通过注册表在线程间共享，以下配置项都是volatile，任一线程修改后其他线程的下一次操作立即生效
+     */
+    @Getter
+    @Setter
+    protected volatile CommitMode commitMode = CommitMode.RENAME;
+
+    /**
+     * 提交时是否将版本文件及其所在目录刷入磁盘
+     */
+    @Getter
+    @Setter
+    protected volatile boolean syncOnCommit = false;
+
+    /**
+     * 读取版本文件数据的方式，默认复制到堆内存
+     */
+    @Getter
+    @Setter
+    protected volatile ReadMode readMode = ReadMode.HEAP;
+
+    /**
+     * 备份版本的存储方式，默认保存完整的文件
+     */
+    @Getter
+    @Setter
+    protected volatile StorageMode storageMode = StorageMode.FULL;
+
+    /**
+     * 新版本文件的目录布局，备份数很大时使用分片布局避免单个目录下的文件过多
+     */
+    @Getter
+    @Setter
+    protected volatile DirectoryLayout layout = DirectoryLayout.FLAT;
+
+    /**
+     * 提交时是否对内容去重，与最新版本相同时不产生新版本，与保留的旧版本相同时通过硬链接共享数据
+     */
+    @Getter
+    @Setter
+    protected volatile boolean deduplicate = false;
+
+    /**
+     * 提交时压缩版本文件使用的编解码器，读取时自动解压，null表示不压缩
+     */
+    @Getter
+    @Setter
+    protected volatile CompressionCodec compressionCodec;
+
+    /**
+     * 读取版本时是否校验提交时记录的CRC32校验和，查找最新版本时跳过损坏的版本
+     */
+    @Getter
+    @Setter
+    protected volatile boolean verifyChecksum = true;
+
+    /**
+     * 组提交的等待窗口毫秒数，窗口内到达的提交合并为一批，共享一次目录刷盘和清单刷盘，0表示不使用组提交
+     */
+    @Getter
+    @Setter
+    protected volatile int groupCommitMillis = 0;
+
+    /**
+     * 异步读取和异步事务操作使用的IO线程池，默认为进程共享的有界线程池
+     */
+    @Getter
+    @Setter
+    protected volatile ExecutorService ioExecutor = FileIoExecutor.getDefault();
+
+    /**
+     * 新版本监听器
+     */
+    protected final List<VersionListener> listeners = new CopyOnWriteArrayList<VersionListener>();
+
     /**
      * 保存所有文件事务
      */
@@ -264,7 +345,7 @@ public abstract class DynamicFile {
      * @return 动态文件
      */
     public static DynamicFile file(String file) {
-        return new DynamicFileImpl(file, DEFAULT_BACKUP_SIZE);
+        return file(new File(file), DEFAULT_BACKUP_SIZE);
     }
 
     /**
@@ -274,7 +355,7 @@ public abstract class DynamicFile {
      * @return 动态文件
      */
     public static DynamicFile file(String file, int backupSize) {
-        return new DynamicFileImpl(file, backupSize);
+        return file(new File(file), backupSize);
     }
 
     /**
@@ -283,7 +364,7 @@ public abstract class DynamicFile {
      * @return 动态文件
      */
     public static DynamicFile file(File file) {
-        return new DynamicFileImpl(file, DEFAULT_BACKUP_SIZE);
+        return file(file, DEFAULT_BACKUP_SIZE);
     }
 
     /**
@@ -293,7 +374,7 @@ public abstract class DynamicFile {
      * @return 动态文件对象
      */
     public static DynamicFile file(File file, int backupSize) {
-        return new DynamicFileImpl(file, backupSize);
+        return DynamicFileRegistry.getInstance().get(file.getParent(), file.getName(), backupSize);
     }
     /**
      * 根据输入的文件路径和文件名创建动态文件对象，备份数使用默认值DEFAULT_BACKUP_SIZE
@@ -303,7 +384,7 @@ public abstract class DynamicFile {
      * @see #DEFAULT_BACKUP_SIZE
      */
     public static DynamicFile file(File directory, String fileName) {
-        return new DynamicFileImpl(new File(directory, fileName), DEFAULT_BACKUP_SIZE);
+        return file(new File(directory, fileName), DEFAULT_BACKUP_SIZE);
     }
 
     /**
@@ -314,7 +395,7 @@ public abstract class DynamicFile {
      * @see #DEFAULT_BACKUP_SIZE
      */
     public static DynamicFile file(String directory, String fileName) {
-        return new DynamicFileImpl(directory, fileName, DEFAULT_BACKUP_SIZE);
+        return DynamicFileRegistry.getInstance().get(directory, fileName, DEFAULT_BACKUP_SIZE);
     }
 
     /**
@@ -325,7 +406,7 @@ public abstract class DynamicFile {
      * @return 动态文件对象
      */
     public static DynamicFile file(String directory, String fileName, int backupSize) {
-        return new DynamicFileImpl(directory, fileName, backupSize);
+        return DynamicFileRegistry.getInstance().get(directory, fileName, backupSize);
     }
 
     /**
@@ -344,7 +425,7 @@ public abstract class DynamicFile {
     public abstract void delete() throws IOException;
 
     /**
-     * 读取指定文件版本号的文件数据为字节缓冲区
+     * 读取指定文件版本号的文件数据为字节缓冲区，读取方式由readMode决定，内存映射方式返回只读缓冲区
      *
      * @param version 文件版本号
      * @return 字节缓冲区
@@ -362,7 +443,9 @@ public abstract class DynamicFile {
     public abstract InputStream stream(long version) throws IOException;
 
     /**
-     * 发现最大的文件版本号
+     * 发现最大的文件版本号。
+     * 开启校验时跳过已知损坏或长度与提交记录不符的版本，查找时不读取版本文件计算校验和：
+     * 长度相同但内容损坏的最新版本仍会被返回，第一次读取时抛出{@link CorruptVersionException}并被标记为损坏，之后的查找才回退到之前的有效版本
      *
      * @return 文件版本号，日期格式
      * @throws IOException IO异常
@@ -395,6 +478,95 @@ public abstract class DynamicFile {
      */
     public abstract FileWrapper getFile(long version) throws IOException;
 
+    /**
+     * 开始多文件事务，提交时所有动态文件的新版本整体发布
+     *
+     * @param files 动态文件，不能重复
+     * @return 多文件事务
+     * @throws IOException IO异常
+     */
+    public static BatchTransaction beginBatch(DynamicFile... files) throws IOException {
+        return new BatchTransactionImpl(files);
+    }
+
+    /**
+     * 固定指定版本，返回的句柄释放前该版本的文件不会被保留策略删除
+     *
+     * @param version 版本号
+     * @return 版本句柄，使用完毕后释放
+     * @throws IOException IO异常，版本不存在时抛出
+     */
+    public abstract VersionHandle pin(long version) throws IOException;
+
+    /**
+     * 固定当前最新版本
+     *
+     * @return 版本句柄，使用完毕后释放
+     * @throws IOException IO异常
+     */
+    public VersionHandle pin() throws IOException {
+        return pin(lookupMaxVersion());
+    }
+
+    /**
+     * 订阅新版本，只通知订阅之后提交的版本
+     *
+     * @param listener 监听器
+     * @throws IOException IO异常
+     */
+    public abstract void subscribe(VersionListener listener) throws IOException;
+
+    /**
+     * 取消订阅
+     *
+     * @param listener 监听器
+     */
+    public abstract void unsubscribe(VersionListener listener);
+
+    /**
+     * 打开指定版本号的随机访问读取器，由调用方关闭
+     *
+     * @param version 版本号
+     * @return 随机访问读取器
+     * @throws IOException IO异常
+     */
+    public RandomAccessReader randomAccess(long version) throws IOException {
+        return getFile(version).randomAccess();
+    }
+
+    /**
+     * 读取指定版本号从指定位置开始的部分数据到池化字节缓冲区，由调用方释放
+     *
+     * @param version 版本号
+     * @param offset  版本数据中的位置
+     * @param length  最多读取的字节数，超出数据长度的部分不读取
+     * @return 字节缓冲区
+     * @throws IOException IO异常
+     */
+    public ByteBuffer read(long version, long offset, int length) throws IOException {
+        RandomAccessReader reader = randomAccess(version);
+        try {
+            return reader.read(offset, length);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * 在IO线程池上异步读取指定文件版本号的文件数据
+     *
+     * @param version 版本号
+     * @return 读取结果
+     */
+    public Future<ByteBuffer> readAsync(final long version) {
+        return ioExecutor.submit(new Callable<ByteBuffer>() {
+            @Override
+            public ByteBuffer call() throws Exception {
+                return read(version);
+            }
+        });
+    }
+
     /**
      * 获取当前文件的最新版本文件
      *
@@ -422,24 +594,19 @@ public abstract class DynamicFile {
      * @throws IOException 异常
      */
     public FileTransaction getTransaction(String transactionId) throws IOException {
-        //遍历事务，检查是否超时
-        Iterator<FileTransaction> iterator = transactions.values().iterator();
-        while (iterator.hasNext()) {
-            FileTransaction fileTransaction = iterator.next();
-            if (System.currentTimeMillis() - fileTransaction.getLastActiveTime() > timeoutSec * 1000) {
-                destroy(transactionId);
-            }
-            if (fileTransaction.isFinished()) {
-                destroy(transactionId);
-            }
-        }
         FileTransaction transaction = transactions.get(transactionId);
         if (transaction == null) {
             throw new TransactionNotFoundException("transaction id '" + transactionId + "' is not found");
         }
         if (transaction.isFinished()) {
+            destroy(transactionId);
             throw new TransactionAlreadyFinishedException("transaction id '" + transactionId + "' has already finished");
         }
+        //超时的事务由后台清理服务标记失效，由事务所有者在下一次操作时回滚，这里只检查当前事务
+        if (System.currentTimeMillis() - transaction.getLastActiveTime() > timeoutSec * 1000L) {
+            destroy(transactionId);
+            throw new TransactionNotFoundException("transaction id '" + transactionId + "' is timeout");
+        }
         return transaction;
     }
 
@@ -0,0 +1,152 @@
+package com.rnkrsoft.io.file;
+
+import com.rnkrsoft.io.buffer.util.Runtime;
+import com.rnkrsoft.io.buffer.util.internal.MathUtil;
+import com.rnkrsoft.io.buffer.util.internal.SystemPropertyUtil;
+import com.rnkrsoft.io.file.impl.DynamicFileImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 进程级动态文件注册表，按规范路径共享同一个动态文件实例，
+ * 使同一路径的所有调用方共享版本索引和事务，并通过分段锁协调版本发布，不同文件的提交互不阻塞。
+ */
+public final class DynamicFileRegistry {
+    /**
+     * 分段锁数量，默认为处理器数的4倍，向上取整为2的幂
+     */
+    static final int DEFAULT_LOCK_STRIPES = MathUtil.findNextPositivePowerOfTwo(Math.max(1,
+            SystemPropertyUtil.getInt("com.rnkrsoft.io.file.lockStripes", Runtime.availableProcessors() * 4)));
+
+    static final DynamicFileRegistry INSTANCE = new DynamicFileRegistry(DEFAULT_LOCK_STRIPES);
+
+    /**
+     * 规范路径到动态文件的映射
+     */
+    final ConcurrentMap<String, DynamicFile> files = new ConcurrentHashMap<String, DynamicFile>();
+    /**
+     * 调用方传入的路径到动态文件的映射，命中时无需获取规范路径
+     */
+    final ConcurrentMap<String, DynamicFile> aliases = new ConcurrentHashMap<String, DynamicFile>();
+    final Lock[] locks;
+    final int mask;
+
+    DynamicFileRegistry(int lockStripes) {
+        this.locks = new Lock[lockStripes];
+        for (int i = 0; i < lockStripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.mask = lockStripes - 1;
+    }
+
+    /**
+     * 获取进程级注册表
+     *
+     * @return 注册表
+     */
+    public static DynamicFileRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 获取指定路径的动态文件，不存在时创建，同一路径返回同一个实例。
+     * 实例创建后备份数以首次创建时为准
+     *
+     * @param directory  文件路径
+     * @param fileName   文件名
+     * @param backupSize 备份数
+     * @return 动态文件对象
+     */
+    public DynamicFile get(String directory, String fileName, int backupSize) {
+        String alias = directory + "/" + fileName;
+        DynamicFile dynamicFile = aliases.get(alias);
+        if (dynamicFile != null) {
+            return dynamicFile;
+        }
+        String path = canonicalPath(new File(alias));
+        dynamicFile = files.get(path);
+        if (dynamicFile == null) {
+            DynamicFile newFile = new DynamicFileImpl(directory, fileName, backupSize);
+            dynamicFile = files.putIfAbsent(path, newFile);
+            if (dynamicFile == null) {
+                dynamicFile = newFile;
+            }
+        }
+        aliases.put(alias, dynamicFile);
+        return dynamicFile;
+    }
+
+    /**
+     * 从注册表中移除指定路径的动态文件，之后获取该路径将创建新的实例
+     *
+     * @param directory 文件路径
+     * @param fileName  文件名
+     * @return 被移除的动态文件，不存在返回null
+     */
+    public DynamicFile remove(String directory, String fileName) {
+        DynamicFile dynamicFile = files.remove(canonicalPath(new File(directory + "/" + fileName)));
+        if (dynamicFile == null) {
+            return null;
+        }
+        Iterator<Map.Entry<String, DynamicFile>> iterator = aliases.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue() == dynamicFile) {
+                iterator.remove();
+            }
+        }
+        return dynamicFile;
+    }
+
+    /**
+     * 已注册的动态文件数
+     *
+     * @return 数量
+     */
+    public int size() {
+        return files.size();
+    }
+
+    /**
+     * 获取指定规范路径对应的分段锁，用于协调同一动态文件的版本发布
+     *
+     * @param path 规范路径
+     * @return 锁
+     */
+    public Lock getLock(String path) {
+        return locks[getLockIndex(path)];
+    }
+
+    /**
+     * 获取指定规范路径对应的分段锁序号，不同路径可能共享同一个分段锁，需要同时持有多个分段锁时按序号从小到大加锁
+     *
+     * @param path 规范路径
+     * @return 分段锁序号
+     */
+    public int getLockIndex(String path) {
+        int h = path.hashCode();
+        h ^= (h >>> 16);
+        return h & mask;
+    }
+
+    /**
+     * 获取文件的规范路径，无法获取时使用绝对路径
+     *
+     * @param file 文件
+     * @return 规范路径
+     */
+    public static String canonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.rnkrsoft.io.file;
+
+import com.rnkrsoft.io.buffer.util.Runtime;
+import com.rnkrsoft.io.buffer.util.internal.SystemPropertyUtil;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 动态文件异步操作使用的有界IO线程池，线程为守护线程，空闲60秒后回收。
+ * 队列满时由提交任务的线程直接执行，对调用方形成反压
+ */
+public final class FileIoExecutor {
+    /**
+     * 默认IO线程数，默认为处理器数
+     */
+    static final int DEFAULT_THREADS = Math.max(1, SystemPropertyUtil.getInt("com.rnkrsoft.io.file.ioThreads", Runtime.availableProcessors()));
+    /**
+     * 默认等待队列长度，默认1024
+     */
+    static final int DEFAULT_QUEUE_SIZE = Math.max(1, SystemPropertyUtil.getInt("com.rnkrsoft.io.file.ioQueueSize", 1024));
+
+    static final ExecutorService DEFAULT = newExecutor(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+
+    private FileIoExecutor() {
+    }
+
+    /**
+     * 获取进程共享的IO线程池
+     *
+     * @return 线程池
+     */
+    public static ExecutorService getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 创建有界IO线程池
+     *
+     * @param threads   线程数
+     * @param queueSize 等待队列长度
+     * @return 线程池
+     */
+    public static ExecutorService newExecutor(int threads, int queueSize) {
+        final AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "dynamic-file-io-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -210,6 +210,7 @@ import com.rnkrsoft.io.buffer.ByteBuffer;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.Future;
 
 /**
  * Created by rnkrsoft.com on 2018/2/15.
@@ -234,7 +235,16 @@ public interface FileTransaction {
     long getLastActiveTime();
 
     /**
-     * 写入字节数组，对事务的活动时间进行更新
+     * 获取事务的写入流，同一事务内复用同一个写入流，以追加方式分块写入，支持聚集写入和指定位置写入，
+     * 提交或回滚时自动关闭，对事务的活动时间进行更新
+     *
+     * @return 写入流
+     * @throws IOException IO异常
+     */
+    TransactionOutputStream outputStream() throws IOException;
+
+    /**
+     * 写入字节数组，替换已写入的数据，对事务的活动时间进行更新
      *
      * @param data 字节数组
      * @throws IOException IO异常
@@ -242,7 +252,7 @@ public interface FileTransaction {
     void write(byte[] data) throws IOException;
 
     /**
-     * 写入字符序列数组，对事务的活动时间进行更新
+     * 写入字符序列数组，替换已写入的数据，对事务的活动时间进行更新
      *
      * @param charSequence 字符序列
      * @throws IOException IO异常
@@ -250,7 +260,7 @@ public interface FileTransaction {
     void write(CharSequence charSequence) throws IOException;
 
     /**
-     * 写入缓冲区，对事务的活动时间进行更新
+     * 写入缓冲区的可读数据，替换已写入的数据，对事务的活动时间进行更新
      *
      * @param buffer 字节缓冲区
      * @throws IOException IO异常
@@ -305,4 +315,35 @@ public interface FileTransaction {
      * @throws IOException IO异常
      */
     File getFile() throws IOException;
+
+    /**
+     * 在IO线程池上异步写入数据，替换已写入的内容，同一事务的异步操作按提交顺序执行。
+     * 写入完成前调用方不能修改数据
+     *
+     * @param data 数据
+     * @return 写入结果
+     */
+    Future<Void> writeAsync(byte[] data);
+
+    /**
+     * 在IO线程池上异步写入字节缓冲区的可读数据，替换已写入的内容，写入完成前调用方不能修改或释放缓冲区
+     *
+     * @param buffer 字节缓冲区
+     * @return 写入结果
+     */
+    Future<Void> writeAsync(ByteBuffer buffer);
+
+    /**
+     * 在IO线程池上异步提交事务，在之前提交的异步写入完成后执行
+     *
+     * @return 提交结果
+     */
+    Future<Boolean> commitAsync();
+
+    /**
+     * 在IO线程池上异步回滚事务，在之前提交的异步写入完成后执行
+     *
+     * @return 回滚结果
+     */
+    Future<Boolean> rollbackAsync();
 }
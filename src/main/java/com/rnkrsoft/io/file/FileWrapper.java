@@ -233,13 +233,37 @@ public interface FileWrapper {
     ByteBuffer read() throws IOException;
 
     /**
-     * 打开当前文件为输入流
+     * 以只读内存映射方式读取文件数据，不复制到堆内存，缓冲区释放后解除映射
+     *
+     * @return 只读字节缓冲区
+     * @throws IOException IO异常
+     */
+    ByteBuffer map() throws IOException;
+
+    /**
+     * 打开当前文件为输入流，通过池化缓冲区分块读取，不会将整个文件读入堆内存
      *
      * @return 输入流
      * @throws IOException IO异常
      */
     InputStream stream() throws IOException;
 
+    /**
+     * 打开当前文件的分块读取器，每个块为池化字节缓冲区，由调用方释放
+     *
+     * @return 分块读取器
+     * @throws IOException IO异常
+     */
+    ChunkedFileReader chunks() throws IOException;
+
+    /**
+     * 打开当前文件的随机访问读取器，按位置读取部分数据
+     *
+     * @return 随机访问读取器
+     * @throws IOException IO异常
+     */
+    RandomAccessReader randomAccess() throws IOException;
+
     /**
      * 删除当前文件
      *
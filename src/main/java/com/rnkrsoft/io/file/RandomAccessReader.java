@@ -0,0 +1,42 @@
+package com.rnkrsoft.io.file;
+
+import com.rnkrsoft.io.buffer.ByteBuffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 版本数据的随机访问读取器，按位置读取版本数据的一部分，不需要读取整个版本。
+ * 完整保存的版本基于文件通道的定位读取，可以被多个线程同时使用；压缩和差异保存的版本读取时按需解码
+ */
+public interface RandomAccessReader extends Closeable {
+    /**
+     * 版本数据的长度
+     *
+     * @return 字节数
+     * @throws IOException IO异常
+     */
+    long size() throws IOException;
+
+    /**
+     * 从指定位置读取数据写入调用方提供的字节缓冲区，写入位置为缓冲区的写索引
+     *
+     * @param position 版本数据中的位置
+     * @param dst      字节缓冲区，容量不足时扩容
+     * @param length   最多读取的字节数
+     * @return 实际读取的字节数，位置超出数据长度返回-1
+     * @throws IOException IO异常
+     */
+    int read(long position, ByteBuffer dst, int length) throws IOException;
+
+    /**
+     * 从指定位置读取数据到池化字节缓冲区，由调用方释放
+     *
+     * @param position 版本数据中的位置
+     * @param length   最多读取的字节数，超出数据长度的部分不读取
+     * @return 字节缓冲区
+     * @throws IOException IO异常
+     */
+    ByteBuffer read(long position, int length) throws IOException;
+}
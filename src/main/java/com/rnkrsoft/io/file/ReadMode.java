@@ -0,0 +1,16 @@
+package com.rnkrsoft.io.file;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 读取版本文件数据的方式
+ */
+public enum ReadMode {
+    /**
+     * 将文件数据复制到堆内存缓冲区
+     */
+    HEAP,
+    /**
+     * 以只读内存映射方式读取，不复制到堆内存，也不受缓冲区扩容上限限制，缓冲区释放时解除映射
+     */
+    MAPPED
+}
@@ -0,0 +1,16 @@
+package com.rnkrsoft.io.file;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 备份版本的存储方式
+ */
+public enum StorageMode {
+    /**
+     * 每个版本都保存完整的文件
+     */
+    FULL,
+    /**
+     * 最新版本保存完整的文件，较旧的版本由后台清理服务转换为相对于下一个版本的块级差异文件，读取时按需还原
+     */
+    DELTA
+}
@@ -0,0 +1,11 @@
+package com.rnkrsoft.io.file;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 事务超时后被后台清理服务标记为失效，事务的下一次写入或提交失败并回滚
+ */
+public class TransactionExpiredException extends TransactionAlreadyFinishedException {
+    public TransactionExpiredException(String message) {
+        super(message);
+    }
+}
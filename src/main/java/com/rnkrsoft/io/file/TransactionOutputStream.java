@@ -0,0 +1,57 @@
+package com.rnkrsoft.io.file;
+
+import com.rnkrsoft.io.buffer.ByteBuffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 文件事务的写入流，在事务生命周期内保持打开，以追加方式分块写入临时文件，
+ * 支持多个NIO缓冲区的聚集写入以及指定位置写入，事务提交或回滚时自动关闭
+ */
+public abstract class TransactionOutputStream extends OutputStream implements GatheringByteChannel {
+    /**
+     * 在指定位置写入NIO缓冲区的剩余数据，不改变追加写入的位置
+     *
+     * @param src      NIO缓冲区
+     * @param position 文件中的位置
+     * @return 写入的字节数
+     * @throws IOException IO异常
+     */
+    public abstract int write(java.nio.ByteBuffer src, long position) throws IOException;
+
+    /**
+     * 追加写入字节缓冲区的可读数据，写入后缓冲区的读取位置随之增加
+     *
+     * @param buffer 字节缓冲区
+     * @return 写入的字节数
+     * @throws IOException IO异常
+     */
+    public abstract int append(ByteBuffer buffer) throws IOException;
+
+    /**
+     * 获取当前追加写入的位置
+     *
+     * @return 位置
+     * @throws IOException IO异常
+     */
+    public abstract long position() throws IOException;
+
+    /**
+     * 获取已写入的文件大小
+     *
+     * @return 文件大小
+     * @throws IOException IO异常
+     */
+    public abstract long size() throws IOException;
+
+    /**
+     * 将已写入的数据刷入磁盘
+     *
+     * @param metaData 是否同时刷入元数据
+     * @throws IOException IO异常
+     */
+    public abstract void force(boolean metaData) throws IOException;
+}
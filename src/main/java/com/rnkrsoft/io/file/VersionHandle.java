@@ -0,0 +1,32 @@
+package com.rnkrsoft.io.file;
+
+import com.rnkrsoft.io.buffer.util.ReferenceCounted;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 引用计数的版本句柄，通过{@link DynamicFile#pin(long)}获取，引用计数归零前保留策略和差异转换不会删除该版本的文件，
+ * 长时间的流式读取和内存映射读取可以直接使用版本文件而不需要复制到内存。
+ * 句柄只在本进程内有效，使用完毕后必须调用{@link #release()}
+ */
+public interface VersionHandle extends ReferenceCounted {
+    /**
+     * 获取版本号
+     *
+     * @return 版本号
+     */
+    long getVersion();
+
+    /**
+     * 获取版本文件包装
+     *
+     * @return 文件包装
+     * @throws java.io.IOException IO异常
+     */
+    FileWrapper getFile() throws java.io.IOException;
+
+    @Override
+    VersionHandle retain();
+
+    @Override
+    VersionHandle retain(int increment);
+}
@@ -0,0 +1,17 @@
+package com.rnkrsoft.io.file;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 动态文件新版本监听器，通过{@link DynamicFile#subscribe(VersionListener)}订阅。
+ * 本进程提交的版本在提交后立即通知，其他进程提交的版本由共享的监视线程发现后通知，
+ * 同一动态文件的通知在IO线程池上按版本顺序逐个执行
+ */
+public interface VersionListener {
+    /**
+     * 新版本已提交
+     *
+     * @param file    动态文件
+     * @param version 新版本号
+     */
+    void onCommitted(DynamicFile file, long version);
+}
@@ -0,0 +1,194 @@
+package com.rnkrsoft.io.file.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 分块解压输入流，读取{@link CompressedOutputStream}写入的数据，每次只解压一个块
+ */
+public class CompressedInputStream extends InputStream {
+    final InputStream in;
+    final CompressionCodec codec;
+    final byte[] buffer;
+    byte[] compressed;
+    int position;
+    int limit;
+    int rawLength;
+    int storedLength;
+    boolean closed = false;
+
+    public CompressedInputStream(InputStream in) throws IOException {
+        this.in = in;
+        byte[] header = new byte[9];
+        readFully(header, 0, header.length);
+        if (readInt(header, 0) != CompressedOutputStream.MAGIC) {
+            throw new IOException("illegal compressed data header");
+        }
+        this.codec = CompressionCodecs.get(header[4]);
+        if (codec == null) {
+            throw new IOException("unknown compression codec " + header[4]);
+        }
+        int blockSize = readInt(header, 5);
+        if (blockSize <= 0 || blockSize > CompressedOutputStream.MAX_BLOCK_SIZE) {
+            throw new IOException("illegal compressed block size " + blockSize);
+        }
+        this.buffer = new byte[blockSize];
+        this.compressed = new byte[0];
+    }
+
+    /**
+     * 读取下一个块
+     *
+     * @return 读取结束返回假
+     */
+    boolean readBlock() throws IOException {
+        if (!readBlockHeader()) {
+            return false;
+        }
+        decodeBlock();
+        return true;
+    }
+
+    /**
+     * 读取并解码头部已读取的块
+     */
+    void decodeBlock() throws IOException {
+        if (storedLength == rawLength) {
+            readFully(buffer, 0, rawLength);
+        } else {
+            if (compressed.length < storedLength) {
+                compressed = new byte[codec.maxCompressedLength(buffer.length)];
+            }
+            readFully(compressed, 0, storedLength);
+            int length = codec.decompress(compressed, 0, storedLength, buffer, 0, rawLength);
+            if (length != rawLength) {
+                throw new IOException("compressed block length " + length + " is not equals " + rawLength);
+            }
+        }
+        position = 0;
+        limit = rawLength;
+    }
+
+    /**
+     * 读取下一个块的头部
+     *
+     * @return 读取结束返回假
+     */
+    boolean readBlockHeader() throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return false;
+        }
+        byte[] header = new byte[8];
+        header[0] = (byte) first;
+        readFully(header, 1, 7);
+        rawLength = readInt(header, 0);
+        storedLength = readInt(header, 4);
+        if (rawLength <= 0 || rawLength > buffer.length || storedLength <= 0 || storedLength > rawLength) {
+            throw new IOException("illegal compressed block length " + rawLength + "/" + storedLength);
+        }
+        return true;
+    }
+
+    boolean ensureReadable() throws IOException {
+        if (closed) {
+            throw new IOException("stream is closed");
+        }
+        return position < limit || readBlock();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureReadable()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureReadable()) {
+            return -1;
+        }
+        int length = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, length);
+        position += length;
+        return length;
+    }
+
+    /**
+     * 跳过的范围覆盖整块时只读取块头部并跳过块数据，不进行解压
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        if (closed) {
+            throw new IOException("stream is closed");
+        }
+        long skipped = 0;
+        while (skipped < n) {
+            if (position < limit) {
+                int length = (int) Math.min(n - skipped, limit - position);
+                position += length;
+                skipped += length;
+                continue;
+            }
+            if (!readBlockHeader()) {
+                break;
+            }
+            if (n - skipped >= rawLength) {
+                skipFully(storedLength);
+                skipped += rawLength;
+            } else {
+                decodeBlock();
+            }
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return closed ? 0 : limit - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        in.close();
+    }
+
+    void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int length = in.read(b, off, len);
+            if (length < 0) {
+                throw new EOFException("unexpected end of compressed data");
+            }
+            off += length;
+            len -= length;
+        }
+    }
+
+    void skipFully(long len) throws IOException {
+        while (len > 0) {
+            long length = in.skip(len);
+            if (length <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("unexpected end of compressed data");
+                }
+                length = 1;
+            }
+            len -= length;
+        }
+    }
+
+    static int readInt(byte[] buf, int offset) {
+        return (buf[offset] & 0xFF) << 24 | (buf[offset + 1] & 0xFF) << 16 | (buf[offset + 2] & 0xFF) << 8 | (buf[offset + 3] & 0xFF);
+    }
+}
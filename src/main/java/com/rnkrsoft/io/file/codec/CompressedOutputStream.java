@@ -0,0 +1,135 @@
+package com.rnkrsoft.io.file.codec;
+
+import com.rnkrsoft.io.buffer.util.DiskSizeUnit;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 分块压缩输出流，数据按块压缩，每个块带有长度信息，读取时可以逐块流式解压。
+ * 压缩后不小于原始数据的块以原始数据保存。
+ * <pre>
+ * 头部：魔数(4) 编解码器标识(1) 块大小(4)
+ * 块：原始长度(4) 存储长度(4) 数据，存储长度等于原始长度时为未压缩数据
+ * </pre>
+ */
+public class CompressedOutputStream extends OutputStream {
+    /**
+     * 压缩文件魔数 "DFZ1"
+     */
+    public static final int MAGIC = 0x44465A31;
+    /**
+     * 默认块大小64KB
+     */
+    public static final int DEFAULT_BLOCK_SIZE = DiskSizeUnit.nKB(64);
+    /**
+     * 最大块大小16MB
+     */
+    public static final int MAX_BLOCK_SIZE = DiskSizeUnit.nMB(16);
+
+    final OutputStream out;
+    final CompressionCodec codec;
+    final byte[] buffer;
+    final byte[] compressed;
+    int count;
+    boolean closed = false;
+
+    public CompressedOutputStream(OutputStream out, CompressionCodec codec) throws IOException {
+        this(out, codec, DEFAULT_BLOCK_SIZE);
+    }
+
+    public CompressedOutputStream(OutputStream out, CompressionCodec codec, int blockSize) throws IOException {
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("blockSize: " + blockSize + " (expected: 1-" + MAX_BLOCK_SIZE + ")");
+        }
+        this.out = out;
+        this.codec = codec;
+        this.buffer = new byte[blockSize];
+        this.compressed = new byte[codec.maxCompressedLength(blockSize) + 8];
+        byte[] header = new byte[9];
+        writeInt(header, 0, MAGIC);
+        header[4] = codec.getId();
+        writeInt(header, 5, blockSize);
+        out.write(header);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        buffer[count++] = (byte) b;
+        if (count == buffer.length) {
+            writeBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int length = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, length);
+            count += length;
+            off += length;
+            len -= length;
+            if (count == buffer.length) {
+                writeBlock();
+            }
+        }
+    }
+
+    void writeBlock() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        int length = codec.compress(buffer, 0, count, compressed, 8);
+        if (length < count) {
+            writeInt(compressed, 0, count);
+            writeInt(compressed, 4, length);
+            out.write(compressed, 0, length + 8);
+        } else {
+            byte[] header = new byte[8];
+            writeInt(header, 0, count);
+            writeInt(header, 4, count);
+            out.write(header);
+            out.write(buffer, 0, count);
+        }
+        count = 0;
+    }
+
+    void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("stream is closed");
+        }
+    }
+
+    /**
+     * 将缓冲的数据作为一个块写出，频繁调用会降低压缩率
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        writeBlock();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            writeBlock();
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    static void writeInt(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) (value >>> 24);
+        buf[offset + 1] = (byte) (value >>> 16);
+        buf[offset + 2] = (byte) (value >>> 8);
+        buf[offset + 3] = (byte) value;
+    }
+}
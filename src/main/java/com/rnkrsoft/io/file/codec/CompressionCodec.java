@@ -0,0 +1,58 @@
+package com.rnkrsoft.io.file.codec;
+
+import java.io.IOException;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 块压缩编解码器，每次压缩或解压一个完整的块，实现类需要线程安全。
+ * 编解码器标识写入压缩文件头部，读取时通过{@link CompressionCodecs}查找对应的编解码器
+ */
+public interface CompressionCodec {
+    /**
+     * 编解码器标识，1~127保留给内置编解码器
+     *
+     * @return 标识
+     */
+    byte getId();
+
+    /**
+     * 编解码器名称
+     *
+     * @return 名称
+     */
+    String getName();
+
+    /**
+     * 压缩指定长度数据时输出缓冲区需要的最大长度
+     *
+     * @param length 原始数据长度
+     * @return 最大压缩长度
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * 压缩一个块
+     *
+     * @param src       原始数据
+     * @param srcOffset 原始数据偏移
+     * @param srcLength 原始数据长度
+     * @param dst       输出缓冲区，剩余长度不小于{@link #maxCompressedLength(int)}
+     * @param dstOffset 输出偏移
+     * @return 压缩后的长度
+     */
+    int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset);
+
+    /**
+     * 解压一个块
+     *
+     * @param src       压缩数据
+     * @param srcOffset 压缩数据偏移
+     * @param srcLength 压缩数据长度
+     * @param dst       输出缓冲区
+     * @param dstOffset 输出偏移
+     * @param dstLength 原始数据长度
+     * @return 解压后的长度
+     * @throws IOException 压缩数据损坏
+     */
+    int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength) throws IOException;
+}
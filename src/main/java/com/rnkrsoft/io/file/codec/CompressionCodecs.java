@@ -0,0 +1,45 @@
+package com.rnkrsoft.io.file.codec;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 编解码器注册表，读取压缩文件时按头部的编解码器标识查找编解码器
+ */
+public final class CompressionCodecs {
+    public static final CompressionCodec DEFLATE = new DeflateCodec();
+    public static final CompressionCodec LZ4 = new Lz4Codec();
+
+    static final ConcurrentMap<Byte, CompressionCodec> CODECS = new ConcurrentHashMap<Byte, CompressionCodec>();
+
+    static {
+        register(DEFLATE);
+        register(LZ4);
+    }
+
+    private CompressionCodecs() {
+    }
+
+    /**
+     * 注册编解码器，同一标识只能注册一次
+     *
+     * @param codec 编解码器
+     */
+    public static void register(CompressionCodec codec) {
+        CompressionCodec old = CODECS.putIfAbsent(codec.getId(), codec);
+        if (old != null && old != codec) {
+            throw new IllegalArgumentException("codec id " + codec.getId() + " is already registered by " + old);
+        }
+    }
+
+    /**
+     * 获取指定标识的编解码器
+     *
+     * @param id 标识
+     * @return 编解码器，未注册返回null
+     */
+    public static CompressionCodec get(byte id) {
+        return CODECS.get(id);
+    }
+}
@@ -0,0 +1,92 @@
+package com.rnkrsoft.io.file.codec;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 基于JDK Deflater的编解码器，不带GZIP头部和尾部，压缩率高但速度较慢，适合文本数据
+ */
+public class DeflateCodec implements CompressionCodec {
+    public static final byte ID = 1;
+
+    final int level;
+
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level 压缩级别 0~9，-1为默认级别
+     */
+    public DeflateCodec(int level) {
+        if (level < -1 || level > 9) {
+            throw new IllegalArgumentException("level: " + level + " (expected: -1-9)");
+        }
+        this.level = level;
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "deflate";
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        //无法压缩时以存储块输出，每个存储块最多65535字节，额外5字节
+        return length + (length / 16383 + 1) * 5 + 16;
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(src, srcOffset, srcLength);
+            deflater.finish();
+            int position = dstOffset;
+            while (!deflater.finished()) {
+                if (position >= dst.length) {
+                    throw new IllegalStateException("compress buffer overflow");
+                }
+                position += deflater.deflate(dst, position, dst.length - position);
+            }
+            return position - dstOffset;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(src, srcOffset, srcLength);
+            int position = dstOffset;
+            int end = dstOffset + dstLength;
+            while (!inflater.finished() && position < end) {
+                int length = inflater.inflate(dst, position, end - position);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                position += length;
+            }
+            return position - dstOffset;
+        } catch (DataFormatException e) {
+            throw new IOException("illegal deflate data: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DeflateCodec(level=" + level + ")";
+    }
+}
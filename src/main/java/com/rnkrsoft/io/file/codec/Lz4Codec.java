@@ -0,0 +1,193 @@
+package com.rnkrsoft.io.file.codec;
+
+import java.io.IOException;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 纯Java实现的LZ4块格式编解码器，使用单个哈希表贪婪匹配，压缩率低于Deflate但速度快得多
+ */
+public class Lz4Codec implements CompressionCodec {
+    public static final byte ID = 2;
+
+    static final int MIN_MATCH = 4;
+    /**
+     * 最后5个字节必须为字面量
+     */
+    static final int LAST_LITERALS = 5;
+    /**
+     * 最后一个匹配必须在距末尾12个字节之前开始
+     */
+    static final int MF_LIMIT = 12;
+    static final int MAX_DISTANCE = 65535;
+    static final int HASH_LOG = 12;
+    static final int RUN_MASK = 15;
+    static final int ML_MASK = 15;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "lz4";
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset) {
+        int end = srcOffset + srcLength;
+        int anchor = srcOffset;
+        int op = dstOffset;
+        if (srcLength > MF_LIMIT) {
+            //保存位置加一，0表示空
+            int[] table = new int[1 << HASH_LOG];
+            int mfLimit = end - MF_LIMIT;
+            int matchLimit = end - LAST_LITERALS;
+            int ip = srcOffset + 1;
+            table[hash(readInt(src, srcOffset))] = srcOffset + 1;
+            while (ip < mfLimit) {
+                int h = hash(readInt(src, ip));
+                int ref = table[h] - 1;
+                table[h] = ip + 1;
+                if (ref < srcOffset || ip - ref > MAX_DISTANCE || readInt(src, ref) != readInt(src, ip)) {
+                    ip++;
+                    continue;
+                }
+                while (ip > anchor && ref > srcOffset && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+                    matchLength++;
+                }
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength - MIN_MATCH, dst, op);
+                ip += matchLength;
+                anchor = ip;
+                if (ip < mfLimit) {
+                    table[hash(readInt(src, ip - 2))] = ip - 1;
+                }
+            }
+        }
+        //最后的字面量
+        int literalLength = end - anchor;
+        op = writeLength(dst, op, literalLength, 0);
+        System.arraycopy(src, anchor, dst, op, literalLength);
+        op += literalLength;
+        return op - dstOffset;
+    }
+
+    static int writeSequence(byte[] src, int literalOffset, int literalLength, int distance, int matchLength, byte[] dst, int op) {
+        int token = op;
+        op = writeLength(dst, op, literalLength, 0);
+        System.arraycopy(src, literalOffset, dst, op, literalLength);
+        op += literalLength;
+        dst[op++] = (byte) distance;
+        dst[op++] = (byte) (distance >>> 8);
+        if (matchLength >= ML_MASK) {
+            dst[token] |= ML_MASK;
+            int remaining = matchLength - ML_MASK;
+            while (remaining >= 255) {
+                dst[op++] = (byte) 255;
+                remaining -= 255;
+            }
+            dst[op++] = (byte) remaining;
+        } else {
+            dst[token] |= matchLength;
+        }
+        return op;
+    }
+
+    /**
+     * 写入令牌中的字面量长度及其扩展字节
+     */
+    static int writeLength(byte[] dst, int op, int literalLength, int matchBits) {
+        if (literalLength >= RUN_MASK) {
+            dst[op++] = (byte) (RUN_MASK << 4 | matchBits);
+            int remaining = literalLength - RUN_MASK;
+            while (remaining >= 255) {
+                dst[op++] = (byte) 255;
+                remaining -= 255;
+            }
+            dst[op++] = (byte) remaining;
+        } else {
+            dst[op++] = (byte) (literalLength << 4 | matchBits);
+        }
+        return op;
+    }
+
+    @Override
+    public int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength) throws IOException {
+        int ip = srcOffset;
+        int srcEnd = srcOffset + srcLength;
+        int op = dstOffset;
+        int dstEnd = dstOffset + dstLength;
+        while (ip < srcEnd) {
+            int token = src[ip++] & 0xFF;
+            int literalLength = token >>> 4;
+            if (literalLength == RUN_MASK) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        throw new IOException("illegal lz4 data: literal length overflow");
+                    }
+                    b = src[ip++] & 0xFF;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            if (literalLength > srcEnd - ip || literalLength > dstEnd - op) {
+                throw new IOException("illegal lz4 data: literal length " + literalLength);
+            }
+            System.arraycopy(src, ip, dst, op, literalLength);
+            ip += literalLength;
+            op += literalLength;
+            if (ip >= srcEnd) {
+                break;
+            }
+            if (ip + 2 > srcEnd) {
+                throw new IOException("illegal lz4 data: missing match offset");
+            }
+            int distance = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+            ip += 2;
+            int matchLength = token & ML_MASK;
+            if (matchLength == ML_MASK) {
+                int b;
+                do {
+                    if (ip >= srcEnd) {
+                        throw new IOException("illegal lz4 data: match length overflow");
+                    }
+                    b = src[ip++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            int ref = op - distance;
+            if (distance == 0 || ref < dstOffset || matchLength > dstEnd - op) {
+                throw new IOException("illegal lz4 data: match offset " + distance + " length " + matchLength);
+            }
+            //匹配可能与输出重叠，逐字节复制
+            for (int i = 0; i < matchLength; i++) {
+                dst[op++] = dst[ref++];
+            }
+        }
+        return op - dstOffset;
+    }
+
+    static int readInt(byte[] buf, int i) {
+        return (buf[i] & 0xFF) | (buf[i + 1] & 0xFF) << 8 | (buf[i + 2] & 0xFF) << 16 | (buf[i + 3] & 0xFF) << 24;
+    }
+
+    static int hash(int i) {
+        return (i * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    @Override
+    public String toString() {
+        return "Lz4Codec";
+    }
+}
@@ -0,0 +1,39 @@
+package com.rnkrsoft.io.file.impl;
+
+import com.rnkrsoft.io.buffer.ByteBuffer;
+import com.rnkrsoft.io.buffer.PooledByteBufferAllocator;
+import com.rnkrsoft.io.file.RandomAccessReader;
+
+import java.io.IOException;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 随机访问读取器的公共实现
+ */
+abstract class AbstractRandomAccessReader implements RandomAccessReader {
+
+    @Override
+    public ByteBuffer read(long position, int length) throws IOException {
+        checkRange(position, length);
+        int readable = (int) Math.max(0, Math.min(length, size() - position));
+        ByteBuffer buffer = PooledByteBufferAllocator.DEFAULT.ioBuffer(readable, readable);
+        try {
+            if (readable > 0) {
+                read(position, buffer, readable);
+            }
+            return buffer;
+        } catch (IOException e) {
+            buffer.release();
+            throw e;
+        }
+    }
+
+    static void checkRange(long position, int length) {
+        if (position < 0) {
+            throw new IllegalArgumentException("position: " + position + " (expected: >= 0)");
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("length: " + length + " (expected: >= 0)");
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.rnkrsoft.io.file.impl;
+
+import com.rnkrsoft.io.file.BatchTransaction;
+import com.rnkrsoft.io.file.DynamicFile;
+import com.rnkrsoft.io.file.DynamicFileRegistry;
+import com.rnkrsoft.io.file.FileTransaction;
+import com.rnkrsoft.io.file.TransactionExpiredException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 多文件事务实现。
+ * 提交时按分段锁序号获取去重后的分段锁，再按规范路径顺序获取进程间提交锁，避免与其他多文件事务死锁，然后按加入顺序：
+ * <ol>
+ * <li>发布所有版本文件，此时尚未追加提交记录，读取方不可见</li>
+ * <li>在各文件目录写入准备标记，开启提交刷盘时每个目录刷盘一次</li>
+ * <li>在第一个文件目录创建提交标记，提交标记刷盘后事务即已提交，读取方从准备标记读取所有文件的新版本</li>
+ * <li>依次追加各文件的提交记录并删除准备标记，全部追加后再更新进程内索引，最后删除提交标记</li>
+ * </ol>
+ * 提交标记创建之前读取方看不到任何文件的新版本，之后看到所有文件的新版本，与追加到哪个文件无关。
+ * 提交标记创建之前失败时撤销已发布的版本文件并回滚，之后失败时由各文件下次持有提交锁时补写，两种情况都抛出异常
+ */
+@Slf4j
+public class BatchTransactionImpl implements BatchTransaction {
+    final List<DynamicFileImpl> files;
+    final List<FileTransactionImpl> transactions;
+    final String batchId = UUID.randomUUID().toString();
+    boolean finished = false;
+
+    public BatchTransactionImpl(DynamicFile... files) throws IOException {
+        if (files.length == 0) {
+            throw new IllegalArgumentException("batch transaction requires at least one dynamic file");
+        }
+        this.files = new ArrayList<DynamicFileImpl>(files.length);
+        this.transactions = new ArrayList<FileTransactionImpl>(files.length);
+        Set<String> paths = new HashSet<String>();
+        for (DynamicFile file : files) {
+            DynamicFileImpl dynamicFile = (DynamicFileImpl) file;
+            if (!paths.add(DynamicFileRegistry.canonicalPath(dynamicFile.index.dir))) {
+                throw new IllegalArgumentException("dynamic file '" + dynamicFile.index.dir + "' is duplicated in batch transaction");
+            }
+            this.files.add(dynamicFile);
+        }
+        try {
+            for (DynamicFileImpl dynamicFile : this.files) {
+                transactions.add((FileTransactionImpl) dynamicFile.begin());
+            }
+        } catch (IOException e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    @Override
+    public FileTransaction get(DynamicFile file) {
+        int idx = files.indexOf(file);
+        if (idx < 0) {
+            throw new IllegalArgumentException("dynamic file '" + file.getFileName() + "' is not in batch transaction");
+        }
+        return transactions.get(idx);
+    }
+
+    @Override
+    public List<FileTransaction> getTransactions() {
+        return Collections.<FileTransaction>unmodifiableList(transactions);
+    }
+
+    @Override
+    public synchronized boolean commit() throws IOException {
+        if (finished) {
+            return false;
+        }
+        for (FileTransactionImpl transaction : transactions) {
+            if (transaction.expired) {
+                //任一文件事务超时失效，整个多文件事务回滚
+                rollback();
+                throw new TransactionExpiredException("transaction id '" + transaction.getTransactionId() + "' is timeout");
+            }
+        }
+        //不同路径可能共享同一个分段锁，按分段锁序号获取去重后的分段锁，再按规范路径获取进程间提交锁
+        DynamicFileRegistry registry = DynamicFileRegistry.getInstance();
+        TreeMap<Integer, Lock> stripes = new TreeMap<Integer, Lock>();
+        for (DynamicFileImpl dynamicFile : files) {
+            stripes.put(registry.getLockIndex(DynamicFileRegistry.canonicalPath(dynamicFile.index.dir)), dynamicFile.publishLock);
+        }
+        List<Lock> stripeLocks = new ArrayList<Lock>(stripes.values());
+        List<DynamicFileImpl> lockOrder = new ArrayList<DynamicFileImpl>(files);
+        Collections.sort(lockOrder, new Comparator<DynamicFileImpl>() {
+            @Override
+            public int compare(DynamicFileImpl o1, DynamicFileImpl o2) {
+                return DynamicFileRegistry.canonicalPath(o1.index.dir).compareTo(DynamicFileRegistry.canonicalPath(o2.index.dir));
+            }
+        });
+        VersionRecord[] records = new VersionRecord[files.size()];
+        File commitFile = new File(files.get(0).index.dir, files.get(0).getFileName() + ".batch." + batchId + ".commit");
+        boolean committed = false;
+        IOException failure = null;
+        int stripeLocked = 0;
+        int locked = 0;
+        try {
+            for (Lock lock : stripeLocks) {
+                lock.lock();
+                stripeLocked++;
+            }
+            for (DynamicFileImpl dynamicFile : lockOrder) {
+                dynamicFile.manifest.lock(dynamicFile.getTimeoutSec() * 1000L);
+                locked++;
+            }
+            boolean sync = false;
+            List<File> batchFiles = new ArrayList<File>(files.size());
+            for (int i = 0; i < files.size(); i++) {
+                DynamicFileImpl dynamicFile = files.get(i);
+                FileTransactionImpl transaction = transactions.get(i);
+                sync |= dynamicFile.isSyncOnCommit();
+                if (!transaction.tempFile.exists()) {
+                    throw new IOException("temp file '" + transaction.tempFile + "' not exist");
+                }
+                dynamicFile.index.reload();
+                records[i] = transaction.publishVersion(dynamicFile.index.dir, false);
+                if (records[i] != null) {
+                    batchFiles.add(dynamicFile.manifest.batchFile);
+                }
+            }
+            for (int i = 0; i < files.size(); i++) {
+                if (records[i] != null) {
+                    files.get(i).manifest.prepare(commitFile, batchFiles, Collections.singletonList(records[i]), sync);
+                }
+                if (sync) {
+                    FileSystemUtil.syncDirectory(files.get(i).index.dir);
+                }
+            }
+            RandomAccessFile raf = new RandomAccessFile(commitFile, "rw");
+            try {
+                if (sync) {
+                    raf.getChannel().force(true);
+                }
+            } finally {
+                raf.close();
+            }
+            if (sync) {
+                FileSystemUtil.syncDirectory(commitFile.getParentFile());
+            }
+            committed = true;
+            //提交标记已创建，读取方通过准备标记已能看到所有文件的新版本，追加失败的文件由下次持有提交锁时补写
+            for (int i = 0; i < files.size(); i++) {
+                if (records[i] != null) {
+                    append(files.get(i), records[i]);
+                }
+            }
+            for (int i = 0; i < files.size(); i++) {
+                if (records[i] != null) {
+                    files.get(i).published(Collections.singletonList(records[i]));
+                }
+            }
+            commitFile.delete();
+        } catch (Exception e) {
+            failure = e instanceof IOException ? (IOException) e : new IOException(e);
+            if (committed) {
+                //提交标记已创建，未追加的提交记录在下次持有提交锁时补写
+                log.error("finish batch transaction '{}' happens error!", batchId, e);
+            } else {
+                log.error("commit batch transaction '{}' happens error!", batchId, e);
+                //提交标记可能已创建但没有刷盘，先删除提交标记，避免撤销后被其他进程补写
+                if (commitFile.exists() && !commitFile.delete()) {
+                    log.warn("delete commit file '{}' fail", commitFile);
+                }
+                abort(records);
+            }
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                lockOrder.get(i).manifest.unlock();
+            }
+            for (int i = stripeLocked - 1; i >= 0; i--) {
+                stripeLocks.get(i).unlock();
+            }
+        }
+        finished = true;
+        if (committed) {
+            for (FileTransactionImpl transaction : transactions) {
+                transaction.committed();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return true;
+    }
+
+    /**
+     * 提交标记创建后追加一个文件的提交记录并删除其准备标记
+     *
+     * @param dynamicFile 动态文件
+     * @param record      提交记录
+     * @throws IOException IO异常
+     */
+    void append(DynamicFileImpl dynamicFile, VersionRecord record) throws IOException {
+        dynamicFile.manifest.append(Collections.singletonList(record), dynamicFile.isSyncOnCommit());
+        dynamicFile.manifest.finish();
+    }
+
+    /**
+     * 提交标记创建之前失败，删除已发布的版本文件和准备标记，回滚所有文件事务
+     */
+    void abort(VersionRecord[] records) {
+        for (int i = 0; i < files.size(); i++) {
+            DynamicFileImpl dynamicFile = files.get(i);
+            if (records[i] != null) {
+                dynamicFile.index.versionFile(records[i].version, records[i].layout()).delete();
+                //只有发布了版本的文件才可能写入过准备标记，未加锁的文件不能删除其他进程的准备标记
+                if (dynamicFile.manifest.batchFile.exists()) {
+                    dynamicFile.manifest.finish();
+                }
+            }
+        }
+        try {
+            rollback0();
+        } catch (IOException e) {
+            log.error("rollback batch transaction '{}' happens error!", batchId, e);
+        }
+    }
+
+    @Override
+    public synchronized void rollback() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        rollback0();
+    }
+
+    void rollback0() throws IOException {
+        for (FileTransactionImpl transaction : transactions) {
+            transaction.aborted();
+        }
+    }
+
+    @Override
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+}
@@ -0,0 +1,83 @@
+package com.rnkrsoft.io.file.impl;
+
+import com.rnkrsoft.io.file.CorruptVersionException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 读取时计算CRC32校验和的输入流，读取到结尾时与提交记录中的长度和校验和比较，不一致时抛出异常。
+ * 跳过的数据同样计入校验和，校验结果记入动态文件的校验缓存
+ */
+final class ChecksumInputStream extends FilterInputStream {
+    final VersionRecord record;
+    final DynamicFileImpl dynamicFile;
+    final CRC32 crc = new CRC32();
+    long length;
+    boolean checked = false;
+
+    ChecksumInputStream(InputStream in, VersionRecord record, DynamicFileImpl dynamicFile) {
+        super(in);
+        this.record = record;
+        this.dynamicFile = dynamicFile;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            check();
+        } else {
+            crc.update(b);
+            length++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n < 0) {
+            check();
+        } else {
+            crc.update(b, off, n);
+            length += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int length = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (length < 0) {
+                break;
+            }
+            skipped += length;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    void check() throws IOException {
+        if (checked) {
+            return;
+        }
+        if (length != record.length || (int) crc.getValue() != record.checksum) {
+            dynamicFile.corrupted.add(record.version);
+            throw new CorruptVersionException("version " + record.version + " is corrupt, length " + length + "/" + record.length
+                    + " checksum " + Integer.toHexString((int) crc.getValue()) + "/" + Integer.toHexString(record.checksum));
+        }
+        checked = true;
+        dynamicFile.verified.add(record.version);
+    }
+}
@@ -0,0 +1,85 @@
+package com.rnkrsoft.io.file.impl;
+
+import com.rnkrsoft.io.buffer.ByteBuffer;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 压缩或差异保存版本的随机访问读取器。
+ * 压缩版本每次读取时跳过目标位置之前的整块，只解压包含目标数据的块；差异版本第一次读取时还原完整数据并缓存
+ */
+final class DecodedReader extends AbstractRandomAccessReader {
+    final DynamicFileImpl dynamicFile;
+    final long version;
+    final boolean compressed;
+    byte[] content;
+
+    DecodedReader(DynamicFileImpl dynamicFile, long version, boolean compressed) {
+        this.dynamicFile = dynamicFile;
+        this.version = version;
+        this.compressed = compressed;
+    }
+
+    synchronized byte[] content() throws IOException {
+        if (content == null) {
+            content = dynamicFile.content(version);
+        }
+        return content;
+    }
+
+    @Override
+    public long size() throws IOException {
+        if (compressed) {
+            VersionRecord record = dynamicFile.index.record(version);
+            if (record != null) {
+                return record.length;
+            }
+        }
+        return content().length;
+    }
+
+    @Override
+    public int read(long position, ByteBuffer dst, int length) throws IOException {
+        checkRange(position, length);
+        if (length == 0) {
+            return 0;
+        }
+        if (!compressed) {
+            byte[] data = content();
+            if (position >= data.length) {
+                return -1;
+            }
+            length = (int) Math.min(length, data.length - position);
+            dst.writeBytes(data, (int) position, length);
+            return length;
+        }
+        InputStream is = dynamicFile.openStream(version);
+        try {
+            long skipped = IOUtils.skip(is, position);
+            if (skipped < position) {
+                return -1;
+            }
+            byte[] bytes = new byte[Math.min(length, 8192)];
+            int read = 0;
+            while (read < length) {
+                int n = is.read(bytes, 0, Math.min(bytes.length, length - read));
+                if (n < 0) {
+                    break;
+                }
+                dst.writeBytes(bytes, 0, n);
+                read += n;
+            }
+            return read == 0 ? -1 : read;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        content = null;
+    }
+}
@@ -205,18 +205,38 @@
 package com.rnkrsoft.io.file.impl;
 
 import com.rnkrsoft.io.buffer.ByteBuffer;
+import com.rnkrsoft.io.file.ChunkedFileReader;
+import com.rnkrsoft.io.file.CorruptVersionException;
+import com.rnkrsoft.io.file.DirectoryLayout;
 import com.rnkrsoft.io.file.DynamicFile;
+import com.rnkrsoft.io.file.DynamicFileRegistry;
 import com.rnkrsoft.io.file.FileTransaction;
 import com.rnkrsoft.io.file.FileWrapper;
+import com.rnkrsoft.io.file.ReadMode;
+import com.rnkrsoft.io.file.StorageMode;
+import com.rnkrsoft.io.file.VersionHandle;
+import com.rnkrsoft.io.file.VersionListener;
+import com.rnkrsoft.io.file.codec.CompressedInputStream;
+import com.rnkrsoft.time.DateStyle;
+import com.rnkrsoft.time.FastDateFormat;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 
 import java.io.*;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.CRC32;
 
 /**
  * Created by rnkrsoft.com on 2018/2/15.
@@ -225,7 +245,54 @@ import java.util.UUID;
 @Slf4j
 @ToString
 public final class DynamicFileImpl extends DynamicFile {
-    long maxVersion;
+    /**
+     * 已提交版本的内存索引
+     */
+    final VersionIndex index;
+    /**
+     * 版本发布锁，同一路径的动态文件共享同一个分段锁
+     */
+    final Lock publishLock;
+    /**
+     * 版本清单，负责进程间提交互斥、版本号分配和记录版本的提交与删除
+     */
+    final VersionManifest manifest;
+    /**
+     * 是否已经提交给后台清理服务执行保留策略
+     */
+    final AtomicBoolean retentionPending = new AtomicBoolean(false);
+    /**
+     * 组提交协调器
+     */
+    final GroupCommitter groupCommitter = new GroupCommitter(this);
+    /**
+     * 已校验通过的版本号，版本发布后内容不再变化，校验一次即可。版本被删除或转换为差异文件时移除
+     */
+    final Set<Long> verified = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    /**
+     * 校验失败的版本号
+     */
+    final Set<Long> corrupted = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    /**
+     * 被句柄固定的版本号及其句柄数，访问时持有该映射的锁
+     */
+    final Map<Long, Integer> pins = new HashMap<Long, Integer>();
+    /**
+     * 已通知监听器的最大版本号，访问时持有监听器列表的锁
+     */
+    long notifiedVersion = -1;
+    /**
+     * 按版本顺序执行监听器通知的串行执行器，第一次订阅时创建
+     */
+    SerialExecutor notifier;
+    /**
+     * 已检查过是否转换为差异文件的最大版本号，只由持有分段锁的线程访问
+     */
+    long deltaChecked = -1;
+    /**
+     * 连续差异版本的最大个数
+     */
+    int maxDeltaChain = VersionDelta.DEFAULT_MAX_CHAIN;
 
     public DynamicFileImpl(String directory, String fileName, int backupSize) {
         this.directory = directory;
@@ -233,6 +300,10 @@ public final class DynamicFileImpl extends DynamicFile {
         int idx = fileName.lastIndexOf(".");
         this.fileSuffix = fileName.substring(idx + 1);
         this.backupSize = backupSize;
+        this.index = new VersionIndex(new File(directory + "/" + fileName), fileName);
+        this.publishLock = DynamicFileRegistry.getInstance().getLock(DynamicFileRegistry.canonicalPath(index.dir));
+        this.manifest = index.manifest;
+        DynamicFileJanitor.INSTANCE.register(this);
     }
 
     public DynamicFileImpl(String file, int backupSize) {
@@ -246,138 +317,626 @@ public final class DynamicFileImpl extends DynamicFile {
 
     @Override
     public boolean exists() throws IOException {
-        versions(false);
+        revalidate();
         return lookupMaxVersion(false) > 0;
     }
 
     @Override
     public void delete() throws IOException {
-        File dir = new File(directory + "/" + fileName);
-        FileUtils.deleteDirectory(dir);
-        if (dir.exists()) {
-            File deleteDir = new File(directory + "/" + "~" + fileName + System.currentTimeMillis());
-            dir.renameTo(deleteDir);
-            FileUtils.deleteDirectory(deleteDir);
+        publishLock.lock();
+        try {
+            File dir = new File(directory + "/" + fileName);
+            FileUtils.deleteDirectory(dir);
+            if (dir.exists()) {
+                File deleteDir = new File(directory + "/" + "~" + fileName + System.currentTimeMillis());
+                dir.renameTo(deleteDir);
+                FileUtils.deleteDirectory(deleteDir);
+            }
+            index.clear();
+            verified.clear();
+            corrupted.clear();
+        } finally {
+            publishLock.unlock();
         }
-        maxVersion = -1;
     }
 
     @Override
     public ByteBuffer read(long version) throws IOException {
         FileWrapper fileWrapper = getFile(version);
-        return fileWrapper.read();
+        ByteBuffer buffer = readMode == ReadMode.MAPPED ? fileWrapper.map() : fileWrapper.read();
+        VersionRecord record = uncheckedRecord(version);
+        if (record != null) {
+            try {
+                verify(record, buffer);
+            } catch (IOException e) {
+                buffer.release();
+                throw e;
+            }
+        }
+        return buffer;
     }
 
     @Override
     public InputStream stream(long version) throws IOException {
         FileWrapper fileWrapper = getFile(version);
-        return fileWrapper.stream();
+        InputStream is = fileWrapper.stream();
+        VersionRecord record = uncheckedRecord(version);
+        return record == null ? is : new ChecksumInputStream(is, record, this);
     }
 
     @Override
     public long lookupMaxVersion() throws IOException {
-        versions(false);
+        revalidate();
         return lookupMaxVersion(true);
     }
+
     @Override
     public List<Long> versions(boolean create) throws IOException {
-        final String filePath = directory + "/" + fileName;
-        final File dir = new File(filePath);
-        if (!dir.exists()) {
-            if (create) {
-                dir.mkdirs();
+        if (create && !index.dir.exists()) {
+            index.dir.mkdirs();
+            index.invalidate();
+        }
+        revalidate();
+        return index.list(backupSize);
+    }
+
+    @Override
+    public List<Long> versions() throws IOException {
+        return versions(false);
+    }
+
+    @Override
+    public FileWrapper getFile(long version) throws IOException {
+        File file = openVersion(version);
+        if (!file.exists()) {
+            File deltaFile = openDelta(version);
+            if (deltaFile.exists()) {
+                return new EncodedFileWrapperImpl(this, deltaFile, version);
             }
-            return Collections.emptyList();
+        } else if (isCompressed(version)) {
+            return new EncodedFileWrapperImpl(this, file, version);
         }
-        File[] files = dir.listFiles(new FilenameFilter() {
-            @Override
-            public boolean accept(File dir0, String name) {
-                try {
-                    return dir.getCanonicalPath().equals(dir0.getCanonicalPath()) && (name.startsWith(fileName + ".") && !name.startsWith(fileName + ".temp."));
-                } catch (IOException e) {
-                    return false;
+        return new FileWrapperImpl(file, version);
+    }
+
+    @Override
+    public VersionHandle pin(long version) throws IOException {
+        revalidate();
+        synchronized (pins) {
+            //删除版本文件时持有同一把锁，文件存在即可保证固定之后不会被删除
+            if (!index.contains(version) || (!openVersion(version).exists() && !openDelta(version).exists())) {
+                throw new FileNotFoundException("version " + version + " of dynamicFile '" + index.dir + "' not found!");
+            }
+            Integer count = pins.get(version);
+            pins.put(version, count == null ? 1 : count + 1);
+        }
+        return new VersionHandleImpl(this, version);
+    }
+
+    /**
+     * 句柄释放后解除固定，过期的版本在下一个刻度删除
+     *
+     * @param version 版本号
+     */
+    void unpin(long version) {
+        synchronized (pins) {
+            Integer count = pins.get(version);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                pins.put(version, count - 1);
+                return;
+            }
+            pins.remove(version);
+        }
+        DynamicFileJanitor.INSTANCE.retainLater(this);
+    }
+
+    @Override
+    public void subscribe(VersionListener listener) throws IOException {
+        synchronized (listeners) {
+            if (listeners.isEmpty()) {
+                revalidate();
+                notifiedVersion = index.max();
+                notifier = new SerialExecutor(ioExecutor);
+            }
+            listeners.add(listener);
+            DynamicFileJanitor.INSTANCE.subscribe(this);
+        }
+    }
+
+    @Override
+    public void unsubscribe(VersionListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+            if (listeners.isEmpty()) {
+                DynamicFileJanitor.INSTANCE.unsubscribe(this);
+            }
+        }
+    }
+
+    /**
+     * 将索引中尚未通知的新版本按顺序通知监听器，由提交后和监视线程调用
+     */
+    void fireVersions() {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        synchronized (listeners) {
+            long maxVersion = index.max();
+            if (listeners.isEmpty() || maxVersion <= notifiedVersion) {
+                return;
+            }
+            for (final long version : index.list()) {
+                if (version <= notifiedVersion) {
+                    continue;
                 }
+                notifier.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (VersionListener listener : listeners) {
+                            try {
+                                listener.onCommitted(DynamicFileImpl.this, version);
+                            } catch (Throwable e) {
+                                log.error("notify version {} of dynamicFile '{}' happens error!", version, index.dir, e);
+                            }
+                        }
+                    }
+                });
             }
-        });
-        File[] tempFiles = dir.listFiles(new FilenameFilter() {
-            @Override
-            public boolean accept(File dir0, String name) {
+            notifiedVersion = maxVersion;
+        }
+    }
+
+    @Override
+    public FileTransaction begin() throws IOException {
+        FileTransactionImpl transaction = new FileTransactionImpl(UUID.randomUUID().toString(), this);
+        transactions.put(transaction.getTransactionId(), transaction);
+        DynamicFileJanitor.INSTANCE.watch(this, transaction);
+        return transaction;
+    }
+
+    File openVersion(long version) {
+        return index.versionFile(version, layoutOf(version));
+    }
+
+    File openVersion(long version, DirectoryLayout layout) {
+        return index.versionFile(version, layout);
+    }
+
+    File openDelta(long version) {
+        return new File(index.shardDir(version, layoutOf(version)), fileName + "." + version + VersionDelta.SUFFIX);
+    }
+
+    /**
+     * 获取版本文件的目录布局
+     */
+    DirectoryLayout layoutOf(long version) {
+        return index.layout(version);
+    }
+
+    /**
+     * 读取版本的完整数据，差异文件沿差异链找到完整版本后依次还原
+     *
+     * @param version 版本号
+     * @return 版本数据
+     * @throws IOException IO异常
+     */
+    byte[] content(long version) throws IOException {
+        List<byte[]> deltas = new ArrayList<byte[]>();
+        byte[] data;
+        while ((data = fullContent(version)) == null) {
+            File deltaFile = openDelta(version);
+            if (!deltaFile.exists()) {
+                throw new FileNotFoundException("open dynamicFile '" + openVersion(version) + "' not found!");
+            }
+            byte[] delta = FileUtils.readFileToByteArray(deltaFile);
+            deltas.add(delta);
+            version = VersionDelta.baseVersion(delta);
+        }
+        for (int i = deltas.size() - 1; i >= 0; i--) {
+            data = VersionDelta.decode(deltas.get(i), data);
+        }
+        return data;
+    }
+
+    /**
+     * 读取完整保存的版本数据
+     *
+     * @param version 版本号
+     * @return 版本数据，版本保存为差异文件时返回null
+     * @throws IOException IO异常
+     */
+    byte[] fullContent(long version) throws IOException {
+        File file = openVersion(version);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            if (isCompressed(version)) {
+                InputStream is = new CompressedInputStream(new FileInputStream(file));
                 try {
-                    return dir.getCanonicalPath().equals(dir0.getCanonicalPath()) && (name.startsWith(fileName + ".") && name.startsWith(fileName + ".temp."));
-                } catch (IOException e) {
-                    return false;
+                    return IOUtils.toByteArray(is);
+                } finally {
+                    IOUtils.closeQuietly(is);
                 }
             }
-        });
-        for (File tempFile : tempFiles) {
-            long time = System.currentTimeMillis() - tempFile.lastModified();
-            if (time > timeoutSec * 1000) {
-                log.debug("temp file '{}' is timeout '{}' ms", tempFile.getCanonicalFile(), time);
-                tempFile.delete();
+            return FileUtils.readFileToByteArray(file);
+        } catch (FileNotFoundException e) {
+            //读取期间被转换为差异文件
+            return null;
+        }
+    }
+
+    /**
+     * 打开版本的输入流，压缩文件通过分块读取器逐块解压，差异文件还原到堆内存
+     *
+     * @param version 版本号
+     * @return 输入流
+     * @throws IOException IO异常
+     */
+    InputStream openStream(long version) throws IOException {
+        File file = openVersion(version);
+        if (file.exists()) {
+            if (!isCompressed(version)) {
+                return new ChunkedFileReader(file).asInputStream();
+            }
+            InputStream is = new ChunkedFileReader(file).asInputStream();
+            try {
+                return new CompressedInputStream(is);
+            } catch (IOException e) {
+                IOUtils.closeQuietly(is);
+                throw e;
+            }
+        }
+        return new ByteArrayInputStream(content(version));
+    }
+
+    /**
+     * 获取需要校验的版本提交记录
+     *
+     * @param version 版本号
+     * @return 提交记录，未开启校验、已校验通过或没有记录校验和时返回null
+     */
+    VersionRecord uncheckedRecord(long version) {
+        if (!verifyChecksum || verified.contains(version)) {
+            return null;
+        }
+        VersionRecord record = index.record(version);
+        return record == null || record.checksum == 0 ? null : record;
+    }
+
+    /**
+     * 校验读取到的版本数据，不修改缓冲区的读写索引
+     *
+     * @param record 提交记录
+     * @param buffer 版本数据
+     * @throws IOException 数据损坏时抛出
+     */
+    void verify(VersionRecord record, ByteBuffer buffer) throws IOException {
+        int length = buffer.readableBytesLength();
+        CRC32 crc = new CRC32();
+        if (buffer.hasArray()) {
+            crc.update(buffer.array(), buffer.arrayOffset() + buffer.readerIndex(), length);
+        } else {
+            byte[] bytes = new byte[Math.min(length, 8192)];
+            for (int i = 0; i < length; i += bytes.length) {
+                int n = Math.min(bytes.length, length - i);
+                buffer.getBytes(buffer.readerIndex() + i, bytes, 0, n);
+                crc.update(bytes, 0, n);
+            }
+        }
+        if (length != record.length || (int) crc.getValue() != record.checksum) {
+            corrupted.add(record.version);
+            throw new CorruptVersionException("version " + record.version + " of dynamicFile '" + index.dir + "' is corrupt");
+        }
+        verified.add(record.version);
+    }
+
+    /**
+     * 不读取数据快速检查版本是否完好，已知损坏或长度与提交记录不符的版本视为损坏。
+     * 校验和只在读取版本数据时校验，查找最新版本不会整个读取版本文件
+     *
+     * @param version 版本号
+     * @return 没有发现损坏返回真
+     */
+    boolean intact(long version) {
+        if (corrupted.contains(version)) {
+            return false;
+        }
+        VersionRecord record = uncheckedRecord(version);
+        if (record == null || record.isCompressed()) {
+            return true;
+        }
+        File file = openVersion(version);
+        if (file.exists() && file.length() != record.length) {
+            corrupted.add(version);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 版本文件是否以分块压缩格式保存
+     */
+    boolean isCompressed(long version) {
+        VersionRecord record = index.record(version);
+        return record != null && record.isCompressed();
+    }
+
+    /**
+     * 将新提交版本之前的完整版本转换为相对于下一个版本的差异文件，差异文件不小于原文件的3/4或版本被固定时保留完整文件，
+     * 连续的差异版本超过{@link #maxDeltaChain}个时也保留完整文件，作为更早版本的基准。
+     * 调用方需要持有分段锁和进程间提交锁
+     *
+     * @throws IOException IO异常
+     */
+    void storeDeltas() throws IOException {
+        List<Long> versions = index.list();
+        if (versions.size() < 2) {
+            return;
+        }
+        byte[] base = null;
+        long baseVersion = versions.get(versions.size() - 1);
+        long checked = versions.get(versions.size() - 2);
+        //本次转换的比当前版本新的连续差异版本个数
+        int newerDeltas = 0;
+        for (int i = versions.size() - 2; i >= 0 && versions.get(i) > deltaChecked; i--) {
+            long version = versions.get(i);
+            File file = openVersion(version);
+            if (isPinned(version)) {
+                //被固定的版本保留完整文件，句柄释放后再检查
+                checked = Math.min(checked, version - 1);
+                base = null;
+                newerDeltas = 0;
+            } else if (file.exists() && olderDeltas(versions, i) + newerDeltas >= maxDeltaChain) {
+                //差异链过长，保留完整版本
+                base = null;
+                newerDeltas = 0;
+            } else if (file.exists()) {
+                if (base == null) {
+                    base = content(baseVersion);
+                }
+                byte[] target = content(version);
+                byte[] delta = VersionDelta.encode(baseVersion, base, target, VersionDelta.DEFAULT_BLOCK_SIZE);
+                if (delta.length < target.length / 4 * 3) {
+                    File tempFile = new File(index.dir, fileName + ".temp." + UUID.randomUUID().toString());
+                    FileUtils.writeByteArrayToFile(tempFile, delta);
+                    if (syncOnCommit) {
+                        FileSystemUtil.sync(tempFile);
+                    }
+                    if (!FileSystemUtil.rename(tempFile, openDelta(version))) {
+                        tempFile.delete();
+                        throw new IOException("rename delta file '" + tempFile + "' fail!");
+                    }
+                    boolean pinned;
+                    synchronized (pins) {
+                        //编码期间被固定时放弃差异文件
+                        pinned = pins.containsKey(version);
+                        if (pinned) {
+                            openDelta(version).delete();
+                        } else {
+                            file.delete();
+                            //版本数据改为由差异文件还原，重新校验
+                            verified.remove(version);
+                            corrupted.remove(version);
+                        }
+                    }
+                    if (pinned) {
+                        checked = Math.min(checked, version - 1);
+                        newerDeltas = 0;
+                    } else {
+                        newerDeltas++;
+                        if (log.isDebugEnabled()) {
+                            log.debug("store version {} as delta {} bytes of {} bytes", version, delta.length, target.length);
+                        }
+                    }
+                } else {
+                    newerDeltas = 0;
+                }
+                base = target;
+            } else {
+                base = null;
+                newerDeltas = openDelta(version).exists() ? newerDeltas + 1 : 0;
             }
+            baseVersion = version;
         }
-        Long[] fileTsArray = new Long[files.length];
-        int i = 0;
-        for (File file0 : files) {
-            if (log.isDebugEnabled()) {
-                log.debug("search file : {}", file0);
+        this.deltaChecked = checked;
+    }
+
+    /**
+     * 统计比指定位置的版本旧的连续差异版本个数，最多统计到{@link #maxDeltaChain}个
+     *
+     * @param versions 版本号列表
+     * @param idx      位置
+     * @return 连续差异版本个数
+     */
+    int olderDeltas(List<Long> versions, int idx) {
+        int count = 0;
+        for (int i = idx - 1; i >= 0 && count < maxDeltaChain; i--) {
+            long version = versions.get(i);
+            if (openVersion(version).exists() || !openDelta(version).exists()) {
+                break;
             }
-            String fileName0 = file0.getName();
-            int idx = fileName0.lastIndexOf(".");
-            if (idx < 0) {
+            count++;
+        }
+        return count;
+    }
+
+    boolean isPinned(long version) {
+        synchronized (pins) {
+            return pins.containsKey(version);
+        }
+    }
+
+    /**
+     * 是否有新的版本需要转换为差异文件
+     */
+    boolean deltaPending() {
+        if (storageMode != StorageMode.DELTA) {
+            return false;
+        }
+        List<Long> versions = index.list(2);
+        return versions.size() == 2 && versions.get(0) > deltaChecked;
+    }
+
+    /**
+     * 校验版本索引，保留策略和临时文件由后台清理服务处理
+     */
+    void revalidate() {
+        index.revalidate();
+    }
+
+    /**
+     * 事务发布新版本后追加提交记录并更新版本索引，由后台清理服务执行保留策略，并通知订阅的监听器。
+     * 调用方需要持有分段锁和进程间提交锁
+     *
+     * @param records 提交记录
+     * @throws IOException IO异常
+     */
+    void committed(List<VersionRecord> records) throws IOException {
+        manifest.append(records, syncOnCommit);
+        published(records);
+    }
+
+    /**
+     * 提交记录已追加到清单后更新进程内索引，并通知监听器
+     *
+     * @param records 提交记录
+     */
+    void published(List<VersionRecord> records) {
+        index.appended(records);
+        DynamicFileJanitor.INSTANCE.retainLater(this);
+        fireVersions();
+    }
+
+    /**
+     * 按长度和校验和查找与临时文件内容相同的已保存完整版本，从最新版本开始查找，候选版本逐字节比较确认。
+     * 调用方需要持有分段锁和进程间提交锁
+     *
+     * @param tempFile 临时文件
+     * @param length   临时文件长度
+     * @param checksum 临时文件数据的CRC32校验和
+     * @return 内容相同版本的提交记录，不存在返回null
+     * @throws IOException IO异常
+     */
+    VersionRecord findDuplicate(File tempFile, long length, int checksum) throws IOException {
+        List<VersionRecord> records = index.liveRecords();
+        for (int i = records.size() - 1; i >= 0; i--) {
+            VersionRecord record = records.get(i);
+            //旧版本生成的记录没有校验和
+            if (record.length != length || (record.checksum != checksum && record.checksum != 0)) {
                 continue;
             }
-            String ts = fileName0.substring(idx + 1);
-            long timeStamp = 0L;
-            try {
-                timeStamp = Long.valueOf(ts);
-                fileTsArray[i] = timeStamp;
-                i++;
-            } catch (Exception e) {
-                log.error("getRealFile happens error!", e);
+            File file = openVersion(record.version);
+            if (!file.exists()) {
                 continue;
             }
-            if (timeStamp > maxVersion) {
-                maxVersion = timeStamp;
+            if (!record.isCompressed() && file.length() == length && FileUtils.contentEquals(tempFile, file)) {
+                return record;
             }
-        }
-        fileTsArray = Arrays.copyOf(fileTsArray, i);
-        //升序排列
-        Arrays.sort(fileTsArray);
-        for (int j = 0; j < fileTsArray.length; j++) {
-            if (j < fileTsArray.length - backupSize) {
-                File deleteFile = new File(dir, fileName + "." + fileTsArray[j]);
-                if (log.isDebugEnabled()) {
-                    log.debug("auto delete backup file : {}", deleteFile);
+            if (record.isCompressed()) {
+                InputStream is1 = new FileInputStream(tempFile);
+                InputStream is2 = openStream(record.version);
+                try {
+                    if (IOUtils.contentEquals(is1, is2)) {
+                        return record;
+                    }
+                } finally {
+                    IOUtils.closeQuietly(is1);
+                    IOUtils.closeQuietly(is2);
                 }
-                deleteFile.delete();
             }
         }
-        return Arrays.asList(fileTsArray);
+        return null;
     }
 
-    @Override
-    public List<Long> versions() throws IOException {
-        return versions(false);
+    /**
+     * 分配新的版本号，取当前时间和已分配最大版本号加一中的较大值，保证单调递增。
+     * 调用方需要持有分段锁和进程间提交锁
+     *
+     * @return 新版本号
+     * @throws IOException IO异常
+     */
+    long nextVersion() throws IOException {
+        long timestamp = Long.parseLong(new FastDateFormat().format(System.currentTimeMillis(), DateStyle.FILE_FORMAT3));
+        long last = Math.max(manifest.readSequence(), index.max());
+        return Math.max(timestamp, last + 1);
     }
 
-    @Override
-    public FileWrapper getFile(long version) throws IOException {
-        File file = openVersion(version);
-        return new FileWrapperImpl(file, version);
+    /**
+     * 事务是否仍然属于当前动态文件
+     *
+     * @param transaction 事务
+     * @return 存在返回真
+     */
+    boolean hasTransaction(FileTransaction transaction) {
+        return transactions.get(transaction.getTransactionId()) == transaction;
     }
 
-    @Override
-    public FileTransaction begin() throws IOException {
-        FileTransaction transaction = new FileTransactionImpl(UUID.randomUUID().toString(), this);
-        transactions.put(transaction.getTransactionId(), transaction);
-        return transaction;
+    /**
+     * 删除超出备份数且未被固定的旧版本，追加删除记录，清单中的无效记录过多时压缩清单
+     */
+    void retain() {
+        if (index.expired(backupSize).length == 0 && !index.needCompact() && !deltaPending() && !manifest.batchFile.exists()) {
+            return;
+        }
+        publishLock.lock();
+        try {
+            manifest.lock(timeoutSec * 1000L);
+            try {
+                index.reload();
+                long[] expired = index.expired(backupSize);
+                List<VersionRecord> records = new ArrayList<VersionRecord>(expired.length);
+                for (long version : expired) {
+                    File deleteFile = openVersion(version);
+                    synchronized (pins) {
+                        if (pins.containsKey(version)) {
+                            //被固定的版本在句柄释放后删除
+                            continue;
+                        }
+                        if (log.isDebugEnabled()) {
+                            log.debug("auto delete backup file : {}", deleteFile);
+                        }
+                        deleteFile.delete();
+                        openDelta(version).delete();
+                        index.removeShardDir(deleteFile.getParentFile());
+                    }
+                    records.add(VersionRecord.delete(version));
+                }
+                manifest.append(records, false);
+                index.appended(records);
+                pruneChecks(verified);
+                pruneChecks(corrupted);
+                if (deltaPending()) {
+                    storeDeltas();
+                }
+                if (index.needCompact()) {
+                    manifest.compact(manifest.readSequence(), index.liveRecords(), syncOnCommit);
+                    index.reload();
+                }
+            } finally {
+                manifest.unlock();
+            }
+        } catch (IOException e) {
+            log.error("retain dynamic file '{}' happens error!", index.dir, e);
+        } finally {
+            publishLock.unlock();
+        }
     }
 
-    File openVersion(long version) {
-        File dir = new File(directory + "/" + fileName);
-        File file = new File(dir, fileName + "." + version);
-        return file;
+    /**
+     * 移除已被删除的版本的校验结果，包括其他进程删除的版本
+     *
+     * @param versions 校验结果
+     */
+    void pruneChecks(Set<Long> versions) {
+        for (Iterator<Long> it = versions.iterator(); it.hasNext(); ) {
+            if (!index.contains(it.next())) {
+                it.remove();
+            }
+        }
     }
 
     /**
@@ -388,6 +947,20 @@ public final class DynamicFileImpl extends DynamicFile {
      * @throws IOException 异常
      */
     long lookupMaxVersion(boolean notFoundThrowEx) throws IOException {
+        long maxVersion = index.max();
+        if (maxVersion > 0 && verifyChecksum && !intact(maxVersion)) {
+            //跳过损坏的版本，回退到之前的有效版本
+            List<Long> versions = index.list();
+            maxVersion = -1;
+            for (int i = versions.size() - 1; i >= 0; i--) {
+                long version = versions.get(i);
+                if (intact(version)) {
+                    maxVersion = version;
+                    break;
+                }
+                log.warn("version {} of dynamicFile '{}' is corrupt, skip it", version, index.dir);
+            }
+        }
         if (maxVersion <= 0) {
             if (notFoundThrowEx) {
                 throw new FileNotFoundException("open dynamicFile '" + directory + "\\" + fileName + "' not found!");
@@ -0,0 +1,362 @@
+package com.rnkrsoft.io.file.impl;
+
+import com.rnkrsoft.io.buffer.util.internal.SystemPropertyUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 动态文件后台清理服务，所有动态文件共享一个定时线程和一个工作线程。
+ * 定时线程只执行轻量的任务：通过时间轮标记超时的事务失效，监视被订阅的动态文件，发现其他进程提交的新版本后通知监听器。
+ * 执行备份数保留策略、生成差量、压缩清单和清理超时的临时文件等耗时的磁盘操作交给工作线程，不会推迟事务超时和新版本通知。
+ * 读取和事务查找不再承担清理工作。
+ */
+@Slf4j
+final class DynamicFileJanitor implements Runnable {
+    /**
+     * 时间轮每格的毫秒数，默认1000毫秒
+     */
+    static final long TICK_MILLIS = Math.max(10L, SystemPropertyUtil.getLong("com.rnkrsoft.io.file.janitor.tick", 1000L));
+    /**
+     * 扫描所有动态文件执行保留策略和清理临时文件的间隔毫秒数，默认60秒
+     */
+    static final long SWEEP_INTERVAL = SystemPropertyUtil.getLong("com.rnkrsoft.io.file.janitor.sweepInterval", 60000L);
+    /**
+     * 监视被订阅动态文件清单变化的间隔毫秒数，默认50毫秒
+     */
+    static final long WATCH_INTERVAL = Math.max(1L, SystemPropertyUtil.getLong("com.rnkrsoft.io.file.janitor.watchInterval", 50L));
+    /**
+     * 时间轮格数
+     */
+    static final int WHEEL_SIZE = 64;
+
+    static final DynamicFileJanitor INSTANCE = new DynamicFileJanitor();
+
+    /**
+     * 已注册的动态文件，弱引用，动态文件被回收后自动移除
+     */
+    final Queue<WeakReference<DynamicFileImpl>> files = new ConcurrentLinkedQueue<WeakReference<DynamicFileImpl>>();
+    /**
+     * 提交后等待执行保留策略的动态文件
+     */
+    final Queue<DynamicFileImpl> pendingRetention = new ConcurrentLinkedQueue<DynamicFileImpl>();
+    /**
+     * 被订阅的动态文件
+     */
+    final Queue<DynamicFileImpl> watchedFiles = new ConcurrentLinkedQueue<DynamicFileImpl>();
+    final AtomicBoolean watching = new AtomicBoolean(false);
+    /**
+     * 事务超时时间轮
+     */
+    final Queue<TransactionTimeout>[] wheel;
+    final AtomicBoolean started = new AtomicBoolean(false);
+    ScheduledExecutorService executor;
+    /**
+     * 执行保留策略和扫描的工作线程
+     */
+    ExecutorService worker;
+    /**
+     * 工作线程上是否已有待执行的保留策略任务
+     */
+    final AtomicBoolean retaining = new AtomicBoolean(false);
+    /**
+     * 工作线程上是否已有待执行的扫描任务
+     */
+    final AtomicBoolean sweeping = new AtomicBoolean(false);
+    /**
+     * 上次处理的时间轮刻度，只由清理线程修改
+     */
+    volatile long lastTick;
+    /**
+     * 上次扫描时间，只由清理线程访问
+     */
+    long lastSweepTime;
+
+    @SuppressWarnings("unchecked")
+    DynamicFileJanitor() {
+        this.wheel = new Queue[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<TransactionTimeout>();
+        }
+        this.lastTick = System.currentTimeMillis() / TICK_MILLIS;
+        this.lastSweepTime = System.currentTimeMillis();
+    }
+
+    void ensureStarted() {
+        if (started.get()) {
+            return;
+        }
+        synchronized (this) {
+            if (started.get()) {
+                return;
+            }
+            executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "dynamic-file-janitor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            worker = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "dynamic-file-janitor-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.scheduleWithFixedDelay(this, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+            //启动标志在执行器创建之后设置，其他线程看到已启动时执行器一定可用
+            started.set(true);
+        }
+    }
+
+    /**
+     * 注册动态文件
+     *
+     * @param file 动态文件
+     */
+    void register(DynamicFileImpl file) {
+        files.add(new WeakReference<DynamicFileImpl>(file));
+        ensureStarted();
+    }
+
+    /**
+     * 开始监视被订阅的动态文件，第一次订阅时启动监视任务
+     *
+     * @param file 动态文件
+     */
+    void subscribe(DynamicFileImpl file) {
+        if (!watchedFiles.contains(file)) {
+            watchedFiles.add(file);
+        }
+        ensureStarted();
+        if (!watching.get() && watching.compareAndSet(false, true)) {
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    watch();
+                }
+            }, WATCH_INTERVAL, WATCH_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 停止监视动态文件
+     *
+     * @param file 动态文件
+     */
+    void unsubscribe(DynamicFileImpl file) {
+        watchedFiles.remove(file);
+    }
+
+    /**
+     * 检查被订阅动态文件的清单，每个文件只需要获取清单的长度和修改时间，有变化时读取新增的记录并通知监听器
+     */
+    void watch() {
+        for (DynamicFileImpl file : watchedFiles) {
+            try {
+                file.index.refresh();
+                file.fireVersions();
+            } catch (Throwable e) {
+                log.error("watch dynamic file '{}' happens error!", file.index.dir, e);
+            }
+        }
+    }
+
+    /**
+     * 动态文件提交新版本后，在下一个刻度执行保留策略
+     *
+     * @param file 动态文件
+     */
+    void retainLater(DynamicFileImpl file) {
+        if (file.retentionPending.compareAndSet(false, true)) {
+            pendingRetention.add(file);
+        }
+        ensureStarted();
+    }
+
+    /**
+     * 将事务加入时间轮，超时后标记失效
+     *
+     * @param file        动态文件
+     * @param transaction 事务
+     */
+    void watch(DynamicFileImpl file, FileTransactionImpl transaction) {
+        TransactionTimeout timeout = new TransactionTimeout(file, transaction);
+        schedule(timeout, transaction.getLastActiveTime() + file.getTimeoutSec() * 1000L);
+        ensureStarted();
+    }
+
+    void schedule(TransactionTimeout timeout, long deadline) {
+        //已经处理过的格要等到下一圈才会处理，至少放入下一格
+        long tick = Math.max(deadline / TICK_MILLIS, lastTick + 1);
+        wheel[(int) (tick % WHEEL_SIZE)].add(timeout);
+    }
+
+    @Override
+    public void run() {
+        try {
+            long now = System.currentTimeMillis();
+            expireTransactions(now);
+            //同一时间工作线程上每种任务最多排队一个，磁盘慢时不会堆积
+            if (!pendingRetention.isEmpty() && retaining.compareAndSet(false, true)) {
+                worker.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            retainPending();
+                        } finally {
+                            retaining.set(false);
+                        }
+                    }
+                });
+            }
+            if (now - lastSweepTime >= SWEEP_INTERVAL && sweeping.compareAndSet(false, true)) {
+                lastSweepTime = now;
+                worker.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            sweep();
+                        } finally {
+                            sweeping.set(false);
+                        }
+                    }
+                });
+            }
+        } catch (Throwable e) {
+            log.error("dynamic file janitor happens error!", e);
+        }
+    }
+
+    /**
+     * 对提交后等待的动态文件执行保留策略，在工作线程上执行
+     */
+    void retainPending() {
+        DynamicFileImpl file;
+        while ((file = pendingRetention.poll()) != null) {
+            file.retentionPending.set(false);
+            try {
+                file.retain();
+            } catch (Throwable e) {
+                log.error("retain dynamic file '{}' happens error!", file.index.dir, e);
+            }
+        }
+    }
+
+    /**
+     * 处理自上次刻度以来到期的时间轮格
+     */
+    void expireTransactions(long now) {
+        long currentTick = now / TICK_MILLIS;
+        long fromTick = Math.max(lastTick + 1, currentTick - WHEEL_SIZE + 1);
+        for (long tick = fromTick; tick <= currentTick; tick++) {
+            Queue<TransactionTimeout> bucket = wheel[(int) (tick % WHEEL_SIZE)];
+            //先取出当前格的所有任务，避免重新调度到同一格时重复处理
+            List<TransactionTimeout> timeouts = new ArrayList<TransactionTimeout>(bucket.size());
+            TransactionTimeout timeout;
+            while ((timeout = bucket.poll()) != null) {
+                timeouts.add(timeout);
+            }
+            for (TransactionTimeout timeout0 : timeouts) {
+                timeout0.expire(now);
+            }
+        }
+        lastTick = currentTick;
+    }
+
+    /**
+     * 扫描所有动态文件，执行保留策略并清理超时的临时文件，在工作线程上执行
+     */
+    void sweep() {
+        Iterator<WeakReference<DynamicFileImpl>> iterator = files.iterator();
+        while (iterator.hasNext()) {
+            DynamicFileImpl file = iterator.next().get();
+            if (file == null) {
+                iterator.remove();
+                continue;
+            }
+            try {
+                file.revalidate();
+                file.retain();
+                sweepTempFiles(file);
+            } catch (Exception e) {
+                log.error("sweep dynamic file '{}' happens error!", file.index.dir, e);
+            }
+        }
+    }
+
+    /**
+     * 删除超时的临时文件
+     */
+    void sweepTempFiles(DynamicFileImpl file) {
+        File dir = file.index.dir;
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (String name : names) {
+            if (!name.startsWith(file.index.tempPrefix)) {
+                continue;
+            }
+            File tempFile = new File(dir, name);
+            long time = now - tempFile.lastModified();
+            if (time > file.getTimeoutSec() * 1000L) {
+                log.debug("temp file '{}' is timeout '{}' ms", tempFile, time);
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * 时间轮中的事务超时任务
+     */
+    final class TransactionTimeout {
+        final DynamicFileImpl file;
+        final FileTransactionImpl transaction;
+
+        TransactionTimeout(DynamicFileImpl file, FileTransactionImpl transaction) {
+            this.file = file;
+            this.transaction = transaction;
+        }
+
+        void expire(long now) {
+            try {
+                if (transaction.isFinished() || !file.hasTransaction(transaction)) {
+                    return;
+                }
+                long deadline = transaction.getLastActiveTime() + file.getTimeoutSec() * 1000L;
+                if (deadline > now) {
+                    //事务在期间有活动，按新的到期时间重新调度
+                    schedule(this, deadline);
+                    return;
+                }
+                log.debug("transaction '{}' is timeout", transaction.getTransactionId());
+                //事务所有者可能正在写入，这里只标记失效，由所有者的下一次写入或提交回滚，
+                //所有者不再访问时临时文件由扫描任务在超时后删除
+                transaction.expire();
+                file.destroy(transaction.getTransactionId());
+            } catch (Exception e) {
+                log.error("expire transaction '{}' happens error!", transaction.getTransactionId(), e);
+            }
+        }
+    }
+}
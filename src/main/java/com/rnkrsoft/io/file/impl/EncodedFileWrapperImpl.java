@@ -0,0 +1,84 @@
+package com.rnkrsoft.io.file.impl;
+
+import com.rnkrsoft.io.buffer.ByteBuffer;
+import com.rnkrsoft.io.buffer.Unpooled;
+import com.rnkrsoft.io.file.ChunkedFileReader;
+import com.rnkrsoft.io.file.FileWrapper;
+import com.rnkrsoft.io.file.RandomAccessReader;
+import lombok.Getter;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 以差异文件或压缩文件存储的版本，读取时还原完整数据
+ */
+class EncodedFileWrapperImpl implements FileWrapper {
+    final DynamicFileImpl dynamicFile;
+
+    @Getter
+    File file;
+
+    @Getter
+    long version;
+
+    EncodedFileWrapperImpl(DynamicFileImpl dynamicFile, File file, long version) {
+        this.dynamicFile = dynamicFile;
+        this.file = file;
+        this.version = version;
+    }
+
+    @Override
+    public ByteBuffer read() throws IOException {
+        return Unpooled.wrappedBuffer(dynamicFile.content(version));
+    }
+
+    /**
+     * 差异文件和压缩文件没有可以映射的原始数据，还原到堆内存
+     */
+    @Override
+    public ByteBuffer map() throws IOException {
+        return read();
+    }
+
+    @Override
+    public InputStream stream() throws IOException {
+        return dynamicFile.openStream(version);
+    }
+
+    /**
+     * 将还原的数据写入临时文件后分块读取，关闭读取器时删除临时文件
+     */
+    @Override
+    public ChunkedFileReader chunks() throws IOException {
+        final File tempFile = new File(dynamicFile.index.dir, dynamicFile.getFileName() + ".temp." + UUID.randomUUID().toString());
+        FileUtils.writeByteArrayToFile(tempFile, dynamicFile.content(version));
+        return new ChunkedFileReader(tempFile) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    tempFile.delete();
+                }
+            }
+        };
+    }
+
+    /**
+     * 压缩文件跳过目标位置之前的整块后解码，差异文件还原后读取
+     */
+    @Override
+    public RandomAccessReader randomAccess() throws IOException {
+        return new DecodedReader(dynamicFile, version, !file.getName().endsWith(VersionDelta.SUFFIX));
+    }
+
+    @Override
+    public void delete() throws IOException {
+        file.delete();
+    }
+}
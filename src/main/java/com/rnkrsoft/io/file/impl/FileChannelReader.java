@@ -0,0 +1,71 @@
+package com.rnkrsoft.io.file.impl;
+
+import com.rnkrsoft.io.buffer.ByteBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 基于文件通道定位读取的随机访问读取器，不修改通道位置，可以被多个线程同时使用
+ */
+final class FileChannelReader extends AbstractRandomAccessReader {
+    final File file;
+    final RandomAccessFile raf;
+    final FileChannel channel;
+
+    FileChannelReader(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public int read(long position, ByteBuffer dst, int length) throws IOException {
+        checkRange(position, length);
+        long size = channel.size();
+        if (length == 0) {
+            return 0;
+        }
+        if (position >= size) {
+            return -1;
+        }
+        length = (int) Math.min(length, size - position);
+        dst.ensureWritable(length);
+        boolean shared = dst.nioBufferCount() == 1;
+        //只有一个底层缓冲区时直接读入，否则读入临时缓冲区后复制
+        java.nio.ByteBuffer nio = shared ? dst.nioBuffer(dst.writerIndex(), length) : java.nio.ByteBuffer.allocate(length);
+        int read = 0;
+        while (nio.hasRemaining()) {
+            int n = channel.read(nio, position + read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        if (shared) {
+            dst.writerIndex(dst.writerIndex() + read);
+        } else {
+            nio.flip();
+            dst.writeBytes(nio);
+        }
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    @Override
+    public String toString() {
+        return "FileChannelReader(file=" + file + ")";
+    }
+}
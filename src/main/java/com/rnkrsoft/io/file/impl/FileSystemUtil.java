@@ -0,0 +1,154 @@
+package com.rnkrsoft.io.file.impl;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 文件系统操作工具类，提供原子重命名、硬链接与刷盘操作
+ */
+@Slf4j
+final class FileSystemUtil {
+    /**
+     * Java7+ 的 File.toPath()，用于以只读方式打开目录进行刷盘
+     */
+    private static final Method TO_PATH;
+    /**
+     * Java7+ 的 FileChannel.open(Path, OpenOption...)
+     */
+    private static final Method OPEN_CHANNEL;
+    /**
+     * 只读打开选项数组
+     */
+    private static final Object READ_OPTIONS;
+    /**
+     * Java7+ 的 Files.createLink(Path, Path)，用于创建硬链接
+     */
+    private static final Method CREATE_LINK;
+
+    static {
+        Method toPath = null;
+        Method openChannel = null;
+        Object readOptions = null;
+        try {
+            Class<?> pathClass = Class.forName("java.nio.file.Path");
+            Class<?> openOptionClass = Class.forName("java.nio.file.OpenOption");
+            Class<?> standardOpenOptionClass = Class.forName("java.nio.file.StandardOpenOption");
+            toPath = File.class.getMethod("toPath");
+            openChannel = FileChannel.class.getMethod("open", pathClass, Array.newInstance(openOptionClass, 0).getClass());
+            readOptions = Array.newInstance(openOptionClass, 1);
+            Array.set(readOptions, 0, standardOpenOptionClass.getField("READ").get(null));
+        } catch (Throwable e) {
+            log.debug("directory sync is unavailable", e);
+            toPath = null;
+            openChannel = null;
+            readOptions = null;
+        }
+        TO_PATH = toPath;
+        OPEN_CHANNEL = openChannel;
+        READ_OPTIONS = readOptions;
+        Method createLink = null;
+        if (toPath != null) {
+            try {
+                Class<?> pathClass = Class.forName("java.nio.file.Path");
+                createLink = Class.forName("java.nio.file.Files").getMethod("createLink", pathClass, pathClass);
+            } catch (Throwable e) {
+                log.debug("hard link is unavailable", e);
+            }
+        }
+        CREATE_LINK = createLink;
+    }
+
+    private FileSystemUtil() {
+    }
+
+    /**
+     * 将源文件重命名为目标文件，两者位于同一目录时在POSIX文件系统上为原子操作，目标文件存在时被替换
+     *
+     * @param source 源文件
+     * @param target 目标文件
+     * @return 是否成功，部分平台目标文件存在时无法重命名
+     */
+    static boolean rename(File source, File target) {
+        if (source.renameTo(target)) {
+            return true;
+        }
+        log.warn("rename {} to {} fail!", source, target);
+        return false;
+    }
+
+    /**
+     * 为已存在的文件创建硬链接，仅在运行于Java7+并且文件系统支持硬链接时生效
+     *
+     * @param link     链接文件
+     * @param existing 已存在的文件
+     * @return 是否成功
+     */
+    static boolean link(File link, File existing) {
+        if (CREATE_LINK == null) {
+            return false;
+        }
+        try {
+            CREATE_LINK.invoke(null, TO_PATH.invoke(link), TO_PATH.invoke(existing));
+            return true;
+        } catch (InvocationTargetException e) {
+            log.debug("link {} to {} fail!", link, existing, e.getCause());
+        } catch (Exception e) {
+            log.debug("link {} to {} fail!", link, existing, e);
+        }
+        return false;
+    }
+
+    /**
+     * 将文件内容与元数据刷入磁盘
+     *
+     * @param file 文件
+     * @throws IOException IO异常
+     */
+    static void sync(File file) throws IOException {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.getChannel().force(true);
+        } finally {
+            if (raf != null) {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * 将目录项刷入磁盘，保证重命名后的版本文件在掉电后仍然存在。
+     * 仅在运行于Java7+并且操作系统支持打开目录（Windows不支持）时生效，否则忽略
+     *
+     * @param dir 目录
+     * @throws IOException 目录已打开但刷盘失败
+     */
+    static void syncDirectory(File dir) throws IOException {
+        if (OPEN_CHANNEL == null) {
+            return;
+        }
+        FileChannel channel;
+        try {
+            channel = (FileChannel) OPEN_CHANNEL.invoke(null, TO_PATH.invoke(dir), READ_OPTIONS);
+        } catch (InvocationTargetException e) {
+            log.debug("sync directory '{}' is unsupported", dir, e.getCause());
+            return;
+        } catch (IllegalAccessException e) {
+            log.debug("sync directory '{}' is unsupported", dir, e);
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+}
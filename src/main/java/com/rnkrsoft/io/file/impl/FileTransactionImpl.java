@@ -207,11 +207,16 @@ package com.rnkrsoft.io.file.impl;
 import com.rnkrsoft.io.buffer.util.DiskSizeUnit;
 import com.rnkrsoft.io.buffer.ByteBuffer;
 import com.rnkrsoft.io.buffer.Unpooled;
-import com.rnkrsoft.io.file.DynamicFile;
+import com.rnkrsoft.io.file.ChunkedFileReader;
+import com.rnkrsoft.io.file.CommitMode;
+import com.rnkrsoft.io.file.DirectoryLayout;
 import com.rnkrsoft.io.file.FileTransaction;
+import com.rnkrsoft.io.file.TransactionAlreadyFinishedException;
+import com.rnkrsoft.io.file.TransactionExpiredException;
+import com.rnkrsoft.io.file.TransactionOutputStream;
+import com.rnkrsoft.io.file.codec.CompressedOutputStream;
+import com.rnkrsoft.io.file.codec.CompressionCodec;
 import com.rnkrsoft.message.MessageFormatter;
-import com.rnkrsoft.time.DateStyle;
-import com.rnkrsoft.time.FastDateFormat;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
@@ -219,7 +224,13 @@ import org.apache.commons.io.IOUtils;
 
 import java.io.*;
 import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Collections;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
 
 /**
  * Created by rnkrsoft.com on 2018/2/15.
@@ -229,16 +240,40 @@ import java.util.UUID;
 class FileTransactionImpl implements FileTransaction {
     final File tempFile;
     File realFile;
+    /**
+     * 提交后对应的版本号，提交前为-1
+     */
+    long version = -1;
     @Getter
-    final DynamicFile dynamicFile;
+    final DynamicFileImpl dynamicFile;
     @Getter
     final String transactionId;
     @Getter
     long lastActiveTime;
     boolean commit = false;
     boolean rollback = false;
+    /**
+     * 事务超时后由后台清理服务标记，事务所有者的下一次写入或提交失败并回滚
+     */
+    volatile boolean expired = false;
+    /**
+     * 事务的写入流，提交或回滚时关闭
+     */
+    TransactionOutputStreamImpl outputStream;
+    /**
+     * 写入流顺序写入数据的校验和，用于提交时去重和记录到清单
+     */
+    final CRC32 crc = new CRC32();
+    /**
+     * 校验和覆盖的字节数，随机写入后为-1，提交时重新计算
+     */
+    long crcLength = 0;
+    /**
+     * 异步操作的串行执行器，首次异步操作时创建
+     */
+    SerialExecutor asyncExecutor;
 
-    public FileTransactionImpl(String transactionId, DynamicFile dynamicFile) throws IOException {
+    public FileTransactionImpl(String transactionId, DynamicFileImpl dynamicFile) throws IOException {
         this.transactionId = transactionId;
         this.dynamicFile = dynamicFile;
         File dir = new File(dynamicFile.getDirectory() + "/" + dynamicFile.getFileName());
@@ -251,19 +286,23 @@ class FileTransactionImpl implements FileTransaction {
     }
 
     @Override
-    public void write(byte[] data) throws IOException {
-        FileOutputStream fos = null;
-        try {
-            fos = new FileOutputStream(tempFile);
-            fos.write(data);
-            this.lastActiveTime = System.currentTimeMillis();
-        } finally {
-            if (fos != null) {
-                fos.flush();
-                fos.close();
-                fos = null;
-            }
+    public TransactionOutputStream outputStream() throws IOException {
+        checkExpired();
+        if (isFinished()) {
+            throw new TransactionAlreadyFinishedException("transaction id '" + transactionId + "' has already finished");
+        }
+        if (outputStream == null || !outputStream.isOpen()) {
+            outputStream = new TransactionOutputStreamImpl(this, tempFile);
         }
+        touch();
+        return outputStream;
+    }
+
+    @Override
+    public void write(byte[] data) throws IOException {
+        TransactionOutputStreamImpl os = (TransactionOutputStreamImpl) outputStream();
+        os.truncate();
+        os.write(data);
     }
 
     @Override
@@ -273,19 +312,67 @@ class FileTransactionImpl implements FileTransaction {
 
     @Override
     public void write(ByteBuffer byteBuf) throws IOException {
-        FileOutputStream os = null;
+        TransactionOutputStreamImpl os = (TransactionOutputStreamImpl) outputStream();
+        os.truncate();
+        byteBuf.getBytes(byteBuf.readerIndex(), (GatheringByteChannel) os, byteBuf.readableBytesLength());
+    }
+
+    /**
+     * 标记事务超时失效，由后台清理服务调用，不触碰正在写入的临时文件
+     */
+    void expire() {
+        this.expired = true;
+    }
+
+    /**
+     * 事务已被标记超时失效时，在事务所有者的线程上回滚并抛出异常
+     *
+     * @throws IOException IO异常
+     */
+    void checkExpired() throws IOException {
+        if (expired && !isFinished()) {
+            rollback();
+            throw new TransactionExpiredException("transaction id '" + transactionId + "' is timeout");
+        }
+    }
+
+    /**
+     * 更新事务的活动时间
+     */
+    void touch() {
+        this.lastActiveTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 关闭事务的写入流
+     *
+     * @param sync 关闭前是否刷盘
+     * @return 是否已经通过写入流刷盘
+     * @throws IOException IO异常
+     */
+    boolean closeOutputStream(boolean sync) throws IOException {
+        if (outputStream == null) {
+            return false;
+        }
+        boolean synced = false;
         try {
-            os = new FileOutputStream(tempFile);
-            FileChannel fileChannel = os.getChannel();
-            byteBuf.getBytes(0, fileChannel, byteBuf.readableBytesLength());
-            this.lastActiveTime = System.currentTimeMillis();
+            if (sync && outputStream.isOpen()) {
+                outputStream.force(true);
+                synced = true;
+            }
         } finally {
-            IOUtils.closeQuietly(os);
+            outputStream.close();
+            outputStream = null;
         }
+        return synced;
     }
 
     @Override
     public ByteBuffer read() throws IOException {
+        if (commit) {
+            //版本文件可能被压缩或去重，通过动态文件读取解压后的数据
+            return dynamicFile.read(version);
+        }
         FileInputStream is = null;
         try {
             is = new FileInputStream(getFile());
@@ -300,9 +387,11 @@ class FileTransactionImpl implements FileTransaction {
 
     @Override
     public InputStream stream() throws IOException {
+        if (commit) {
+            return dynamicFile.stream(version);
+        }
         File file = getFile();
-        FileInputStream fis = new FileInputStream(file);
-        return fis;
+        return new ChunkedFileReader(file).asInputStream();
     }
 
     @Override
@@ -312,34 +401,224 @@ class FileTransactionImpl implements FileTransaction {
 
     @Override
     public boolean commit() throws IOException {
+        checkExpired();
         File dir = new File(dynamicFile.getDirectory() + "/" + dynamicFile.getFileName());
         try {
             if (!tempFile.exists()) {
                 log.error("temp file '{}' not exist", tempFile);
                 return false;
             }
-            String file0 = dynamicFile.getFileName() + "." + new FastDateFormat().format(System.currentTimeMillis(), DateStyle.FILE_FORMAT3);
-            realFile = new File(dir, file0);
-            log.debug("commit {} file to {}", tempFile, realFile);
-            FileUtils.copyFile(tempFile, realFile);
-            FileUtils.deleteQuietly(tempFile);
-            if (tempFile.exists()) {
-                throw new IOException(MessageFormatter.format("delete temp file {} fail!", tempFile));
+            if (dynamicFile.getGroupCommitMillis() > 0) {
+                //与同一时间窗口内的其他提交合并刷盘
+                return dynamicFile.groupCommitter.commit(this);
             }
-            log.debug("commit {} file to {} ok", tempFile, realFile);
-            this.lastActiveTime = System.currentTimeMillis();
-            this.commit = true;
-            this.dynamicFile.destroy(transactionId);
+            //同一路径的版本发布互斥，进程内通过分段锁，进程间通过锁文件
+            dynamicFile.publishLock.lock();
+            try {
+                dynamicFile.manifest.lock(dynamicFile.getTimeoutSec() * 1000L);
+                try {
+                    //读取其他进程追加的记录，旧版本创建的目录在此生成清单
+                    dynamicFile.index.reload();
+                    VersionRecord record = publishVersion(dir, true);
+                    if (record != null) {
+                        this.dynamicFile.committed(Collections.singletonList(record));
+                    }
+                } finally {
+                    dynamicFile.manifest.unlock();
+                }
+            } finally {
+                dynamicFile.publishLock.unlock();
+            }
+            committed();
             return true;
         } catch (FileNotFoundException e) {
             log.error("save file happens error!", e);
             throw e;
+        } catch (InterruptedIOException e) {
+            //组提交等待时被中断，事务没有提交
+            throw e;
         } catch (Exception e) {
             log.error("save file happens error!", e);
             return false;
         }
     }
 
+    /**
+     * 标记事务已提交
+     *
+     * @throws IOException IO异常
+     */
+    void committed() throws IOException {
+        this.lastActiveTime = System.currentTimeMillis();
+        this.commit = true;
+        this.dynamicFile.destroy(transactionId);
+    }
+
+    /**
+     * 发布后提交失败，将事务标记为回滚，临时文件已被重命名为版本文件时由调用方删除版本文件
+     *
+     * @throws IOException IO异常
+     */
+    void aborted() throws IOException {
+        if (tempFile.exists()) {
+            rollback();
+        } else if (!isFinished()) {
+            closeOutputStream(false);
+            this.lastActiveTime = System.currentTimeMillis();
+            this.rollback = true;
+            this.dynamicFile.destroy(transactionId);
+        }
+    }
+
+    /**
+     * 分配版本号并将临时文件发布为版本文件，调用方需要持有分段锁和进程间提交锁，并在之后追加返回的提交记录
+     *
+     * @param dir     版本文件所在目录
+     * @param syncDir 是否刷盘目录和版本序号，组提交时由调用方对整批提交统一刷盘
+     * @return 提交记录，开启去重且内容与最新版本相同时返回null
+     * @throws IOException IO异常
+     */
+    VersionRecord publishVersion(File dir, boolean syncDir) throws IOException {
+        boolean sync = dynamicFile.isSyncOnCommit();
+        long length = tempFile.length();
+        int checksum = checksum(length);
+        VersionRecord existing = null;
+        if (dynamicFile.isDeduplicate()) {
+            existing = dynamicFile.findDuplicate(tempFile, length, checksum);
+            if (existing != null && existing.version == dynamicFile.index.max()) {
+                //与最新版本相同，不产生新版本
+                version = existing.version;
+                realFile = dynamicFile.openVersion(version);
+                log.debug("commit {} file is identical to {}, skip", tempFile, realFile);
+                closeOutputStream(false);
+                FileUtils.forceDelete(tempFile);
+                return null;
+            }
+        }
+        version = dynamicFile.nextVersion();
+        //先记录版本号再发布，进程崩溃时不会重复分配
+        dynamicFile.manifest.writeSequence(version, sync && syncDir);
+        DirectoryLayout layout = dynamicFile.getLayout();
+        realFile = dynamicFile.openVersion(version, layout);
+        File shardDir = realFile.getParentFile();
+        if (!shardDir.equals(dir) && !shardDir.isDirectory() && !shardDir.mkdirs() && !shardDir.isDirectory()) {
+            throw new IOException("create shard directory '" + shardDir + "' fail!");
+        }
+        log.debug("commit {} file to {}", tempFile, realFile);
+        CompressionCodec codec = dynamicFile.getCompressionCodec();
+        boolean compressed = codec != null;
+        if (existing != null && FileSystemUtil.link(realFile, dynamicFile.openVersion(existing.version))) {
+            //与保留的旧版本相同，通过硬链接共享数据
+            log.debug("link {} file to version {}", realFile, existing.version);
+            compressed = existing.isCompressed();
+            closeOutputStream(false);
+            FileUtils.forceDelete(tempFile);
+        } else if (compressed) {
+            publishCompressed(dir, codec);
+        } else {
+            publish(dir);
+        }
+        try {
+            if (sync && !shardDir.equals(dir)) {
+                //分片目录各不相同，不参与组提交的统一刷盘
+                FileSystemUtil.syncDirectory(shardDir);
+            }
+            if (sync && syncDir) {
+                FileSystemUtil.syncDirectory(dir);
+            }
+        } catch (IOException e) {
+            //目录项没有持久化，删除版本文件并回滚事务
+            realFile.delete();
+            aborted();
+            throw e;
+        }
+        if (tempFile.exists()) {
+            throw new IOException(MessageFormatter.format("delete temp file {} fail!", tempFile));
+        }
+        log.debug("commit {} file to {} ok", tempFile, realFile);
+        return VersionRecord.commit(version, length, checksum, compressed, layout);
+    }
+
+    /**
+     * 获取临时文件数据的校验和，写入流顺序写入了全部数据时直接使用写入时计算的值，否则读取临时文件计算
+     *
+     * @param length 临时文件长度
+     * @return CRC32校验和
+     * @throws IOException IO异常
+     */
+    int checksum(long length) throws IOException {
+        if (crcLength == length) {
+            return (int) crc.getValue();
+        }
+        return (int) FileUtils.checksumCRC32(tempFile);
+    }
+
+    /**
+     * 将临时文件发布为版本文件，优先使用同目录原子重命名，失败时退化为复制，目录由调用方刷盘
+     *
+     * @param dir 版本文件所在目录
+     * @throws IOException IO异常
+     */
+    void publish(File dir) throws IOException {
+        boolean sync = dynamicFile.isSyncOnCommit();
+        boolean renameMode = dynamicFile.getCommitMode() == CommitMode.RENAME;
+        //发布前关闭写入流，重命名模式下直接通过写入流刷盘
+        boolean synced = closeOutputStream(sync && renameMode);
+        boolean renamed = false;
+        if (renameMode) {
+            if (sync && !synced) {
+                FileSystemUtil.sync(tempFile);
+            }
+            renamed = FileSystemUtil.rename(tempFile, realFile);
+        }
+        if (!renamed) {
+            FileUtils.copyFile(tempFile, realFile);
+            if (sync) {
+                FileSystemUtil.sync(realFile);
+            }
+            FileUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    /**
+     * 将临时文件分块压缩后发布为版本文件。
+     * 压缩结果先写入同目录的另一个临时文件再重命名，读取方依然看不到写了一半的版本文件，代价是数据多读写一次；
+     * 这次复制通常在页缓存中完成，提交耗时主要取决于编码本身，明显高于只需重命名的未压缩提交。
+     * 写入时不边写边压缩，写入流需要支持随机写入和清空重写
+     *
+     * @param dir   版本文件所在目录
+     * @param codec 编解码器
+     * @throws IOException IO异常
+     */
+    void publishCompressed(File dir, CompressionCodec codec) throws IOException {
+        boolean sync = dynamicFile.isSyncOnCommit();
+        closeOutputStream(false);
+        File packedFile = new File(dir, dynamicFile.getFileName() + ".temp." + UUID.randomUUID().toString());
+        InputStream is = null;
+        OutputStream os = null;
+        try {
+            is = new FileInputStream(tempFile);
+            os = new CompressedOutputStream(new FileOutputStream(packedFile), codec);
+            IOUtils.copy(is, os);
+            os.close();
+            os = null;
+            if (sync) {
+                FileSystemUtil.sync(packedFile);
+            }
+            if (!FileSystemUtil.rename(packedFile, realFile)) {
+                FileUtils.copyFile(packedFile, realFile);
+                if (sync) {
+                    FileSystemUtil.sync(realFile);
+                }
+            }
+        } finally {
+            IOUtils.closeQuietly(is);
+            IOUtils.closeQuietly(os);
+            FileUtils.deleteQuietly(packedFile);
+        }
+        FileUtils.forceDelete(tempFile);
+    }
+
     @Override
     public boolean rollback() throws IOException {
         try {
@@ -348,6 +627,7 @@ class FileTransactionImpl implements FileTransaction {
                 return false;
             }
             log.debug("rollback {} file", tempFile);
+            closeOutputStream(false);
             FileUtils.forceDelete(tempFile);
             if (tempFile.exists()) {
                 throw new IOException(MessageFormatter.format("delete temp file {} fail!", tempFile));
@@ -366,6 +646,62 @@ class FileTransactionImpl implements FileTransaction {
     }
 
 
+    @Override
+    public Future<Void> writeAsync(final byte[] data) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                write(data);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Future<Void> writeAsync(final ByteBuffer buffer) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                write(buffer);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Future<Boolean> commitAsync() {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return commit();
+            }
+        });
+    }
+
+    @Override
+    public Future<Boolean> rollbackAsync() {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return rollback();
+            }
+        });
+    }
+
+    /**
+     * 将异步操作提交到事务的串行执行器
+     */
+    <T> Future<T> submit(Callable<T> task) {
+        FutureTask<T> future = new FutureTask<T>(task);
+        synchronized (this) {
+            if (asyncExecutor == null) {
+                asyncExecutor = new SerialExecutor(dynamicFile.getIoExecutor());
+            }
+        }
+        asyncExecutor.execute(future);
+        return future;
+    }
+
     @Override
     public File getFile() throws IOException {
         if (isFinished()) {
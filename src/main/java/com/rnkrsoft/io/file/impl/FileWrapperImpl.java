@@ -203,16 +203,19 @@
  */
 package com.rnkrsoft.io.file.impl;
 
-import com.rnkrsoft.io.buffer.util.DiskSizeUnit;
 import com.rnkrsoft.io.buffer.ByteBuffer;
 import com.rnkrsoft.io.buffer.Unpooled;
+import com.rnkrsoft.io.file.ChunkedFileReader;
 import com.rnkrsoft.io.file.FileWrapper;
+import com.rnkrsoft.io.file.RandomAccessReader;
 import lombok.Getter;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 
 /**
  * Created by rnkrsoft.com on 2018/2/16.
@@ -233,11 +236,17 @@ class FileWrapperImpl implements FileWrapper {
 
     @Override
     public ByteBuffer read() throws IOException {
-        InputStream is = null;
+        FileInputStream is = null;
         try {
             is = new FileInputStream(file);
-            ByteBuffer byteBuf = Unpooled.buffer(DiskSizeUnit.nKB(1), DiskSizeUnit.nMB(4));
-            byteBuf.writeBytes(is, is.available());
+            FileChannel channel = is.getChannel();
+            int size = checkSize(channel.size());
+            ByteBuffer byteBuf = Unpooled.buffer(size, size);
+            while (byteBuf.isWritable()) {
+                if (byteBuf.writeBytes(channel, byteBuf.writableBytesLength()) < 0) {
+                    break;
+                }
+            }
             return byteBuf;
         } finally {
             if (is != null) {
@@ -247,10 +256,46 @@ class FileWrapperImpl implements FileWrapper {
         }
     }
 
+    @Override
+    public ByteBuffer map() throws IOException {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            int size = checkSize(channel.size());
+            //映射在通道关闭后仍然有效，直到缓冲区释放
+            return Unpooled.wrappedMappedBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } finally {
+            if (raf != null) {
+                raf.close();
+                raf = null;
+            }
+        }
+    }
+
+    /**
+     * 检查文件大小是否能够放入单个缓冲区
+     */
+    int checkSize(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("file '" + file + "' size " + size + " is too large to read into a buffer");
+        }
+        return (int) size;
+    }
+
     @Override
     public InputStream stream() throws IOException {
-//        return read().asInputStream();
-        return null;
+        return chunks().asInputStream();
+    }
+
+    @Override
+    public ChunkedFileReader chunks() throws IOException {
+        return new ChunkedFileReader(file);
+    }
+
+    @Override
+    public RandomAccessReader randomAccess() throws IOException {
+        return new FileChannelReader(file);
     }
 
     @Override
@@ -0,0 +1,223 @@
+package com.rnkrsoft.io.file.impl;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 组提交协调器，同一动态文件在等待窗口内到达的提交合并为一批。
+ * 第一个到达的提交线程成为领导者，等待窗口结束后在一次加锁中发布整批版本文件，
+ * 整批只进行一次目录刷盘和一次清单追加刷盘，然后唤醒等待的提交线程。
+ * 目录刷盘或清单追加失败时撤销整批已发布的版本文件并回滚这些事务。
+ */
+@Slf4j
+final class GroupCommitter {
+    final DynamicFileImpl dynamicFile;
+    final Queue<CommitRequest> queue = new ConcurrentLinkedQueue<CommitRequest>();
+    final AtomicBoolean leading = new AtomicBoolean(false);
+
+    GroupCommitter(DynamicFileImpl dynamicFile) {
+        this.dynamicFile = dynamicFile;
+    }
+
+    /**
+     * 提交事务，阻塞直到所在的批次完成
+     *
+     * @param transaction 事务
+     * @return 是否提交成功
+     * @throws InterruptedIOException 请求被领导者取走之前线程被中断，事务没有提交
+     * @throws IOException            IO异常
+     */
+    boolean commit(FileTransactionImpl transaction) throws IOException {
+        CommitRequest request = new CommitRequest(transaction);
+        queue.add(request);
+        long window = dynamicFile.getGroupCommitMillis();
+        //等待时清除中断标志，避免循环中的等待立即返回形成空转，退出前恢复
+        boolean interrupted = false;
+        try {
+            while (!request.isDone()) {
+                if (leading.compareAndSet(false, true)) {
+                    try {
+                        if (!request.isDone()) {
+                            //领导者被中断时提前结束等待窗口，依然要完成已入队的整批提交
+                            interrupted |= !sleep(window);
+                            List<CommitRequest> batch = new ArrayList<CommitRequest>();
+                            CommitRequest next;
+                            while ((next = queue.poll()) != null) {
+                                batch.add(next);
+                            }
+                            commitBatch(batch);
+                        }
+                    } finally {
+                        leading.set(false);
+                    }
+                } else if (!request.await(window)) {
+                    interrupted = true;
+                    if (queue.remove(request)) {
+                        throw new InterruptedIOException("commit of transaction '" + transaction.getTransactionId() + "' is interrupted");
+                    }
+                    //请求已在领导者提交的批次中，等待提交结果
+                }
+                //领导者完成后如果本请求不在其批次中，重新竞争领导者
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (request.error instanceof FileNotFoundException) {
+            throw (FileNotFoundException) request.error;
+        }
+        return request.error == null;
+    }
+
+    /**
+     * 在一次加锁中发布整批版本文件
+     */
+    void commitBatch(List<CommitRequest> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        File dir = dynamicFile.index.dir;
+        List<VersionRecord> records = new ArrayList<VersionRecord>(batch.size());
+        try {
+            dynamicFile.publishLock.lock();
+            try {
+                dynamicFile.manifest.lock(dynamicFile.getTimeoutSec() * 1000L);
+                try {
+                    dynamicFile.index.reload();
+                    for (CommitRequest request : batch) {
+                        try {
+                            if (!request.transaction.tempFile.exists()) {
+                                throw new IOException("temp file '" + request.transaction.tempFile + "' not exist");
+                            }
+                            VersionRecord record = request.transaction.publishVersion(dir, false);
+                            if (record != null) {
+                                request.record = record;
+                                records.add(record);
+                            }
+                        } catch (IOException e) {
+                            log.error("save file happens error!", e);
+                            request.error = e;
+                        }
+                    }
+                    try {
+                        if (dynamicFile.isSyncOnCommit()) {
+                            FileSystemUtil.syncDirectory(dir);
+                        }
+                        dynamicFile.committed(records);
+                    } catch (IOException e) {
+                        abort(batch);
+                        throw e;
+                    }
+                } finally {
+                    dynamicFile.manifest.unlock();
+                }
+            } finally {
+                dynamicFile.publishLock.unlock();
+            }
+        } catch (IOException e) {
+            log.error("group commit {} transactions happens error!", batch.size(), e);
+            for (CommitRequest request : batch) {
+                if (request.error == null) {
+                    request.error = e;
+                }
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("group commit {} transactions, {} versions", batch.size(), records.size());
+        }
+        for (CommitRequest request : batch) {
+            try {
+                if (request.error == null) {
+                    request.transaction.committed();
+                }
+            } catch (IOException e) {
+                request.error = e;
+            } finally {
+                request.done();
+            }
+        }
+    }
+
+    /**
+     * 目录刷盘或清单追加失败，删除整批已发布的版本文件，这些事务的临时文件已被重命名，只能回滚。调用方需要持有分段锁和进程间提交锁
+     */
+    void abort(List<CommitRequest> batch) {
+        for (CommitRequest request : batch) {
+            if (request.record == null) {
+                continue;
+            }
+            dynamicFile.index.versionFile(request.record.version, request.record.layout()).delete();
+            try {
+                request.transaction.aborted();
+            } catch (IOException e) {
+                log.error("rollback transaction '{}' happens error!", request.transaction.getTransactionId(), e);
+            }
+        }
+    }
+
+    /**
+     * 休眠指定毫秒数
+     *
+     * @return 被中断返回假，中断标志已清除
+     */
+    static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 等待组提交的请求
+     */
+    static final class CommitRequest {
+        final FileTransactionImpl transaction;
+        final CountDownLatch latch = new CountDownLatch(1);
+        volatile IOException error;
+        /**
+         * 已发布版本的提交记录，只由领导者访问
+         */
+        VersionRecord record;
+
+        CommitRequest(FileTransactionImpl transaction) {
+            this.transaction = transaction;
+        }
+
+        boolean isDone() {
+            return latch.getCount() == 0;
+        }
+
+        void done() {
+            latch.countDown();
+        }
+
+        /**
+         * 等待批次完成
+         *
+         * @return 被中断返回假，中断标志已清除
+         */
+        boolean await(long millis) {
+            try {
+                latch.await(millis, TimeUnit.MILLISECONDS);
+                return true;
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+    }
+}
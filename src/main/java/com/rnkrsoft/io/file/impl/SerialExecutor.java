@@ -0,0 +1,42 @@
+package com.rnkrsoft.io.file.impl;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 串行执行器，任务按提交顺序在底层线程池上逐个执行，同一事务的异步写入和提交不会乱序
+ */
+final class SerialExecutor implements Executor {
+    final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+    final Executor executor;
+    Runnable active;
+
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void execute(final Runnable task) {
+        tasks.add(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    scheduleNext();
+                }
+            }
+        });
+        if (active == null) {
+            scheduleNext();
+        }
+    }
+
+    synchronized void scheduleNext() {
+        if ((active = tasks.poll()) != null) {
+            executor.execute(active);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.rnkrsoft.io.file.impl;
+
+import com.rnkrsoft.io.buffer.ByteBuffer;
+import com.rnkrsoft.io.file.TransactionOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 文件事务写入流实现类，基于临时文件的随机访问文件通道
+ */
+class TransactionOutputStreamImpl extends TransactionOutputStream {
+    final FileTransactionImpl transaction;
+    final RandomAccessFile file;
+    final FileChannel channel;
+    boolean closed = false;
+
+    TransactionOutputStreamImpl(FileTransactionImpl transaction, File tempFile) throws IOException {
+        this.transaction = transaction;
+        this.file = new RandomAccessFile(tempFile, "rw");
+        this.channel = file.getChannel();
+        this.channel.position(channel.size());
+    }
+
+    void ensureOpen() throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * 写入前检查写入流已打开且事务没有超时失效
+     *
+     * @throws IOException IO异常
+     */
+    void ensureWritable() throws IOException {
+        ensureOpen();
+        transaction.checkExpired();
+    }
+
+    /**
+     * 清空已写入的数据，从头开始写入
+     *
+     * @throws IOException IO异常
+     */
+    void truncate() throws IOException {
+        ensureOpen();
+        channel.truncate(0);
+        channel.position(0);
+        transaction.crc.reset();
+        transaction.crcLength = 0;
+    }
+
+    /**
+     * 顺序写入时更新事务的校验和
+     */
+    void update(byte[] b, int off, int len) {
+        if (transaction.crcLength < 0) {
+            return;
+        }
+        transaction.crc.update(b, off, len);
+        transaction.crcLength += len;
+    }
+
+    void update(java.nio.ByteBuffer src) {
+        if (transaction.crcLength < 0) {
+            return;
+        }
+        if (src.hasArray()) {
+            update(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            return;
+        }
+        java.nio.ByteBuffer duplicate = src.duplicate();
+        byte[] bytes = new byte[Math.min(duplicate.remaining(), 8192)];
+        while (duplicate.hasRemaining()) {
+            int length = Math.min(bytes.length, duplicate.remaining());
+            duplicate.get(bytes, 0, length);
+            update(bytes, 0, length);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureWritable();
+        file.write(b);
+        if (transaction.crcLength >= 0) {
+            transaction.crc.update(b);
+            transaction.crcLength++;
+        }
+        transaction.touch();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureWritable();
+        file.write(b, off, len);
+        update(b, off, len);
+        transaction.touch();
+    }
+
+    @Override
+    public int write(java.nio.ByteBuffer src) throws IOException {
+        ensureWritable();
+        update(src);
+        int length = 0;
+        while (src.hasRemaining()) {
+            length += channel.write(src);
+        }
+        transaction.touch();
+        return length;
+    }
+
+    @Override
+    public long write(java.nio.ByteBuffer[] srcs, int offset, int length) throws IOException {
+        ensureWritable();
+        long remaining = 0;
+        for (int i = offset; i < offset + length; i++) {
+            remaining += srcs[i].remaining();
+        }
+        for (int i = offset; i < offset + length; i++) {
+            update(srcs[i]);
+        }
+        long written = 0;
+        while (written < remaining) {
+            written += channel.write(srcs, offset, length);
+        }
+        transaction.touch();
+        return written;
+    }
+
+    @Override
+    public long write(java.nio.ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public int write(java.nio.ByteBuffer src, long position) throws IOException {
+        ensureWritable();
+        //随机写入后校验和失效，提交时重新计算
+        transaction.crcLength = -1;
+        int length = 0;
+        while (src.hasRemaining()) {
+            length += channel.write(src, position + length);
+        }
+        transaction.touch();
+        return length;
+    }
+
+    @Override
+    public int append(ByteBuffer buffer) throws IOException {
+        ensureWritable();
+        int length = buffer.readableBytesLength();
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.readerIndex(), length);
+        } else {
+            update(buffer.nioBuffer(buffer.readerIndex(), length));
+        }
+        int written = 0;
+        while (written < length) {
+            written += buffer.readBytes(channel, length - written);
+        }
+        transaction.touch();
+        return written;
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return channel.position();
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return channel.size();
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+        ensureOpen();
+        channel.force(metaData);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        file.close();
+    }
+}
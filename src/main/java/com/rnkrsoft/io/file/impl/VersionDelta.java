@@ -0,0 +1,211 @@
+package com.rnkrsoft.io.file.impl;
+
+import com.rnkrsoft.io.buffer.util.internal.SystemPropertyUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 版本的块级差异编码，将目标版本按块切分，与基准版本相同的块只记录基准块序号，不同的块保存原始数据。
+ * <pre>
+ * 头部：魔数(4) 基准版本号(8) 目标长度(8) 块大小(4)
+ * 操作：复制(1) 基准块序号(4) 块数(4) | 数据(2) 长度(4) 数据 | 结束(0)
+ * </pre>
+ */
+final class VersionDelta {
+    /**
+     * 差异文件魔数 "DFD1"
+     */
+    static final int MAGIC = 0x44464431;
+    /**
+     * 差异文件后缀
+     */
+    static final String SUFFIX = ".delta";
+    /**
+     * 差异编码的块大小，默认4KB
+     */
+    static final int DEFAULT_BLOCK_SIZE = Math.max(64, SystemPropertyUtil.getInt("com.rnkrsoft.io.file.delta.blockSize", 4096));
+    /**
+     * 连续差异版本的最大个数，超过时保留完整版本，读取最旧版本最多还原这么多次，默认16
+     */
+    static final int DEFAULT_MAX_CHAIN = Math.max(1, SystemPropertyUtil.getInt("com.rnkrsoft.io.file.delta.maxChain", 16));
+
+    static final byte END = 0;
+    static final byte COPY = 1;
+    static final byte LITERAL = 2;
+
+    private VersionDelta() {
+    }
+
+    /**
+     * 计算目标版本相对于基准版本的差异
+     *
+     * @param baseVersion 基准版本号
+     * @param base        基准版本数据
+     * @param target      目标版本数据
+     * @param blockSize   块大小
+     * @return 差异数据
+     */
+    static byte[] encode(long baseVersion, byte[] base, byte[] target, int blockSize) {
+        //基准版本的块哈希到块序号的映射，哈希冲突时通过比较数据排除
+        Map<Integer, Integer> blocks = new HashMap<Integer, Integer>();
+        int baseBlocks = (base.length + blockSize - 1) / blockSize;
+        for (int i = baseBlocks - 1; i >= 0; i--) {
+            int offset = i * blockSize;
+            blocks.put(hash(base, offset, Math.min(blockSize, base.length - offset)), i);
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(32, target.length / 8));
+        DataOutputStream out = new DataOutputStream(bos);
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(baseVersion);
+            out.writeLong(target.length);
+            out.writeInt(blockSize);
+            int copyFrom = -1;
+            int copyCount = 0;
+            int literalFrom = -1;
+            int targetBlocks = (target.length + blockSize - 1) / blockSize;
+            for (int i = 0; i < targetBlocks; i++) {
+                int offset = i * blockSize;
+                int length = Math.min(blockSize, target.length - offset);
+                Integer block = blocks.get(hash(target, offset, length));
+                if (block != null && matches(base, block * blockSize, target, offset, length, blockSize)) {
+                    if (literalFrom >= 0) {
+                        writeLiteral(out, target, literalFrom, offset);
+                        literalFrom = -1;
+                    }
+                    if (copyCount > 0 && copyFrom + copyCount == block) {
+                        copyCount++;
+                        continue;
+                    }
+                    writeCopy(out, copyFrom, copyCount);
+                    copyFrom = block;
+                    copyCount = 1;
+                } else {
+                    writeCopy(out, copyFrom, copyCount);
+                    copyCount = 0;
+                    if (literalFrom < 0) {
+                        literalFrom = offset;
+                    }
+                }
+            }
+            writeCopy(out, copyFrom, copyCount);
+            if (literalFrom >= 0) {
+                writeLiteral(out, target, literalFrom, target.length);
+            }
+            out.writeByte(END);
+            out.flush();
+        } catch (IOException e) {
+            //写入内存不会发生异常
+            throw new IllegalStateException(e);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * 读取差异数据的基准版本号
+     *
+     * @param delta 差异数据
+     * @return 基准版本号
+     * @throws IOException 差异数据损坏
+     */
+    static long baseVersion(byte[] delta) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        if (delta.length < 24 || in.readInt() != MAGIC) {
+            throw new IOException("illegal delta data");
+        }
+        return in.readLong();
+    }
+
+    /**
+     * 通过基准版本数据和差异数据还原目标版本
+     *
+     * @param delta 差异数据
+     * @param base  基准版本数据
+     * @return 目标版本数据
+     * @throws IOException 差异数据损坏
+     */
+    static byte[] decode(byte[] delta, byte[] base) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        if (delta.length < 24 || in.readInt() != MAGIC) {
+            throw new IOException("illegal delta data");
+        }
+        in.readLong();
+        long length = in.readLong();
+        int blockSize = in.readInt();
+        if (length > Integer.MAX_VALUE || length < 0 || blockSize <= 0) {
+            throw new IOException("illegal delta data length " + length + " block size " + blockSize);
+        }
+        byte[] target = new byte[(int) length];
+        int position = 0;
+        byte op;
+        while ((op = in.readByte()) != END) {
+            if (op == COPY) {
+                int offset = in.readInt() * blockSize;
+                int count = in.readInt();
+                int size = Math.min(count * blockSize, base.length - offset);
+                if (offset < 0 || size < 0 || position + size > target.length) {
+                    throw new IOException("illegal delta copy offset " + offset + " size " + size);
+                }
+                System.arraycopy(base, offset, target, position, size);
+                position += size;
+            } else if (op == LITERAL) {
+                int size = in.readInt();
+                if (size < 0 || position + size > target.length) {
+                    throw new IOException("illegal delta literal size " + size);
+                }
+                in.readFully(target, position, size);
+                position += size;
+            } else {
+                throw new IOException("illegal delta op " + op);
+            }
+        }
+        if (position != target.length) {
+            throw new IOException("delta data length " + position + " is not equals " + target.length);
+        }
+        return target;
+    }
+
+    static void writeCopy(DataOutputStream out, int from, int count) throws IOException {
+        if (count == 0) {
+            return;
+        }
+        out.writeByte(COPY);
+        out.writeInt(from);
+        out.writeInt(count);
+    }
+
+    static void writeLiteral(DataOutputStream out, byte[] data, int from, int to) throws IOException {
+        out.writeByte(LITERAL);
+        out.writeInt(to - from);
+        out.write(data, from, to - from);
+    }
+
+    static int hash(byte[] data, int offset, int length) {
+        int h = length;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            h = 31 * h + data[i];
+        }
+        return h;
+    }
+
+    static boolean matches(byte[] base, int baseOffset, byte[] target, int targetOffset, int length, int blockSize) {
+        int remaining = base.length - baseOffset;
+        //不完整的块只能与基准版本最后一个同样长度的块匹配
+        if (length == blockSize ? remaining < blockSize : remaining != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (base[baseOffset + i] != target[targetOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,85 @@
+package com.rnkrsoft.io.file.impl;
+
+import com.rnkrsoft.io.buffer.util.IllegalReferenceCountException;
+import com.rnkrsoft.io.file.FileWrapper;
+import com.rnkrsoft.io.file.VersionHandle;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import static com.rnkrsoft.io.buffer.util.internal.ObjectUtil.checkPositive;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 版本句柄实现，引用计数归零时解除版本固定
+ */
+final class VersionHandleImpl implements VersionHandle {
+    static final AtomicIntegerFieldUpdater<VersionHandleImpl> REF_CNT_UPDATER = AtomicIntegerFieldUpdater.newUpdater(VersionHandleImpl.class, "refCnt");
+
+    final DynamicFileImpl dynamicFile;
+    final long version;
+    volatile int refCnt = 1;
+
+    VersionHandleImpl(DynamicFileImpl dynamicFile, long version) {
+        this.dynamicFile = dynamicFile;
+        this.version = version;
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public FileWrapper getFile() throws IOException {
+        if (refCnt <= 0) {
+            throw new IllegalReferenceCountException(0);
+        }
+        return dynamicFile.getFile(version);
+    }
+
+    @Override
+    public int refCnt() {
+        return refCnt;
+    }
+
+    @Override
+    public VersionHandle retain() {
+        return retain(1);
+    }
+
+    @Override
+    public VersionHandle retain(int increment) {
+        checkPositive(increment, "increment");
+        int oldRef = REF_CNT_UPDATER.getAndAdd(this, increment);
+        if (oldRef <= 0 || oldRef + increment < oldRef) {
+            REF_CNT_UPDATER.getAndAdd(this, -increment);
+            throw new IllegalReferenceCountException(oldRef, increment);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return release(1);
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        checkPositive(decrement, "decrement");
+        int oldRef = REF_CNT_UPDATER.getAndAdd(this, -decrement);
+        if (oldRef == decrement) {
+            dynamicFile.unpin(version);
+            return true;
+        } else if (oldRef < decrement || oldRef - decrement > oldRef) {
+            REF_CNT_UPDATER.getAndAdd(this, decrement);
+            throw new IllegalReferenceCountException(oldRef, decrement);
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "VersionHandle(file=" + dynamicFile.index.dir + ", version=" + version + ", refCnt=" + refCnt + ")";
+    }
+}
@@ -0,0 +1,634 @@
+package com.rnkrsoft.io.file.impl;
+
+import com.rnkrsoft.io.buffer.util.internal.SystemPropertyUtil;
+import com.rnkrsoft.io.file.DirectoryLayout;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 动态文件的内存版本索引，按升序缓存所有已提交的版本号。
+ * 本进程内的提交、删除直接更新索引；存在版本清单时通过清单的长度和最后修改时间校验，只读取新增的记录，
+ * 不存在清单时（旧版本创建的目录）通过目录的最后修改时间进行廉价校验并列举目录，
+ * 校验间隔内读取最新版本不会访问文件系统。
+ * 分片布局的版本文件位于子目录中，由提交记录中的布局和版本号直接计算路径。
+ * 目录扫描只用于没有清单的目录，扫描时同时列举分片子目录，并记下每个版本的实际布局。
+ * 多文件事务的提交标记创建后，尚未追加到清单的提交记录从准备标记读取，使事务中所有文件的新版本同时可见。
+ */
+@Slf4j
+final class VersionIndex {
+    static final long[] EMPTY_VERSIONS = new long[0];
+    static final String[] HEX_DIGITS = {"0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "a", "b", "c", "d", "e", "f"};
+    /**
+     * 目录最后修改时间的校验间隔毫秒数，间隔内直接使用内存索引，默认1000毫秒，0表示每次都校验
+     */
+    static final long DEFAULT_REVALIDATE_INTERVAL = SystemPropertyUtil.getLong("com.rnkrsoft.io.file.revalidateInterval", 1000L);
+    /**
+     * 文件系统修改时间的最大精度，扫描时间与目录修改时间相差小于该值时，下次校验强制重新扫描
+     */
+    static final long MODIFIED_TIME_GRANULARITY = 2000L;
+    /**
+     * 清单中无效记录超过该数量且超过存活记录数时进行压缩
+     */
+    static final int COMPACT_THRESHOLD = 64;
+
+    final File dir;
+    final String fileName;
+    final String versionPrefix;
+    final String tempPrefix;
+    final long revalidateInterval;
+    final VersionManifest manifest;
+    /**
+     * 清单中存活版本的提交记录
+     */
+    final Map<Long, VersionRecord> records = new HashMap<Long, VersionRecord>();
+    /**
+     * 已叠加到索引中的多文件事务版本，它们的提交记录可能尚未追加到清单
+     */
+    long[] batchVersions = EMPTY_VERSIONS;
+    /**
+     * 目录扫描发现的分片版本的布局，不在其中的版本位于动态文件目录下，读取清单后不再使用
+     */
+    Map<Long, DirectoryLayout> scannedLayouts = Collections.emptyMap();
+    /**
+     * 升序排列的版本号
+     */
+    long[] versions = EMPTY_VERSIONS;
+    /**
+     * 上次读取清单是否从头读取
+     */
+    boolean snapshotFull;
+    /**
+     * 是否已经加载
+     */
+    boolean loaded;
+    /**
+     * 上次扫描时目录的最后修改时间
+     */
+    long dirLastModified;
+    /**
+     * 上次扫描的时间，用于判断目录修改时间是否可信
+     */
+    long scanTime;
+    /**
+     * 上次校验的时间
+     */
+    long checkTime;
+    /**
+     * 索引是否来自版本清单
+     */
+    boolean manifestLoaded;
+    /**
+     * 已读取的清单代数，压缩后代数变化需要重新读取
+     */
+    int manifestGeneration = -1;
+    /**
+     * 已读取到的清单位置
+     */
+    long manifestOffset;
+    /**
+     * 上次读取时清单的长度
+     */
+    long manifestLength;
+    /**
+     * 上次读取时清单的最后修改时间
+     */
+    long manifestLastModified;
+    /**
+     * 清单中的记录数，包括已删除版本的记录
+     */
+    int manifestRecords;
+
+    VersionIndex(File dir, String fileName) {
+        this(dir, fileName, DEFAULT_REVALIDATE_INTERVAL);
+    }
+
+    VersionIndex(File dir, String fileName, long revalidateInterval) {
+        this.dir = dir;
+        this.fileName = fileName;
+        this.versionPrefix = fileName + ".";
+        this.tempPrefix = fileName + ".temp.";
+        this.revalidateInterval = revalidateInterval;
+        this.manifest = new VersionManifest(dir, fileName);
+    }
+
+    /**
+     * 校验索引是否与清单或目录一致，不一致时读取清单新增的记录或重新扫描目录
+     *
+     * @return 是否进行了重新加载
+     */
+    synchronized boolean revalidate() {
+        long now = System.currentTimeMillis();
+        if (loaded && now - checkTime < revalidateInterval) {
+            return false;
+        }
+        checkTime = now;
+        List<VersionRecord> batch = manifest.committedBatch();
+        if (!Arrays.equals(versionsOf(batch), batchVersions)) {
+            //多文件事务提交或完成，从头读取清单后叠加准备标记中的记录
+            resetManifest();
+        }
+        File manifestFile = manifest.manifestFile;
+        long length = manifestFile.length();
+        if (length >= VersionManifest.HEADER_SIZE) {
+            long lastModified = manifestFile.lastModified();
+            if (loaded && manifestLoaded && length == manifestLength && lastModified == manifestLastModified
+                    && scanTime - lastModified > MODIFIED_TIME_GRANULARITY) {
+                return false;
+            }
+            if (load(length, lastModified, now)) {
+                if (snapshotFull) {
+                    for (VersionRecord record : batch) {
+                        apply(record);
+                    }
+                    batchVersions = versionsOf(batch);
+                }
+                return true;
+            }
+        }
+        long lastModified = dir.lastModified();
+        if (loaded && lastModified == dirLastModified && scanTime - dirLastModified > MODIFIED_TIME_GRANULARITY) {
+            return false;
+        }
+        scan(lastModified, now);
+        return true;
+    }
+
+    /**
+     * 扫描目录，不创建版本文件的文件对象也不获取规范路径，只有存在分片子目录时才列举子目录
+     */
+    void scan(long lastModified, long now) {
+        //同一版本在转换为差异文件期间可能同时存在完整文件和差异文件
+        Map<Long, DirectoryLayout> found = new HashMap<Long, DirectoryLayout>();
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(versionPrefix)) {
+                    collect(name, dir, DirectoryLayout.FLAT, found);
+                } else if (name.length() == 2 && isDigits(name, 16)) {
+                    scanShard(new File(dir, name), DirectoryLayout.HASHED, found);
+                } else if (name.length() > 2 && isDigits(name, 10)) {
+                    File dateDir = new File(dir, name);
+                    String[] hours = dateDir.list();
+                    if (hours != null) {
+                        for (String hour : hours) {
+                            if (hour.length() == 2 && isDigits(hour, 10)) {
+                                scanShard(new File(dateDir, hour), DirectoryLayout.TIME_BUCKETED, found);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        long[] versions = new long[found.size()];
+        Map<Long, DirectoryLayout> layouts = new HashMap<Long, DirectoryLayout>();
+        int size = 0;
+        for (Map.Entry<Long, DirectoryLayout> entry : found.entrySet()) {
+            versions[size++] = entry.getKey();
+            if (entry.getValue() != DirectoryLayout.FLAT) {
+                layouts.put(entry.getKey(), entry.getValue());
+            }
+        }
+        Arrays.sort(versions);
+        this.versions = versions;
+        this.dirLastModified = lastModified;
+        this.scanTime = now;
+        this.loaded = true;
+        resetManifest();
+        this.scannedLayouts = layouts;
+        if (log.isDebugEnabled()) {
+            log.debug("scan directory '{}' found {} versions, {} in shard directories", dir, size, layouts.size());
+        }
+    }
+
+    /**
+     * 列举分片子目录中的版本文件
+     */
+    void scanShard(File shardDir, DirectoryLayout layout, Map<Long, DirectoryLayout> found) {
+        String[] names = shardDir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (name.startsWith(versionPrefix)) {
+                collect(name, shardDir, layout, found);
+            }
+        }
+    }
+
+    /**
+     * 解析版本文件名，只接受位于该版本在指定布局下所属目录中的文件
+     */
+    void collect(String name, File parent, DirectoryLayout layout, Map<Long, DirectoryLayout> found) {
+        if (name.startsWith(tempPrefix)) {
+            return;
+        }
+        int end = name.endsWith(VersionDelta.SUFFIX) ? name.length() - VersionDelta.SUFFIX.length() : name.length();
+        long version = parseVersion(name, versionPrefix.length(), end);
+        if (version < 0 || layout != DirectoryLayout.FLAT && !shardDir(version, layout).equals(parent)) {
+            if (log.isDebugEnabled()) {
+                log.debug("ignore illegal version file : {}", new File(parent, name));
+            }
+            return;
+        }
+        found.put(version, layout);
+    }
+
+    /**
+     * 判断名称是否全部为指定进制的数字，字母只接受小写
+     */
+    static boolean isDigits(String name, int radix) {
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.digit(name.charAt(i), radix) < 0 || Character.isUpperCase(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 读取清单，只读取上次读取位置之后新增的记录，清单被压缩后从头读取
+     *
+     * @return 清单不存在或损坏返回假
+     */
+    boolean load(long length, long lastModified, long now) {
+        VersionManifest.Snapshot snapshot;
+        try {
+            snapshot = manifest.read(manifestLoaded ? manifestGeneration : -1, manifestOffset);
+        } catch (IOException e) {
+            log.error("read manifest file '{}' happens error!", manifest.manifestFile, e);
+            return false;
+        }
+        if (snapshot == null) {
+            return false;
+        }
+        this.snapshotFull = snapshot.full;
+        if (snapshot.full) {
+            records.clear();
+            manifestRecords = 0;
+            for (VersionRecord record : snapshot.records) {
+                if (record.isCommit()) {
+                    records.put(record.version, record);
+                } else {
+                    records.remove(record.version);
+                }
+            }
+            long[] found = new long[records.size()];
+            int size = 0;
+            for (Long version : records.keySet()) {
+                found[size++] = version;
+            }
+            Arrays.sort(found);
+            this.versions = found;
+        } else {
+            for (VersionRecord record : snapshot.records) {
+                apply(record);
+            }
+        }
+        this.manifestRecords += snapshot.records.size();
+        this.manifestGeneration = snapshot.generation;
+        this.manifestOffset = snapshot.offset;
+        this.manifestLength = length;
+        this.manifestLastModified = lastModified;
+        this.manifestLoaded = true;
+        this.scannedLayouts = Collections.emptyMap();
+        this.scanTime = now;
+        this.loaded = true;
+        if (log.isDebugEnabled()) {
+            log.debug("load manifest file '{}' read {} records", manifest.manifestFile, snapshot.records.size());
+        }
+        return true;
+    }
+
+    /**
+     * 持有进程间提交锁时读取其他进程追加的记录，保证之后追加的记录与索引一致。
+     * 清单不存在时由目录扫描结果生成清单，存在多文件事务残留的准备标记时先完成或撤销该事务
+     *
+     * @throws IOException IO异常
+     */
+    synchronized void reload() throws IOException {
+        for (VersionRecord record : manifest.recover()) {
+            versionFile(record.version, record.layout()).delete();
+        }
+        if (batchVersions.length > 0) {
+            //准备标记已处理，从头读取清单去掉叠加的版本
+            resetManifest();
+        }
+        File manifestFile = manifest.manifestFile;
+        long now = System.currentTimeMillis();
+        if (manifest.exists() && load(manifestFile.length(), manifestFile.lastModified(), now)) {
+            return;
+        }
+        //旧版本创建的目录或清单丢失，扫描目录后按版本文件的实际布局生成清单
+        scan(dir.lastModified(), now);
+        List<VersionRecord> live = new ArrayList<VersionRecord>(versions.length);
+        for (long version : versions) {
+            DirectoryLayout layout = layout(version);
+            File file = versionFile(version, layout);
+            live.add(VersionRecord.commit(version, file.length(), 0, false, layout, file.lastModified()));
+        }
+        manifest.compact(max(), live, false);
+        if (!load(manifestFile.length(), manifestFile.lastModified(), now)) {
+            throw new IOException("create manifest file '" + manifestFile + "' fail!");
+        }
+        log.info("create manifest file '{}' with {} versions", manifestFile, live.size());
+    }
+
+    /**
+     * 本进程追加记录到清单后更新索引，调用方需要持有进程间提交锁
+     *
+     * @param appended 已追加的记录
+     */
+    synchronized void appended(Collection<VersionRecord> appended) {
+        for (VersionRecord record : appended) {
+            apply(record);
+        }
+        if (manifestLoaded) {
+            manifestOffset += (long) appended.size() * VersionManifest.RECORD_SIZE;
+            manifestRecords += appended.size();
+        }
+    }
+
+    /**
+     * 清单中的无效记录是否过多
+     *
+     * @return 需要压缩返回真
+     */
+    synchronized boolean needCompact() {
+        return manifestLoaded && manifestRecords - records.size() > Math.max(COMPACT_THRESHOLD, records.size());
+    }
+
+    /**
+     * 获取存活版本的提交记录，按版本升序排列
+     *
+     * @return 提交记录
+     */
+    synchronized List<VersionRecord> liveRecords() {
+        List<VersionRecord> live = new ArrayList<VersionRecord>(versions.length);
+        for (long version : versions) {
+            VersionRecord record = records.get(version);
+            live.add(record != null ? record : new VersionRecord(VersionRecord.COMMIT, version, 0, 0, 0));
+        }
+        return live;
+    }
+
+    void apply(VersionRecord record) {
+        if (record.isCommit()) {
+            records.put(record.version, record);
+            add(record.version);
+        } else {
+            records.remove(record.version);
+            remove(record.version);
+        }
+    }
+
+    void resetManifest() {
+        this.records.clear();
+        this.batchVersions = EMPTY_VERSIONS;
+        this.manifestLoaded = false;
+        this.manifestGeneration = -1;
+        this.manifestOffset = 0;
+        this.manifestLength = 0;
+        this.manifestLastModified = 0;
+        this.manifestRecords = 0;
+    }
+
+    /**
+     * 获取提交记录的版本号，升序排列
+     */
+    static long[] versionsOf(List<VersionRecord> records) {
+        if (records.isEmpty()) {
+            return EMPTY_VERSIONS;
+        }
+        long[] versions = new long[records.size()];
+        for (int i = 0; i < versions.length; i++) {
+            versions[i] = records.get(i).version;
+        }
+        Arrays.sort(versions);
+        return versions;
+    }
+
+    /**
+     * 解析文件名中的版本号，非数字返回-1
+     */
+    static long parseVersion(String name, int offset) {
+        return parseVersion(name, offset, name.length());
+    }
+
+    /**
+     * 解析文件名指定范围内的版本号，非数字返回-1
+     */
+    static long parseVersion(String name, int offset, int length) {
+        if (offset >= length || length - offset > 18) {
+            return -1;
+        }
+        long version = 0;
+        for (int i = offset; i < length; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            version = version * 10 + (c - '0');
+        }
+        return version;
+    }
+
+    /**
+     * 不受校验间隔限制立即校验索引
+     *
+     * @return 是否进行了重新加载
+     */
+    synchronized boolean refresh() {
+        checkTime = 0;
+        return revalidate();
+    }
+
+    /**
+     * 获取版本文件，布局由提交记录决定
+     *
+     * @param version 版本号
+     * @param layout  目录布局
+     * @return 版本文件
+     */
+    File versionFile(long version, DirectoryLayout layout) {
+        return new File(shardDir(version, layout), versionPrefix + version);
+    }
+
+    /**
+     * 获取版本文件所在的目录，分片目录由版本号直接计算，不需要列举目录
+     *
+     * @param version 版本号
+     * @param layout  目录布局
+     * @return 目录
+     */
+    File shardDir(long version, DirectoryLayout layout) {
+        if (layout == DirectoryLayout.HASHED) {
+            int hash = ((int) (version ^ (version >>> 32)) * 0x9E3779B9) >>> 24;
+            return new File(dir, HEX_DIGITS[hash >>> 4] + HEX_DIGITS[hash & 0x0F]);
+        } else if (layout == DirectoryLayout.TIME_BUCKETED) {
+            //版本号为yyyyMMddHHmmss格式，按日期和小时分两级
+            long hour = version / 10000;
+            return new File(new File(dir, Long.toString(hour / 100)), hour % 100 < 10 ? "0" + hour % 100 : Long.toString(hour % 100));
+        }
+        return dir;
+    }
+
+    /**
+     * 删除版本文件后删除空的分片目录
+     *
+     * @param shardDir 分片目录
+     */
+    void removeShardDir(File shardDir) {
+        while (!shardDir.equals(dir) && shardDir.delete()) {
+            shardDir = shardDir.getParentFile();
+        }
+    }
+
+    /**
+     * 获取最大版本号
+     *
+     * @return 最大版本号，不存在返回-1
+     */
+    synchronized long max() {
+        return versions.length == 0 ? -1 : versions[versions.length - 1];
+    }
+
+    /**
+     * 获取版本的提交记录，索引中不存在时立即校验清单，读取其他进程刚提交的版本
+     *
+     * @param version 版本号
+     * @return 提交记录，不存在返回null
+     */
+    synchronized VersionRecord record(long version) {
+        VersionRecord record = records.get(version);
+        if (record == null && manifestLoaded) {
+            refresh();
+            record = records.get(version);
+        }
+        return record;
+    }
+
+    /**
+     * 获取版本文件的目录布局，优先使用提交记录，没有清单时使用目录扫描发现的布局
+     *
+     * @param version 版本号
+     * @return 目录布局
+     */
+    synchronized DirectoryLayout layout(long version) {
+        VersionRecord record = record(version);
+        if (record != null) {
+            return record.layout();
+        }
+        DirectoryLayout layout = scannedLayouts.get(version);
+        return layout == null ? DirectoryLayout.FLAT : layout;
+    }
+
+    synchronized boolean contains(long version) {
+        return Arrays.binarySearch(versions, version) >= 0;
+    }
+
+    synchronized List<Long> list() {
+        return list(versions.length);
+    }
+
+    /**
+     * 获取最新的若干个版本号，升序排列
+     *
+     * @param limit 数量
+     * @return 版本号列表
+     */
+    synchronized List<Long> list(int limit) {
+        int from = Math.max(0, versions.length - limit);
+        if (from >= versions.length) {
+            return Collections.emptyList();
+        }
+        List<Long> list = new ArrayList<Long>(versions.length - from);
+        for (int i = from; i < versions.length; i++) {
+            list.add(versions[i]);
+        }
+        return list;
+    }
+
+    /**
+     * 本进程提交新版本后更新索引
+     *
+     * @param version 版本号
+     */
+    synchronized void add(long version) {
+        int idx = Arrays.binarySearch(versions, version);
+        if (idx >= 0) {
+            return;
+        }
+        int insert = -idx - 1;
+        long[] newVersions = new long[versions.length + 1];
+        System.arraycopy(versions, 0, newVersions, 0, insert);
+        newVersions[insert] = version;
+        System.arraycopy(versions, insert, newVersions, insert + 1, versions.length - insert);
+        this.versions = newVersions;
+    }
+
+    /**
+     * 本进程删除版本后更新索引
+     *
+     * @param version 版本号
+     */
+    synchronized void remove(long version) {
+        int idx = Arrays.binarySearch(versions, version);
+        if (idx < 0) {
+            return;
+        }
+        long[] newVersions = new long[versions.length - 1];
+        System.arraycopy(versions, 0, newVersions, 0, idx);
+        System.arraycopy(versions, idx + 1, newVersions, idx, versions.length - idx - 1);
+        this.versions = newVersions;
+    }
+
+    /**
+     * 获取超出保留数量的旧版本号
+     *
+     * @param backupSize 保留数量
+     * @return 需要删除的版本号
+     */
+    synchronized long[] expired(int backupSize) {
+        int count = versions.length - backupSize;
+        if (count <= 0) {
+            return EMPTY_VERSIONS;
+        }
+        return Arrays.copyOf(versions, count);
+    }
+
+    /**
+     * 目录被删除后清空索引
+     */
+    synchronized void clear() {
+        this.versions = EMPTY_VERSIONS;
+        this.scannedLayouts = Collections.emptyMap();
+        this.dirLastModified = 0;
+        this.scanTime = System.currentTimeMillis();
+        this.checkTime = scanTime;
+        this.loaded = true;
+        resetManifest();
+    }
+
+    /**
+     * 使索引失效，下次访问时重新扫描
+     */
+    synchronized void invalidate() {
+        this.loaded = false;
+        this.manifestLength = -1;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "VersionIndex(dir=" + dir + ", versions=" + versions.length + ", max=" + max() + ", manifest=" + manifestLoaded + ")";
+    }
+}
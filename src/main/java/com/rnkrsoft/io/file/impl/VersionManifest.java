@@ -0,0 +1,608 @@
+package com.rnkrsoft.io.file.impl;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 动态文件的版本清单，与版本文件位于同一目录。
+ * 通过锁文件上的文件锁实现多进程间的提交互斥，并在清单头部保存单调递增的版本序号，
+ * 使多个进程共享同一个动态文件目录时，同一时刻的提交也不会产生相同的版本号。
+ * 清单头部之后是只追加的定长二进制记录，记录每个版本的提交与删除，打开动态文件时只需读取清单而不需要列举目录，
+ * 记录过多时进行压缩重写。
+ * 多文件事务发布版本文件后先写入准备标记，所有文件的准备标记写入后创建提交标记，再追加各文件的提交记录。
+ * 提交标记存在时读取方把准备标记中的记录视为已提交，所以各文件的新版本在提交标记创建时同时可见，不依赖追加的先后。
+ * 持有提交锁时发现残留的准备标记，提交标记存在则补写提交记录，否则删除已发布的版本文件；
+ * 准备标记中记录了同一事务所有文件的准备标记，最后一个完成补写的文件删除提交标记。
+ * 文件锁由进程持有，同一进程内的互斥由分段锁保证，实例的锁状态只能在持有分段锁时访问。
+ * <pre>
+ * 头部：魔数(4) 版本序号(8) 代数(4)
+ * 记录：类型(1) 版本号(8) 长度(8) 校验和(4) 时间(8) 记录校验和(4)
+ * 准备标记：魔数(4) 提交标记路径长度(4) 提交标记路径 记录数(4) 记录 准备标记数(4) [路径长度(4) 准备标记路径]
+ * </pre>
+ */
+@Slf4j
+final class VersionManifest {
+    /**
+     * 清单文件魔数 "DFM1"
+     */
+    static final int MAGIC = 0x44464D31;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 33;
+    /**
+     * 准备标记魔数 "DFB1"
+     */
+    static final int BATCH_MAGIC = 0x44464231;
+    /**
+     * 获取文件锁失败后的重试间隔毫秒数
+     */
+    static final long LOCK_RETRY_MILLIS = 5L;
+
+    final File lockFile;
+    final File manifestFile;
+    final File compactFile;
+    /**
+     * 多文件事务的准备标记
+     */
+    final File batchFile;
+    RandomAccessFile lockRaf;
+    FileLock lock;
+
+    VersionManifest(File dir, String fileName) {
+        this.lockFile = new File(dir, fileName + ".lock");
+        this.manifestFile = new File(dir, fileName + ".manifest");
+        this.compactFile = new File(dir, fileName + ".manifest.compact");
+        this.batchFile = new File(dir, fileName + ".batch");
+    }
+
+    /**
+     * 获取进程间提交锁，超时未获取则抛出异常。同一进程内同一路径的其他实例持有锁时同样等待
+     *
+     * @param timeoutMillis 超时毫秒数
+     * @throws IOException IO异常
+     */
+    void lock(long timeoutMillis) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(lockFile, "rw");
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            FileLock fileLock;
+            while ((fileLock = tryLock(raf)) == null) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("lock file '" + lockFile + "' timeout " + timeoutMillis + "ms");
+                }
+                try {
+                    Thread.sleep(LOCK_RETRY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("lock file '" + lockFile + "' is interrupted");
+                }
+            }
+            this.lockRaf = raf;
+            this.lock = fileLock;
+        } finally {
+            if (this.lockRaf != raf) {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * 尝试获取文件锁
+     *
+     * @param raf 锁文件
+     * @return 文件锁，被占用返回null
+     * @throws IOException IO异常
+     */
+    static FileLock tryLock(RandomAccessFile raf) throws IOException {
+        try {
+            return raf.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            //文件锁由进程持有，同一进程内同一路径的其他实例已经持有锁
+            return null;
+        }
+    }
+
+    /**
+     * 释放进程间提交锁
+     */
+    void unlock() {
+        if (lockRaf == null) {
+            return;
+        }
+        try {
+            lock.release();
+        } catch (IOException e) {
+            log.error("release lock file '{}' happens error!", lockFile, e);
+        }
+        try {
+            lockRaf.close();
+        } catch (IOException e) {
+            log.error("close lock file '{}' happens error!", lockFile, e);
+        }
+        lockRaf = null;
+        lock = null;
+    }
+
+    /**
+     * 清单是否存在
+     *
+     * @return 存在返回真
+     */
+    boolean exists() {
+        return manifestFile.length() >= HEADER_SIZE;
+    }
+
+    /**
+     * 读取已分配的最大版本号
+     *
+     * @return 版本号，清单不存在或损坏时返回-1
+     * @throws IOException IO异常
+     */
+    long readSequence() throws IOException {
+        if (!manifestFile.exists()) {
+            return -1;
+        }
+        RandomAccessFile raf = new RandomAccessFile(manifestFile, "r");
+        try {
+            if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC) {
+                log.warn("manifest file '{}' is corrupt", manifestFile);
+                return -1;
+            }
+            return raf.readLong();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 保存已分配的最大版本号，在发布版本文件之前调用，进程崩溃时只会跳过版本号而不会重复分配
+     *
+     * @param sequence 版本号
+     * @param sync     是否刷盘
+     * @throws IOException IO异常
+     */
+    void writeSequence(long sequence, boolean sync) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(manifestFile, "rw");
+        try {
+            if (raf.length() < HEADER_SIZE) {
+                raf.setLength(0);
+                raf.writeInt(MAGIC);
+                raf.writeLong(sequence);
+                raf.writeInt(0);
+            } else {
+                raf.seek(4);
+                raf.writeLong(sequence);
+            }
+            if (sync) {
+                raf.getChannel().force(false);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 追加记录，写入位置对齐到最后一条完整记录之后，覆盖崩溃时残留的不完整记录
+     *
+     * @param records 记录
+     * @param sync    是否刷盘
+     * @throws IOException IO异常
+     */
+    void append(Collection<VersionRecord> records, boolean sync) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(records.size() * RECORD_SIZE);
+        CRC32 crc = new CRC32();
+        for (VersionRecord record : records) {
+            encode(record, buffer, crc);
+        }
+        buffer.flip();
+        RandomAccessFile raf = new RandomAccessFile(manifestFile, "rw");
+        try {
+            long length = raf.length();
+            if (length < HEADER_SIZE) {
+                throw new IOException("manifest file '" + manifestFile + "' is not initialized");
+            }
+            long start = HEADER_SIZE + (length - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE;
+            long position = start;
+            try {
+                while (buffer.hasRemaining()) {
+                    position += raf.getChannel().write(buffer, position);
+                }
+                if (sync) {
+                    raf.getChannel().force(false);
+                }
+            } catch (IOException e) {
+                //截掉写入了一部分的记录，调用方会撤销对应的版本文件
+                try {
+                    raf.setLength(start);
+                } catch (IOException ignore) {
+                }
+                throw e;
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 读取清单
+     *
+     * @param generation 调用方已读取的代数，与清单代数不同时从头读取
+     * @param offset     调用方已读取到的位置
+     * @return 清单内容，清单不存在返回null
+     * @throws IOException IO异常
+     */
+    Snapshot read(int generation, long offset) throws IOException {
+        if (!manifestFile.exists()) {
+            return null;
+        }
+        RandomAccessFile raf = new RandomAccessFile(manifestFile, "r");
+        try {
+            long length = raf.length();
+            if (length < HEADER_SIZE) {
+                return null;
+            }
+            if (raf.readInt() != MAGIC) {
+                log.warn("manifest file '{}' is corrupt", manifestFile);
+                return null;
+            }
+            long sequence = raf.readLong();
+            int generation0 = raf.readInt();
+            boolean full = generation0 != generation || offset < HEADER_SIZE || offset > length;
+            long from = full ? HEADER_SIZE : offset;
+            int count = (int) ((length - from) / RECORD_SIZE);
+            List<VersionRecord> records = new ArrayList<VersionRecord>(count);
+            if (count > 0) {
+                byte[] data = new byte[count * RECORD_SIZE];
+                raf.seek(from);
+                raf.readFully(data);
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                CRC32 crc = new CRC32();
+                for (int i = 0; i < count; i++) {
+                    VersionRecord record = decode(buffer, crc);
+                    if (record == null) {
+                        log.warn("manifest file '{}' record at {} is corrupt", manifestFile, from + (long) i * RECORD_SIZE);
+                        continue;
+                    }
+                    records.add(record);
+                }
+            }
+            return new Snapshot(generation0, sequence, full, from + (long) count * RECORD_SIZE, records);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 压缩清单，只保留存活版本的提交记录，代数加一，通过重命名替换原清单
+     *
+     * @param sequence 已分配的最大版本号
+     * @param live     存活版本的提交记录
+     * @param sync     是否刷盘
+     * @throws IOException IO异常
+     */
+    void compact(long sequence, Collection<VersionRecord> live, boolean sync) throws IOException {
+        int generation = 0;
+        Snapshot snapshot = read(-1, HEADER_SIZE);
+        if (snapshot != null) {
+            generation = snapshot.generation + 1;
+            sequence = Math.max(sequence, snapshot.sequence);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + live.size() * RECORD_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putLong(sequence);
+        buffer.putInt(generation);
+        CRC32 crc = new CRC32();
+        for (VersionRecord record : live) {
+            encode(record, buffer, crc);
+        }
+        buffer.flip();
+        RandomAccessFile raf = new RandomAccessFile(compactFile, "rw");
+        try {
+            raf.setLength(0);
+            long position = 0;
+            while (buffer.hasRemaining()) {
+                position += raf.getChannel().write(buffer, position);
+            }
+            if (sync) {
+                raf.getChannel().force(true);
+            }
+        } finally {
+            raf.close();
+        }
+        if (!FileSystemUtil.rename(compactFile, manifestFile)) {
+            //部分平台目标文件存在时不能重命名
+            manifestFile.delete();
+            if (!FileSystemUtil.rename(compactFile, manifestFile)) {
+                throw new IOException("replace manifest file '" + manifestFile + "' fail!");
+            }
+        }
+        log.debug("compact manifest file '{}' to {} records", manifestFile, live.size());
+    }
+
+    /**
+     * 写入多文件事务的准备标记，记录提交标记路径、本文件已发布但尚未追加的提交记录和同一事务所有文件的准备标记
+     *
+     * @param commitFile 提交标记
+     * @param batchFiles 同一事务所有文件的准备标记
+     * @param records    提交记录
+     * @param sync       是否刷盘
+     * @throws IOException IO异常
+     */
+    void prepare(File commitFile, List<File> batchFiles, Collection<VersionRecord> records, boolean sync) throws IOException {
+        byte[] path = commitFile.getAbsolutePath().getBytes("UTF-8");
+        List<byte[]> paths = new ArrayList<byte[]>(batchFiles.size());
+        int pathsLength = 0;
+        for (File file : batchFiles) {
+            byte[] batchPath = file.getAbsolutePath().getBytes("UTF-8");
+            paths.add(batchPath);
+            pathsLength += 4 + batchPath.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(16 + path.length + records.size() * RECORD_SIZE + pathsLength);
+        buffer.putInt(BATCH_MAGIC);
+        buffer.putInt(path.length);
+        buffer.put(path);
+        buffer.putInt(records.size());
+        CRC32 crc = new CRC32();
+        for (VersionRecord record : records) {
+            encode(record, buffer, crc);
+        }
+        buffer.putInt(paths.size());
+        for (byte[] batchPath : paths) {
+            buffer.putInt(batchPath.length);
+            buffer.put(batchPath);
+        }
+        buffer.flip();
+        RandomAccessFile raf = new RandomAccessFile(batchFile, "rw");
+        try {
+            raf.setLength(0);
+            long position = 0;
+            while (buffer.hasRemaining()) {
+                position += raf.getChannel().write(buffer, position);
+            }
+            if (sync) {
+                raf.getChannel().force(true);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 多文件事务完成后删除准备标记
+     */
+    void finish() {
+        if (!batchFile.delete() && batchFile.exists()) {
+            log.warn("delete batch file '{}' fail", batchFile);
+        }
+    }
+
+    /**
+     * 读取准备标记，准备标记不完整时提交标记为null
+     *
+     * @param file 准备标记
+     * @return 准备标记内容，不存在返回null
+     * @throws IOException IO异常
+     */
+    static Batch readBatch(File file) throws IOException {
+        RandomAccessFile raf;
+        try {
+            raf = new RandomAccessFile(file, "r");
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        byte[] data;
+        try {
+            data = new byte[(int) raf.length()];
+            raf.readFully(data);
+        } finally {
+            raf.close();
+        }
+        List<VersionRecord> records = new ArrayList<VersionRecord>();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (data.length < 12 || buffer.getInt() != BATCH_MAGIC) {
+            return new Batch(null, records, null);
+        }
+        int pathLength = buffer.getInt();
+        if (pathLength <= 0 || pathLength > buffer.remaining() - 4) {
+            return new Batch(null, records, null);
+        }
+        byte[] path = new byte[pathLength];
+        buffer.get(path);
+        int count = buffer.getInt();
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < count && buffer.remaining() >= RECORD_SIZE; i++) {
+            VersionRecord record = decode(buffer, crc);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        if (records.size() != count) {
+            return new Batch(null, records, null);
+        }
+        //旧版本的准备标记没有记录其他文件的准备标记
+        List<File> batchFiles = null;
+        if (buffer.remaining() >= 4) {
+            int size = buffer.getInt();
+            batchFiles = new ArrayList<File>();
+            for (int i = 0; i < size && buffer.remaining() >= 4; i++) {
+                int length = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+                byte[] batchPath = new byte[length];
+                buffer.get(batchPath);
+                batchFiles.add(new File(new String(batchPath, "UTF-8")));
+            }
+            if (batchFiles.size() != size) {
+                return new Batch(null, records, null);
+            }
+        }
+        return new Batch(new File(new String(path, "UTF-8")), records, batchFiles);
+    }
+
+    /**
+     * 读取已提交但可能尚未追加到清单的多文件事务记录，不需要持有提交锁
+     *
+     * @return 提交标记存在时返回准备标记中的记录，否则返回空列表
+     */
+    List<VersionRecord> committedBatch() {
+        if (!batchFile.exists()) {
+            return Collections.emptyList();
+        }
+        Batch batch;
+        try {
+            batch = readBatch(batchFile);
+        } catch (IOException e) {
+            //准备标记正在被删除或改写
+            log.debug("read batch file '{}' happens error!", batchFile, e);
+            return Collections.emptyList();
+        }
+        if (batch == null || batch.commitFile == null || !batch.commitFile.exists()) {
+            return Collections.emptyList();
+        }
+        return batch.records;
+    }
+
+    /**
+     * 处理残留的准备标记，补写的提交记录总是刷盘，调用方需要持有进程间提交锁
+     *
+     * @return 需要撤销的提交记录，由调用方删除对应的版本文件
+     * @throws IOException IO异常
+     */
+    List<VersionRecord> recover() throws IOException {
+        Batch batch = batchFile.exists() ? readBatch(batchFile) : null;
+        if (batch == null) {
+            return Collections.emptyList();
+        }
+        List<VersionRecord> rollback = Collections.emptyList();
+        if (batch.commitFile != null && batch.commitFile.exists()) {
+            log.info("roll forward batch file '{}' with {} records", batchFile, batch.records.size());
+            append(batch.records, true);
+            finish();
+            if (batch.batchFiles != null && !pending(batch)) {
+                //同一事务的其他文件都已完成，提交标记不再需要
+                if (!batch.commitFile.delete() && batch.commitFile.exists()) {
+                    log.warn("delete commit file '{}' fail", batch.commitFile);
+                }
+            }
+        } else {
+            //准备标记不完整时提交标记一定尚未创建
+            log.info("roll back batch file '{}' with {} records", batchFile, batch.records.size());
+            rollback = batch.records;
+            finish();
+        }
+        return rollback;
+    }
+
+    /**
+     * 同一事务的其他文件是否还有引用该提交标记的准备标记。
+     * 每个文件先删除自己的准备标记再检查其他文件，同时补写的多个文件中至少有一个能看到其他文件都已完成
+     */
+    boolean pending(Batch batch) {
+        for (File file : batch.batchFiles) {
+            if (file.getAbsoluteFile().equals(batchFile.getAbsoluteFile()) || !file.exists()) {
+                continue;
+            }
+            try {
+                Batch other = readBatch(file);
+                if (other == null || other.commitFile != null && !other.commitFile.equals(batch.commitFile)) {
+                    continue;
+                }
+            } catch (IOException e) {
+                log.warn("read batch file '{}' happens error!", file, e);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    static void encode(VersionRecord record, ByteBuffer buffer, CRC32 crc) {
+        int start = buffer.position();
+        buffer.put(record.type);
+        buffer.putLong(record.version);
+        buffer.putLong(record.length);
+        buffer.putInt(record.checksum);
+        buffer.putLong(record.time);
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + start, RECORD_SIZE - 4);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    static VersionRecord decode(ByteBuffer buffer, CRC32 crc) {
+        int start = buffer.position();
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + start, RECORD_SIZE - 4);
+        byte type = buffer.get();
+        long version = buffer.getLong();
+        long length = buffer.getLong();
+        int checksum = buffer.getInt();
+        long time = buffer.getLong();
+        int recordChecksum = buffer.getInt();
+        VersionRecord record = new VersionRecord(type, version, length, checksum, time);
+        if (recordChecksum != (int) crc.getValue() || (!record.isCommit() && !record.isDelete())) {
+            return null;
+        }
+        return record;
+    }
+
+    /**
+     * 准备标记内容
+     */
+    static final class Batch {
+        /**
+         * 提交标记，准备标记不完整时为null
+         */
+        final File commitFile;
+        final List<VersionRecord> records;
+        /**
+         * 同一事务所有文件的准备标记，旧版本的准备标记为null
+         */
+        final List<File> batchFiles;
+
+        Batch(File commitFile, List<VersionRecord> records, List<File> batchFiles) {
+            this.commitFile = commitFile;
+            this.records = records;
+            this.batchFiles = batchFiles;
+        }
+    }
+
+    /**
+     * 清单内容
+     */
+    static final class Snapshot {
+        final int generation;
+        final long sequence;
+        /**
+         * 是否从头读取
+         */
+        final boolean full;
+        /**
+         * 已读取到的位置
+         */
+        final long offset;
+        final List<VersionRecord> records;
+
+        Snapshot(int generation, long sequence, boolean full, long offset, List<VersionRecord> records) {
+            this.generation = generation;
+            this.sequence = sequence;
+            this.full = full;
+            this.offset = offset;
+            this.records = records;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.rnkrsoft.io.file.impl;
+
+import com.rnkrsoft.io.file.DirectoryLayout;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ * 版本清单中的一条记录
+ */
+final class VersionRecord {
+    /**
+     * 提交版本
+     */
+    static final byte COMMIT = 1;
+    /**
+     * 删除版本
+     */
+    static final byte DELETE = 2;
+    /**
+     * 版本文件以分块压缩格式保存的标志位
+     */
+    static final byte COMPRESSED = 0x10;
+    static final byte TYPE_MASK = 0x0F;
+    /**
+     * 版本文件按散列值分片保存的标志位
+     */
+    static final byte HASHED = 0x20;
+    /**
+     * 版本文件按时间分片保存的标志位
+     */
+    static final byte TIME_BUCKETED = 0x40;
+    static final byte LAYOUT_MASK = 0x60;
+
+    final byte type;
+    final long version;
+    /**
+     * 版本数据的原始长度
+     */
+    final long length;
+    /**
+     * 版本文件数据的校验和，0表示未计算
+     */
+    final int checksum;
+    /**
+     * 提交或删除的时间毫秒数
+     */
+    final long time;
+
+    VersionRecord(byte type, long version, long length, int checksum, long time) {
+        this.type = type;
+        this.version = version;
+        this.length = length;
+        this.checksum = checksum;
+        this.time = time;
+    }
+
+    static VersionRecord commit(long version, long length, int checksum) {
+        return commit(version, length, checksum, false);
+    }
+
+    static VersionRecord commit(long version, long length, int checksum, boolean compressed) {
+        return commit(version, length, checksum, compressed, DirectoryLayout.FLAT);
+    }
+
+    static VersionRecord commit(long version, long length, int checksum, boolean compressed, DirectoryLayout layout) {
+        return commit(version, length, checksum, compressed, layout, System.currentTimeMillis());
+    }
+
+    static VersionRecord commit(long version, long length, int checksum, boolean compressed, DirectoryLayout layout, long time) {
+        int type = COMMIT;
+        if (compressed) {
+            type |= COMPRESSED;
+        }
+        if (layout == DirectoryLayout.HASHED) {
+            type |= HASHED;
+        } else if (layout == DirectoryLayout.TIME_BUCKETED) {
+            type |= TIME_BUCKETED;
+        }
+        return new VersionRecord((byte) type, version, length, checksum, time);
+    }
+
+    static VersionRecord delete(long version) {
+        return new VersionRecord(DELETE, version, 0, 0, System.currentTimeMillis());
+    }
+
+    boolean isCommit() {
+        return (type & TYPE_MASK) == COMMIT;
+    }
+
+    boolean isDelete() {
+        return (type & TYPE_MASK) == DELETE;
+    }
+
+    boolean isCompressed() {
+        return (type & COMPRESSED) != 0;
+    }
+
+    DirectoryLayout layout() {
+        switch (type & LAYOUT_MASK) {
+            case HASHED:
+                return DirectoryLayout.HASHED;
+            case TIME_BUCKETED:
+                return DirectoryLayout.TIME_BUCKETED;
+            default:
+                return DirectoryLayout.FLAT;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "VersionRecord(type=" + type + ", version=" + version + ", length=" + length + ", checksum=" + checksum + ", time=" + time + ")";
+    }
+}
@@ -37,8 +37,26 @@ public class ByteBuffersTest {
 
     @Test
     public void testNewByteBuffer() throws Exception {
+        Assert.assertTrue(ByteBuffers.newBuffer(ByteBufferType.HEAP, false, 16, 48) instanceof UnpooledHeapByteBuffer);
+        Assert.assertTrue(ByteBuffers.newBuffer(ByteBufferType.DIRECT, false, 16, 48) instanceof UnpooledDirectByteBuffer);
+        //默认创建非池化缓冲区
         Assert.assertTrue(ByteBuffers.newBuffer(16, 48) instanceof UnpooledHeapByteBuffer);
-        ByteBuffers.DEFAULT_BUFFER_TYPE = ByteBufferType.DIRECT;
-        Assert.assertTrue(ByteBuffers.newBuffer(16, 48) instanceof UnpooledDirectByteBuffer);
+        ByteBuffers.DEFAULT_POOLED = true;
+        try {
+            ByteBuffer buffer = ByteBuffers.newBuffer(16, 48);
+            // 泄漏检测会抽样包装池化缓冲区，所以通过分配器判断
+            Assert.assertSame(ByteBuffers.getPooledAllocator(), buffer.alloc());
+            Assert.assertFalse(buffer.isDirect());
+            Assert.assertEquals(48, buffer.maxCapacity());
+            buffer.release();
+            ByteBuffers.DEFAULT_BUFFER_TYPE = ByteBufferType.DIRECT;
+            buffer = ByteBuffers.newBuffer(16, 48);
+            Assert.assertSame(ByteBuffers.getPooledAllocator(), buffer.alloc());
+            Assert.assertTrue(buffer.isDirect());
+            buffer.release();
+        } finally {
+            ByteBuffers.DEFAULT_POOLED = false;
+            ByteBuffers.DEFAULT_BUFFER_TYPE = ByteBufferType.HEAP;
+        }
     }
 }
\ No newline at end of file
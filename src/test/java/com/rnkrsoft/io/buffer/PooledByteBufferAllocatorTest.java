@@ -0,0 +1,365 @@
+package com.rnkrsoft.io.buffer;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ */
+public class PooledByteBufferAllocatorTest {
+
+    static PooledByteBufferAllocator newAllocator(boolean useSizeClasses) {
+        return new PooledByteBufferAllocator(false, 1, 0, 8192, 11, 0, 0, 0, false, 0, useSizeClasses, false);
+    }
+
+    static PoolArena<?> heapArena(PooledByteBufferAllocator allocator) {
+        return (PoolArena<?>) allocator.metric().heapArenas().get(0);
+    }
+
+    static long usedBytes(PooledByteBufferAllocator allocator) {
+        long used = 0;
+        for (PoolChunkListMetric chunkList : heapArena(allocator).chunkLists()) {
+            for (PoolChunkMetric chunk : chunkList) {
+                used += chunk.chunkSize() - chunk.freeBytes();
+            }
+        }
+        return used;
+    }
+
+    static int numChunks(PooledByteBufferAllocator allocator) {
+        int chunks = 0;
+        for (PoolChunkListMetric chunkList : heapArena(allocator).chunkLists()) {
+            for (PoolChunkMetric ignored : chunkList) {
+                chunks++;
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * 分配100个10K的缓冲区，校验内容互不覆盖，返回占用的池内存
+     */
+    static long allocate10k(PooledByteBufferAllocator allocator) {
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < 100; i++) {
+            ByteBuffer buffer = allocator.heapBuffer(10 * 1024, 10 * 1024);
+            for (int j = 0; j < 10 * 1024; j++) {
+                buffer.writeByte(i);
+            }
+            buffers.add(buffer);
+        }
+        long used = usedBytes(allocator);
+        for (int i = 0; i < buffers.size(); i++) {
+            ByteBuffer buffer = buffers.get(i);
+            for (int j = 0; j < 10 * 1024; j++) {
+                Assert.assertEquals((byte) i, buffer.getByte(j));
+            }
+            buffer.release();
+        }
+        Assert.assertEquals(0, heapArena(allocator).numActiveAllocations());
+        return used;
+    }
+
+    @Test
+    public void testNormalizeCapacity() throws Exception {
+        PoolArena<?> buddy = heapArena(newAllocator(false));
+        Assert.assertEquals(1024, buddy.normalizeCapacity(513));
+        Assert.assertEquals(16 * 1024, buddy.normalizeCapacity(9 * 1024));
+        Assert.assertEquals(64 * 1024, buddy.normalizeCapacity(40 * 1024 + 1));
+
+        PoolArena<?> sizeClasses = heapArena(newAllocator(true));
+        Assert.assertEquals(496, sizeClasses.normalizeCapacity(490));
+        Assert.assertEquals(640, sizeClasses.normalizeCapacity(513));
+        Assert.assertEquals(10 * 1024, sizeClasses.normalizeCapacity(9 * 1024));
+        Assert.assertEquals(12 * 1024, sizeClasses.normalizeCapacity(12 * 1024));
+        Assert.assertEquals(48 * 1024, sizeClasses.normalizeCapacity(40 * 1024 + 1));
+        Assert.assertEquals(0, PoolArena.sizeClassIdx(512));
+        Assert.assertEquals(1, PoolArena.sizeClassIdx(640));
+        Assert.assertEquals(24, sizeClasses.numSmallSubpagePools);
+        Assert.assertEquals(0, sizeClasses.normalCacheIdx(32 * 1024));
+        Assert.assertEquals(1, sizeClasses.normalCacheIdx(40 * 1024));
+        Assert.assertEquals(1, sizeClasses.normalCacheIdx(44 * 1024));
+    }
+
+    @Test
+    public void testSizeClassesFragmentation() throws Exception {
+        Assert.assertEquals(100 * 16 * 1024, allocate10k(newAllocator(false)));
+        Assert.assertEquals(100 * 10 * 1024, allocate10k(newAllocator(true)));
+    }
+
+    @Test
+    public void testSizeClassesCoalesceRuns() throws Exception {
+        PooledByteBufferAllocator allocator = newAllocator(true);
+        ByteBuffer first = allocator.heapBuffer(64 * 1024);
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        Random random = new Random(1);
+        for (int i = 0; i < 50; i++) {
+            buffers.add(allocator.heapBuffer(32 * 1024 + random.nextInt(160 * 1024)));
+        }
+        Assert.assertEquals(1, numChunks(allocator));
+        for (ByteBuffer buffer : buffers) {
+            buffer.release();
+        }
+        Assert.assertEquals(64 * 1024, usedBytes(allocator));
+
+        // 只有相邻的空闲页被合并后才能在同一个Chunk里分配出12M的连续空间
+        ByteBuffer big = allocator.heapBuffer(12 * 1024 * 1024);
+        Assert.assertEquals(1, numChunks(allocator));
+        Assert.assertEquals(64 * 1024 + 12 * 1024 * 1024, usedBytes(allocator));
+        big.release();
+        first.release();
+    }
+
+    @Test(timeout = 10000)
+    public void testMetricsWithoutArenaLock() throws Exception {
+        PooledByteBufferAllocator allocator = newAllocator(true);
+        final PoolArena<?> arena = heapArena(allocator);
+        ByteBuffer normal = allocator.heapBuffer(64 * 1024);
+        ByteBuffer small = allocator.heapBuffer(10 * 1024);
+        small.release();
+
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch unlock = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (arena) {
+                    locked.countDown();
+                    try {
+                        unlock.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        thread.start();
+        locked.await();
+        try {
+            // 其他线程持有Arena锁时，统计指标依然可以读取
+            Assert.assertEquals(1, arena.numNormalAllocations());
+            Assert.assertEquals(1, arena.numSmallAllocations());
+            Assert.assertEquals(1, arena.numSmallDeallocations());
+            Assert.assertEquals(1, arena.numActiveAllocations());
+            Assert.assertEquals(allocator.metric().chunkSize(), arena.numActiveBytes());
+        } finally {
+            unlock.countDown();
+            thread.join();
+        }
+        normal.release();
+    }
+
+    @Test(timeout = 10000)
+    public void testSingleChunkCreation() throws Exception {
+        final PooledByteBufferAllocator allocator = newAllocator(false);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<ByteBuffer> buffers = new CopyOnWriteArrayList<ByteBuffer>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    buffers.add(allocator.heapBuffer(64 * 1024));
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // 同时需要新Chunk的线程等待正在创建的Chunk，而不是各自创建一个
+        Assert.assertEquals(threads.length, buffers.size());
+        Assert.assertEquals(1, numChunks(allocator));
+        Assert.assertEquals(allocator.metric().chunkSize(), heapArena(allocator).numActiveBytes());
+        for (ByteBuffer buffer : buffers) {
+            buffer.release();
+        }
+    }
+
+    /**
+     * 每轮分配8个再释放8个16K缓冲区，返回这些轮次中没有命中线程缓存的分配次数
+     */
+    static long allocateRounds(PooledByteBufferAllocator allocator, int rounds) {
+        PoolArena<?> arena = heapArena(allocator);
+        long before = arena.numNormalAllocations();
+        ByteBuffer[] buffers = new ByteBuffer[8];
+        for (int i = 0; i < rounds; i++) {
+            for (int j = 0; j < buffers.length; j++) {
+                buffers[j] = allocator.heapBuffer(16 * 1024);
+            }
+            for (ByteBuffer buffer : buffers) {
+                buffer.release();
+            }
+        }
+        return arena.numNormalAllocations() - before;
+    }
+
+    @Test
+    public void testThreadCacheGrowsOnMisses() throws Exception {
+        final PooledByteBufferAllocator allocator = new PooledByteBufferAllocator(false, 1, 0, 8192, 11, 0, 0, 2, true, 0, false, false);
+        final long[] misses = new long[2];
+        // 使用新线程保证线程缓存是新建的
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                allocateRounds(allocator, 1);
+                // 缓存容量为2，每轮6次未命中
+                misses[0] = allocateRounds(allocator, 100);
+                // 触发修剪后容量扩大为4
+                allocateRounds(allocator, 8192 / 8);
+                misses[1] = allocateRounds(allocator, 100);
+            }
+        });
+        thread.start();
+        thread.join();
+        Assert.assertEquals(600, misses[0]);
+        Assert.assertEquals(400, misses[1]);
+    }
+
+    /**
+     * 通过指定的线程缓存每轮分配8个再释放8个16K缓冲区，释放的缓冲区回到分配器自己的线程缓存，所以每次分配都未命中
+     */
+    static void allocateRounds(PoolArena<?> arena, PoolThreadCache cache, int rounds) {
+        ByteBuffer[] buffers = new ByteBuffer[8];
+        for (int i = 0; i < rounds; i++) {
+            for (int j = 0; j < buffers.length; j++) {
+                buffers[j] = arena.allocate(cache, 16 * 1024, Integer.MAX_VALUE);
+            }
+            for (ByteBuffer buffer : buffers) {
+                buffer.release();
+            }
+        }
+    }
+
+    @Test
+    public void testThreadCacheBudget() throws Exception {
+        PooledByteBufferAllocator allocator = newAllocator(false);
+        @SuppressWarnings("unchecked")
+        PoolArena<byte[]> arena = (PoolArena<byte[]>) heapArena(allocator);
+        AtomicLong capacity = new AtomicLong();
+        // 每个线程缓存的8K、16K、32K缓存容量都为2，预算只够其中一个16K缓存扩大一倍
+        long base = 2 * (8 + 16 + 32) * 1024;
+        long budget = 2 * base + 2 * 16 * 1024;
+        PoolThreadCache first = new PoolThreadCache(arena, null, 0, 0, 2, 32 * 1024, 8, budget, capacity);
+        PoolThreadCache second = new PoolThreadCache(arena, null, 0, 0, 2, 32 * 1024, 8, budget, capacity);
+        Assert.assertEquals(2 * base, capacity.get());
+
+        allocateRounds(arena, first, 2);
+        Assert.assertEquals(budget, capacity.get());
+        // 预算已被第一个线程缓存用完，第二个不再扩大
+        allocateRounds(arena, second, 2);
+        Assert.assertEquals(budget, capacity.get());
+
+        first.free();
+        Assert.assertEquals(base, capacity.get());
+        second.free();
+        Assert.assertEquals(0, capacity.get());
+        Assert.assertEquals(0, arena.numActiveAllocations());
+    }
+
+    @Test
+    public void testReclaimEmptyChunks() throws Exception {
+        PooledByteBufferAllocator allocator = newAllocator(false);
+        ByteBuffer buffer = allocator.heapBuffer(64 * 1024);
+        buffer.release();
+        // 完全空闲的Chunk留在qInit中
+        Assert.assertEquals(1, numChunks(allocator));
+        Assert.assertEquals(allocator.metric().chunkSize(), heapArena(allocator).numActiveBytes());
+
+        allocator.reclaim(2);
+        allocator.reclaim(2);
+        Assert.assertEquals(0, numChunks(allocator));
+        Assert.assertEquals(0, heapArena(allocator).numActiveBytes());
+    }
+
+    @Test
+    public void testReclaimIdleThreadCaches() throws Exception {
+        final PooledByteBufferAllocator allocator = new PooledByteBufferAllocator(false, 1, 0, 8192, 11, 0, 0, 64, true, 0, false, false);
+        final CountDownLatch allocated = new CountDownLatch(1);
+        final CountDownLatch exit = new CountDownLatch(1);
+        Thread idle = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                allocateRounds(allocator, 1);
+                allocated.countDown();
+                try {
+                    exit.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        idle.start();
+        allocated.await();
+        // 释放的缓冲区留在空闲线程的缓存中
+        Assert.assertEquals(8 * 16 * 1024, usedBytes(allocator));
+        Assert.assertEquals(1, allocator.metric().numThreadLocalCaches());
+
+        for (int i = 0; i < 3; i++) {
+            allocator.reclaim(2);
+        }
+        Assert.assertEquals(0, usedBytes(allocator));
+        Assert.assertEquals(1, allocator.metric().numThreadLocalCaches());
+        exit.countDown();
+        idle.join();
+
+        // 已经结束的线程的缓存被彻底释放
+        Thread dead = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                allocateRounds(allocator, 1);
+            }
+        });
+        dead.start();
+        dead.join();
+        Assert.assertEquals(8 * 16 * 1024, usedBytes(allocator));
+        allocator.reclaim(2);
+        Assert.assertEquals(0, usedBytes(allocator));
+        Assert.assertEquals(0, allocator.metric().numThreadLocalCaches());
+    }
+
+    @Test
+    public void testReclaimActiveThreadCaches() throws Exception {
+        final PooledByteBufferAllocator allocator = new PooledByteBufferAllocator(false, 1, 0, 8192, 11, 0, 0, 8, true, 0, false, false);
+        final Semaphore allocate = new Semaphore(0);
+        final Semaphore allocated = new Semaphore(0);
+        Thread active = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // 修剪间隔从8192翻倍到65536后，每次修剪时分配次数被清零
+                allocateRounds(allocator, (8192 + 16384 + 32768 + 65536) / 8);
+                allocated.release();
+                for (int i = 0; i < 3; i++) {
+                    allocate.acquireUninterruptibly();
+                    // 两次扫描之间恰好分配一个修剪间隔
+                    allocateRounds(allocator, 65536 / 8);
+                    allocated.release();
+                }
+            }
+        });
+        active.start();
+        allocated.acquire();
+        for (int i = 0; i < 3; i++) {
+            allocator.reclaim(2);
+            // 一直在分配的线程的缓存没有被当作空闲回收
+            Assert.assertEquals(8 * 16 * 1024, usedBytes(allocator));
+            allocate.release();
+            allocated.acquire();
+        }
+        active.join();
+    }
+}
@@ -0,0 +1,23 @@
+package com.rnkrsoft.io.file;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ */
+public class DynamicFileRegistryTest {
+
+    @Test
+    public void testShareInstance() throws Exception {
+        DynamicFile dynamicFile1 = DynamicFile.file("./target/demo/registry.txt");
+        DynamicFile dynamicFile2 = DynamicFile.file("./target/demo/../demo/registry.txt");
+        DynamicFile dynamicFile3 = DynamicFile.file(new File("./target/demo"), "registry.txt");
+        Assert.assertSame(dynamicFile1, dynamicFile2);
+        Assert.assertSame(dynamicFile1, dynamicFile3);
+        Assert.assertSame(dynamicFile1, DynamicFileRegistry.getInstance().remove("./target/demo", "registry.txt"));
+        Assert.assertNotSame(dynamicFile1, DynamicFile.file("./target/demo/registry.txt"));
+    }
+}
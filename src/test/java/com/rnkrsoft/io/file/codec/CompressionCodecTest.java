@@ -0,0 +1,66 @@
+package com.rnkrsoft.io.file.codec;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ */
+public class CompressionCodecTest {
+
+    static byte[] text(int length) {
+        StringBuilder builder = new StringBuilder();
+        Random random = new Random(1);
+        while (builder.length() < length) {
+            builder.append("key").append(random.nextInt(100)).append("=value").append(random.nextInt(1000)).append('\n');
+        }
+        return builder.substring(0, length).getBytes();
+    }
+
+    static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(2).nextBytes(data);
+        return data;
+    }
+
+    void testCodec(CompressionCodec codec, byte[] data) throws Exception {
+        byte[] compressed = new byte[codec.maxCompressedLength(data.length)];
+        int length = codec.compress(data, 0, data.length, compressed, 0);
+        byte[] restored = new byte[data.length];
+        Assert.assertEquals(data.length, codec.decompress(compressed, 0, length, restored, 0, data.length));
+        Assert.assertArrayEquals(data, restored);
+    }
+
+    @Test
+    public void testCodecs() throws Exception {
+        CompressionCodec[] codecs = {CompressionCodecs.DEFLATE, CompressionCodecs.LZ4};
+        for (CompressionCodec codec : codecs) {
+            testCodec(codec, new byte[0]);
+            testCodec(codec, "abc".getBytes());
+            testCodec(codec, new byte[1000]);
+            testCodec(codec, text(100000));
+            testCodec(codec, random(100000));
+        }
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        byte[] data = text(300000);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        CompressedOutputStream os = new CompressedOutputStream(bos, CompressionCodecs.LZ4, 4096);
+        os.write(data, 0, 1000);
+        os.write(data[1000]);
+        os.write(data, 1001, data.length - 1001);
+        os.close();
+        Assert.assertTrue(bos.size() < data.length);
+        CompressedInputStream is = new CompressedInputStream(new ByteArrayInputStream(bos.toByteArray()));
+        Assert.assertArrayEquals(data, IOUtils.toByteArray(is));
+        Assert.assertEquals(-1, is.read());
+        is.close();
+    }
+}
@@ -1,16 +1,47 @@
 package com.rnkrsoft.io.file.impl;
 
 import com.rnkrsoft.io.buffer.ByteBuffer;
+import com.rnkrsoft.io.buffer.PooledByteBufferAllocator;
+import com.rnkrsoft.io.file.BatchTransaction;
+import com.rnkrsoft.io.file.ChunkedFileReader;
+import com.rnkrsoft.io.file.CorruptVersionException;
+import com.rnkrsoft.io.file.DirectoryLayout;
 import com.rnkrsoft.io.file.DynamicFile;
+import com.rnkrsoft.io.file.DynamicFileRegistry;
 import com.rnkrsoft.io.file.FileTransaction;
 import com.rnkrsoft.io.file.FileWrapper;
+import com.rnkrsoft.io.file.RandomAccessReader;
+import com.rnkrsoft.io.file.ReadMode;
+import com.rnkrsoft.io.file.StorageMode;
+import com.rnkrsoft.io.file.TransactionExpiredException;
+import com.rnkrsoft.io.file.TransactionOutputStream;
+import com.rnkrsoft.io.file.VersionHandle;
+import com.rnkrsoft.io.file.VersionListener;
+import com.rnkrsoft.io.file.codec.CompressionCodecs;
 import com.rnkrsoft.time.DateStyle;
 import com.rnkrsoft.time.FastDate;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by rnkrsoft.com on 2018/2/15.
@@ -44,4 +75,832 @@ public class DynamicFileImplTest {
         System.out.println(fileWrapper.getVersion());
         System.out.println(fileWrapper.read().readString(byteBuf1.readableBytesLength(), Charset.forName("UTF-8")));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testOutputStream() throws Exception {
+        DynamicFile dynamicFile = DynamicFile.file("./target/demo/stream.txt", 2);
+        dynamicFile.delete();
+        FileTransaction fileTransaction = dynamicFile.begin();
+        TransactionOutputStream os = fileTransaction.outputStream();
+        os.write("0123".getBytes("UTF-8"));
+        os.write(new java.nio.ByteBuffer[]{java.nio.ByteBuffer.wrap("4567".getBytes("UTF-8")), java.nio.ByteBuffer.wrap("89".getBytes("UTF-8"))});
+        os.write(java.nio.ByteBuffer.wrap("AB".getBytes("UTF-8")), 0);
+        Assert.assertEquals(10, os.position());
+        Assert.assertSame(os, fileTransaction.outputStream());
+        Assert.assertTrue(fileTransaction.commit());
+        Assert.assertFalse(os.isOpen());
+        ByteBuffer byteBuf = dynamicFile.read(dynamicFile.lookupMaxVersion());
+        Assert.assertEquals("AB23456789", byteBuf.readString(byteBuf.readableBytesLength(), Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void testRenamePublish() throws Exception {
+        DynamicFileImpl dynamicFile = (DynamicFileImpl) DynamicFile.file("./target/demo/publish.txt", 5);
+        dynamicFile.delete();
+        boolean[] syncs = {false, true};
+        for (boolean sync : syncs) {
+            dynamicFile.setSyncOnCommit(sync);
+            FileTransaction fileTransaction = dynamicFile.begin();
+            File tempFile = fileTransaction.getFile();
+            Assert.assertTrue(tempFile.exists());
+            fileTransaction.write("sync " + sync);
+            Assert.assertTrue(fileTransaction.commit());
+            //临时文件被重命名为版本文件，不会残留
+            Assert.assertFalse(tempFile.exists());
+            File versionFile = dynamicFile.openVersion(dynamicFile.lookupMaxVersion());
+            Assert.assertEquals(versionFile, fileTransaction.getFile());
+            Assert.assertTrue(versionFile.exists());
+            Assert.assertEquals("sync " + sync, FileUtils.readFileToString(versionFile, "UTF-8"));
+        }
+        Assert.assertEquals(2, dynamicFile.versions().size());
+        for (String name : dynamicFile.index.dir.list()) {
+            Assert.assertFalse(name, name.contains(".temp."));
+        }
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        DynamicFileImpl dynamicFile = (DynamicFileImpl) DynamicFile.file("./target/demo/expire.txt", 2);
+        dynamicFile.delete();
+        FileTransactionImpl transaction = (FileTransactionImpl) dynamicFile.begin();
+        TransactionOutputStream os = transaction.outputStream();
+        os.write("before timeout".getBytes("UTF-8"));
+        File tempFile = transaction.getFile();
+        //清理服务只标记失效，不删除所有者正在写入的临时文件
+        DynamicFileJanitor.INSTANCE.new TransactionTimeout(dynamicFile, transaction).expire(System.currentTimeMillis() + dynamicFile.getTimeoutSec() * 1000L + 1);
+        Assert.assertTrue(transaction.expired);
+        Assert.assertFalse(transaction.isFinished());
+        Assert.assertTrue(tempFile.exists());
+        try {
+            os.write("after timeout".getBytes("UTF-8"));
+            Assert.fail();
+        } catch (TransactionExpiredException e) {
+            //所有者的下一次写入失败并回滚
+        }
+        Assert.assertTrue(transaction.isFinished());
+        Assert.assertFalse(tempFile.exists());
+        Assert.assertFalse(dynamicFile.exists());
+
+        transaction = (FileTransactionImpl) dynamicFile.begin();
+        transaction.write("before timeout");
+        tempFile = transaction.getFile();
+        transaction.expire();
+        try {
+            transaction.commit();
+            Assert.fail();
+        } catch (TransactionExpiredException e) {
+            //所有者的提交失败并回滚
+        }
+        Assert.assertTrue(transaction.isFinished());
+        Assert.assertFalse(tempFile.exists());
+    }
+
+    @Test
+    public void testMappedRead() throws Exception {
+        DynamicFile dynamicFile = DynamicFile.file("./target/demo/mapped.txt", 2);
+        dynamicFile.delete();
+        dynamicFile.setReadMode(ReadMode.MAPPED);
+        FileTransaction fileTransaction = dynamicFile.begin();
+        fileTransaction.write("0123456789");
+        fileTransaction.commit();
+        ByteBuffer byteBuf = dynamicFile.read(dynamicFile.lookupMaxVersion());
+        Assert.assertEquals("0123456789", byteBuf.readString(byteBuf.readableBytesLength(), Charset.forName("UTF-8")));
+        Assert.assertTrue(byteBuf.release());
+    }
+
+    @Test
+    public void testChunks() throws Exception {
+        DynamicFile dynamicFile = DynamicFile.file("./target/demo/chunks.txt", 2);
+        dynamicFile.delete();
+        FileTransaction fileTransaction = dynamicFile.begin();
+        fileTransaction.write("0123456789");
+        fileTransaction.commit();
+        FileWrapper fileWrapper = dynamicFile.getFile();
+        ChunkedFileReader reader = new ChunkedFileReader(fileWrapper.getFile(), PooledByteBufferAllocator.DEFAULT, 4);
+        StringBuilder builder = new StringBuilder();
+        int count = 0;
+        while (reader.hasNext()) {
+            ByteBuffer chunk = reader.next();
+            builder.append(chunk.readString(chunk.readableBytesLength(), Charset.forName("UTF-8")));
+            chunk.release();
+            count++;
+        }
+        reader.close();
+        Assert.assertEquals(3, count);
+        Assert.assertEquals("0123456789", builder.toString());
+        InputStream is = dynamicFile.stream(fileWrapper.getVersion());
+        Assert.assertEquals("0123456789", IOUtils.toString(is, "UTF-8"));
+        is.close();
+    }
+
+    @Test
+    public void testMonotonicVersions() throws Exception {
+        DynamicFile dynamicFile = DynamicFile.file("./target/demo/sequence.txt", 5);
+        dynamicFile.delete();
+        long lastVersion = -1;
+        for (int i = 0; i < 3; i++) {
+            FileTransaction fileTransaction = dynamicFile.begin();
+            fileTransaction.write("version " + i);
+            Assert.assertTrue(fileTransaction.commit());
+            long version = dynamicFile.lookupMaxVersion();
+            Assert.assertTrue(version > lastVersion);
+            lastVersion = version;
+        }
+        Assert.assertEquals(3, dynamicFile.versions().size());
+    }
+
+    @Test
+    public void testDeltaStorage() throws Exception {
+        DynamicFileImpl dynamicFile = (DynamicFileImpl) DynamicFile.file("./target/demo/delta.txt", 5);
+        dynamicFile.delete();
+        dynamicFile.setStorageMode(StorageMode.DELTA);
+        byte[] data = new byte[64 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7 + i / 100);
+        }
+        List<byte[]> contents = new ArrayList<byte[]>();
+        for (int i = 0; i < 3; i++) {
+            data[i * 10000] = (byte) ~data[i * 10000];
+            FileTransaction fileTransaction = dynamicFile.begin();
+            fileTransaction.write(data);
+            Assert.assertTrue(fileTransaction.commit());
+            contents.add(data.clone());
+        }
+        dynamicFile.retain();
+        List<Long> versions = dynamicFile.versions();
+        Assert.assertEquals(3, versions.size());
+        Assert.assertTrue(dynamicFile.openDelta(versions.get(0)).exists());
+        Assert.assertFalse(dynamicFile.openVersion(versions.get(1)).exists());
+        Assert.assertTrue(dynamicFile.openVersion(versions.get(2)).exists());
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer byteBuf = dynamicFile.read(versions.get(i));
+            byte[] bytes = new byte[byteBuf.readableBytesLength()];
+            byteBuf.readBytes(bytes);
+            Assert.assertArrayEquals(contents.get(i), bytes);
+        }
+    }
+
+    @Test
+    public void testDeltaChain() throws Exception {
+        DynamicFileImpl dynamicFile = (DynamicFileImpl) DynamicFile.file("./target/demo/delta-chain.txt", 8);
+        dynamicFile.delete();
+        dynamicFile.setStorageMode(StorageMode.DELTA);
+        dynamicFile.maxDeltaChain = 2;
+        byte[] data = new byte[64 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7 + i / 100);
+        }
+        List<byte[]> contents = new ArrayList<byte[]>();
+        for (int i = 0; i < 6; i++) {
+            data[i * 10000] = (byte) ~data[i * 10000];
+            FileTransaction fileTransaction = dynamicFile.begin();
+            fileTransaction.write(data);
+            Assert.assertTrue(fileTransaction.commit());
+            dynamicFile.retain();
+            contents.add(data.clone());
+        }
+        List<Long> versions = dynamicFile.versions();
+        Assert.assertEquals(6, versions.size());
+        //每两个差异版本之间保留一个完整版本
+        boolean[] full = {false, false, true, false, false, true};
+        for (int i = 0; i < 6; i++) {
+            Assert.assertEquals(full[i], dynamicFile.openVersion(versions.get(i)).exists());
+            Assert.assertEquals(!full[i], dynamicFile.openDelta(versions.get(i)).exists());
+            Assert.assertArrayEquals(contents.get(i), dynamicFile.content(versions.get(i)));
+        }
+    }
+
+    @Test
+    public void testDeduplicate() throws Exception {
+        DynamicFileImpl dynamicFile = (DynamicFileImpl) DynamicFile.file("./target/demo/dedup.txt", 5);
+        dynamicFile.delete();
+        dynamicFile.setDeduplicate(true);
+        String[] contents = {"config a", "config a", "config b", "config a"};
+        for (String content : contents) {
+            FileTransaction fileTransaction = dynamicFile.begin();
+            fileTransaction.write(content);
+            Assert.assertTrue(fileTransaction.commit());
+        }
+        List<Long> versions = dynamicFile.versions();
+        Assert.assertEquals(3, versions.size());
+        Assert.assertEquals("config a", new String(dynamicFile.content(versions.get(2)), "UTF-8"));
+        VersionRecord record = dynamicFile.index.records.get(versions.get(2));
+        Assert.assertEquals(8, record.length);
+        Assert.assertEquals((int) FileUtils.checksumCRC32(dynamicFile.openVersion(versions.get(0))), record.checksum);
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        DynamicFileImpl dynamicFile = (DynamicFileImpl) DynamicFile.file("./target/demo/compress.txt", 5);
+        dynamicFile.delete();
+        dynamicFile.setCompressionCodec(CompressionCodecs.LZ4);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            builder.append("line ").append(i % 100).append('\n');
+        }
+        String content = builder.toString();
+        FileTransaction fileTransaction = dynamicFile.begin();
+        fileTransaction.write(content);
+        Assert.assertTrue(fileTransaction.commit());
+        long version = dynamicFile.lookupMaxVersion();
+        Assert.assertTrue(dynamicFile.openVersion(version).length() < content.length() / 2);
+        ByteBuffer byteBuf = dynamicFile.read(version);
+        Assert.assertEquals(content, byteBuf.toString(Charset.forName("UTF-8")));
+        InputStream is = dynamicFile.stream(version);
+        Assert.assertEquals(content, IOUtils.toString(is, "UTF-8"));
+        is.close();
+        //提交后通过事务读取的是解压后的数据
+        Assert.assertEquals(content, fileTransaction.read().toString(Charset.forName("UTF-8")));
+        is = fileTransaction.stream();
+        Assert.assertEquals(content, IOUtils.toString(is, "UTF-8"));
+        is.close();
+    }
+
+    @Test
+    public void testRangeRead() throws Exception {
+        DynamicFileImpl dynamicFile = (DynamicFileImpl) DynamicFile.file("./target/demo/range.txt", 5);
+        dynamicFile.delete();
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            builder.append("line ").append(i).append('\n');
+        }
+        String content = builder.toString();
+        FileTransaction fileTransaction = dynamicFile.begin();
+        fileTransaction.write(content);
+        Assert.assertTrue(fileTransaction.commit());
+        dynamicFile.setCompressionCodec(CompressionCodecs.DEFLATE);
+        fileTransaction = dynamicFile.begin();
+        fileTransaction.write(content);
+        Assert.assertTrue(fileTransaction.commit());
+        for (long version : dynamicFile.versions()) {
+            ByteBuffer byteBuf = dynamicFile.read(version, 70000, 100);
+            Assert.assertEquals(content.substring(70000, 70100), byteBuf.toString(Charset.forName("UTF-8")));
+            byteBuf.release();
+            RandomAccessReader reader = dynamicFile.randomAccess(version);
+            Assert.assertEquals(content.length(), reader.size());
+            ByteBuffer dst = PooledByteBufferAllocator.DEFAULT.buffer(16);
+            Assert.assertEquals(10, reader.read(content.length() - 10, dst, 100));
+            Assert.assertEquals(content.substring(content.length() - 10), dst.toString(Charset.forName("UTF-8")));
+            Assert.assertEquals(-1, reader.read(content.length(), dst, 100));
+            dst.release();
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testChecksumPruned() throws Exception {
+        DynamicFileImpl dynamicFile = (DynamicFileImpl) DynamicFile.file("./target/demo/checksum-pruned.txt", 2);
+        dynamicFile.delete();
+        List<Long> committed = new ArrayList<Long>();
+        for (int i = 0; i < 4; i++) {
+            FileTransaction fileTransaction = dynamicFile.begin();
+            fileTransaction.write("checksum version " + i);
+            Assert.assertTrue(fileTransaction.commit());
+            long version = dynamicFile.lookupMaxVersion();
+            dynamicFile.read(version).release();
+            committed.add(version);
+            dynamicFile.retain();
+        }
+        //被保留策略删除的版本不再保留校验结果
+        Assert.assertEquals(new HashSet<Long>(committed.subList(2, 4)), dynamicFile.verified);
+    }
+
+    @Test
+    public void testChecksum() throws Exception {
+        DynamicFileImpl dynamicFile = (DynamicFileImpl) DynamicFile.file("./target/demo/checksum.txt", 5);
+        dynamicFile.delete();
+        for (int i = 0; i < 2; i++) {
+            FileTransaction fileTransaction = dynamicFile.begin();
+            fileTransaction.write("checksum version " + i);
+            Assert.assertTrue(fileTransaction.commit());
+        }
+        List<Long> versions = dynamicFile.versions();
+        RandomAccessFile raf = new RandomAccessFile(dynamicFile.openVersion(versions.get(1)), "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+        Assert.assertEquals(versions.get(0).longValue(), dynamicFile.lookupMaxVersion());
+        try {
+            dynamicFile.read(versions.get(1));
+            Assert.fail();
+        } catch (CorruptVersionException e) {
+            //损坏的版本读取失败
+        }
+        InputStream is = dynamicFile.stream(versions.get(1));
+        try {
+            IOUtils.toString(is, "UTF-8");
+            Assert.fail();
+        } catch (CorruptVersionException e) {
+            //损坏的版本读取到结尾时失败
+        } finally {
+            is.close();
+        }
+        ByteBuffer byteBuf = dynamicFile.read(versions.get(0));
+        Assert.assertEquals("checksum version 0", byteBuf.toString(Charset.forName("UTF-8")));
+
+        //长度不变的损坏只在读取时发现，查找最新版本不读取版本数据
+        FileTransaction fileTransaction = dynamicFile.begin();
+        fileTransaction.write("checksum version 2");
+        Assert.assertTrue(fileTransaction.commit());
+        long version = dynamicFile.lookupMaxVersion();
+        raf = new RandomAccessFile(dynamicFile.openVersion(version), "rw");
+        raf.write('C');
+        raf.close();
+        Assert.assertEquals(version, dynamicFile.lookupMaxVersion());
+        Assert.assertFalse(dynamicFile.verified.contains(version));
+        try {
+            dynamicFile.read(version);
+            Assert.fail();
+        } catch (CorruptVersionException e) {
+            //读取时发现损坏，之后查找最新版本时跳过
+        }
+        Assert.assertEquals(versions.get(0).longValue(), dynamicFile.lookupMaxVersion());
+    }
+
+    @Test
+    public void testLayout() throws Exception {
+        DynamicFileImpl dynamicFile = (DynamicFileImpl) DynamicFile.file("./target/demo/layout.txt", 2);
+        dynamicFile.delete();
+        DirectoryLayout[] layouts = {DirectoryLayout.HASHED, DirectoryLayout.TIME_BUCKETED, DirectoryLayout.FLAT};
+        for (DirectoryLayout layout : layouts) {
+            dynamicFile.setLayout(layout);
+            FileTransaction fileTransaction = dynamicFile.begin();
+            fileTransaction.write(layout.name());
+            Assert.assertTrue(fileTransaction.commit());
+            long version = dynamicFile.lookupMaxVersion();
+            File file = dynamicFile.openVersion(version);
+            Assert.assertTrue(file.exists());
+            Assert.assertEquals(layout == DirectoryLayout.FLAT, file.getParentFile().equals(dynamicFile.index.dir));
+            Assert.assertEquals(layout.name(), dynamicFile.read(version).toString(Charset.forName("UTF-8")));
+        }
+        File hashedDir = dynamicFile.index.shardDir(dynamicFile.index.list().get(0), DirectoryLayout.HASHED);
+        Assert.assertTrue(hashedDir.exists());
+        dynamicFile.retain();
+        Assert.assertEquals(2, dynamicFile.versions().size());
+        Assert.assertFalse(hashedDir.exists());
+        Assert.assertEquals("TIME_BUCKETED", dynamicFile.read(dynamicFile.versions().get(0)).toString(Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void testLayoutWithoutManifest() throws Exception {
+        DynamicFileImpl dynamicFile = (DynamicFileImpl) DynamicFile.file("./target/demo/layout-scan.txt", 5);
+        dynamicFile.delete();
+        DirectoryLayout[] layouts = {DirectoryLayout.HASHED, DirectoryLayout.TIME_BUCKETED, DirectoryLayout.FLAT, DirectoryLayout.HASHED};
+        for (DirectoryLayout layout : layouts) {
+            dynamicFile.setLayout(layout);
+            FileTransaction fileTransaction = dynamicFile.begin();
+            fileTransaction.write(layout.name());
+            Assert.assertTrue(fileTransaction.commit());
+        }
+        List<Long> versions = dynamicFile.versions();
+        //清单丢失后重新打开，扫描分片子目录恢复版本及其布局
+        Assert.assertTrue(dynamicFile.manifest.manifestFile.delete());
+        DynamicFileImpl reopened = new DynamicFileImpl(dynamicFile.getDirectory(), dynamicFile.getFileName(), 5);
+        Assert.assertEquals(versions, reopened.versions());
+        for (int i = 0; i < layouts.length; i++) {
+            long version = versions.get(i);
+            Assert.assertEquals(layouts[i], reopened.layoutOf(version));
+            Assert.assertEquals(layouts[i].name(), reopened.read(version).toString(Charset.forName("UTF-8")));
+        }
+        //提交时由扫描结果生成的清单记录实际布局
+        reopened.setLayout(DirectoryLayout.FLAT);
+        FileTransaction fileTransaction = reopened.begin();
+        fileTransaction.write("after");
+        Assert.assertTrue(fileTransaction.commit());
+        Assert.assertTrue(reopened.index.manifestLoaded);
+        Assert.assertEquals(DirectoryLayout.HASHED, reopened.index.records.get(versions.get(0)).layout());
+        Assert.assertEquals(DirectoryLayout.TIME_BUCKETED, reopened.index.records.get(versions.get(1)).layout());
+        Assert.assertEquals("HASHED", reopened.read(versions.get(3)).toString(Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        DynamicFileImpl data = (DynamicFileImpl) DynamicFile.file("./target/demo/batch.dat", 5);
+        DynamicFileImpl idx = (DynamicFileImpl) DynamicFile.file("./target/demo/batch.idx", 5);
+        data.delete();
+        idx.delete();
+        BatchTransaction batch = DynamicFile.beginBatch(data, idx);
+        batch.get(data).write("data");
+        batch.get(idx).write("index");
+        Assert.assertTrue(batch.commit());
+        Assert.assertTrue(batch.isFinished());
+        Assert.assertTrue(batch.get(idx).isFinished());
+        Assert.assertEquals("data", data.read(data.lookupMaxVersion()).toString(Charset.forName("UTF-8")));
+        Assert.assertEquals("index", idx.read(idx.lookupMaxVersion()).toString(Charset.forName("UTF-8")));
+        Assert.assertFalse(data.manifest.batchFile.exists());
+
+        //模拟提交标记创建前崩溃，已发布的版本文件被撤销
+        FileTransactionImpl transaction = (FileTransactionImpl) data.begin();
+        transaction.write("uncommitted");
+        data.manifest.lock(1000);
+        try {
+            VersionRecord record = transaction.publishVersion(data.index.dir, false);
+            data.manifest.prepare(new File(data.index.dir, "missing.commit"), Collections.singletonList(data.manifest.batchFile),
+                    Collections.singletonList(record), false);
+            //提交标记不存在，其他进程看不到准备标记中的版本
+            VersionIndex reader = new VersionIndex(data.index.dir, data.getFileName(), 0L);
+            reader.refresh();
+            Assert.assertFalse(reader.contains(record.version));
+            data.index.reload();
+            Assert.assertFalse(data.openVersion(record.version).exists());
+            Assert.assertFalse(data.index.contains(record.version));
+        } finally {
+            data.manifest.unlock();
+        }
+
+        //模拟提交标记创建后崩溃，补写提交记录
+        transaction = (FileTransactionImpl) data.begin();
+        transaction.write("committed");
+        File commitFile = new File(data.index.dir, "batch.commit");
+        FileUtils.touch(commitFile);
+        data.manifest.lock(1000);
+        try {
+            VersionRecord record = transaction.publishVersion(data.index.dir, false);
+            data.manifest.prepare(commitFile, Collections.singletonList(data.manifest.batchFile),
+                    Collections.singletonList(record), false);
+            data.index.reload();
+            Assert.assertTrue(data.index.contains(record.version));
+            Assert.assertFalse(data.manifest.batchFile.exists());
+            //事务中没有其他文件等待补写，提交标记被删除
+            Assert.assertFalse(commitFile.exists());
+        } finally {
+            data.manifest.unlock();
+        }
+        Assert.assertEquals("committed", data.read(data.lookupMaxVersion()).toString(Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void testBatchAbort() throws Exception {
+        DynamicFileImpl data = (DynamicFileImpl) DynamicFile.file("./target/demo/batch-abort.dat", 5);
+        DynamicFileImpl idx = (DynamicFileImpl) DynamicFile.file("./target/demo/batch-abort.idx", 5);
+        data.delete();
+        idx.delete();
+        BatchTransaction batch = DynamicFile.beginBatch(data, idx);
+        FileTransactionImpl dataTransaction = (FileTransactionImpl) batch.get(data);
+        dataTransaction.write("data");
+        FileTransactionImpl idxTransaction = (FileTransactionImpl) batch.get(idx);
+        idxTransaction.write("index");
+        //模拟提交标记创建前失败，数据文件的版本已经发布
+        FileUtils.forceDelete(idxTransaction.tempFile);
+        try {
+            batch.commit();
+            Assert.fail();
+        } catch (IOException e) {
+            //失败时抛出异常并撤销已发布的版本文件
+        }
+        Assert.assertTrue(batch.isFinished());
+        Assert.assertTrue(dataTransaction.rollback);
+        Assert.assertTrue(idxTransaction.rollback);
+        Assert.assertFalse(dataTransaction.tempFile.exists());
+        Assert.assertFalse(data.openVersion(dataTransaction.version).exists());
+        Assert.assertFalse(data.manifest.batchFile.exists());
+        Assert.assertFalse(data.exists());
+        Assert.assertFalse(idx.exists());
+    }
+
+    @Test
+    public void testBatchReplay() throws Exception {
+        final DynamicFileImpl data = (DynamicFileImpl) DynamicFile.file("./target/demo/batch-replay.dat", 5);
+        final DynamicFileImpl idx = (DynamicFileImpl) DynamicFile.file("./target/demo/batch-replay.idx", 5);
+        data.delete();
+        idx.delete();
+        //模拟提交标记创建后追加索引文件的提交记录失败
+        BatchTransactionImpl batch = new BatchTransactionImpl(data, idx) {
+            @Override
+            void append(DynamicFileImpl dynamicFile, VersionRecord record) throws IOException {
+                if (dynamicFile == idx) {
+                    throw new IOException("append fail");
+                }
+                super.append(dynamicFile, record);
+            }
+        };
+        batch.get(data).write("data");
+        batch.get(idx).write("index");
+        try {
+            batch.commit();
+            Assert.fail();
+        } catch (IOException e) {
+            //提交标记已创建，事务已提交，依然抛出异常
+        }
+        Assert.assertTrue(batch.isFinished());
+        Assert.assertTrue(batch.get(data).isFinished());
+        Assert.assertTrue(batch.get(idx).isFinished());
+        //追加失败时不更新任何进程内索引
+        Assert.assertFalse(data.index.contains(((FileTransactionImpl) batch.get(data)).version));
+        Assert.assertTrue(idx.manifest.batchFile.exists());
+        //补写之前其他进程已经能从准备标记看到索引文件的新版本
+        VersionIndex reader = new VersionIndex(idx.index.dir, idx.getFileName(), 0L);
+        reader.refresh();
+        Assert.assertTrue(reader.contains(((FileTransactionImpl) batch.get(idx)).version));
+        File commitFile = new File(data.index.dir, data.getFileName() + ".batch." + batch.batchId + ".commit");
+        Assert.assertTrue(commitFile.exists());
+        //下次持有提交锁时补写提交记录
+        idx.manifest.lock(1000);
+        try {
+            idx.index.reload();
+        } finally {
+            idx.manifest.unlock();
+        }
+        Assert.assertFalse(idx.manifest.batchFile.exists());
+        //最后一个补写的文件删除提交标记
+        Assert.assertFalse(commitFile.exists());
+        reader.refresh();
+        Assert.assertTrue(reader.contains(((FileTransactionImpl) batch.get(idx)).version));
+        //已追加的数据文件提交记录在下次校验索引时可见
+        data.index.refresh();
+        Assert.assertEquals("data", data.read(data.lookupMaxVersion()).toString(Charset.forName("UTF-8")));
+        Assert.assertEquals("index", idx.read(idx.lookupMaxVersion()).toString(Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void testBatchVisibility() throws Exception {
+        final DynamicFileImpl data = (DynamicFileImpl) DynamicFile.file("./target/demo/batch-visible.dat", 5);
+        final DynamicFileImpl idx = (DynamicFileImpl) DynamicFile.file("./target/demo/batch-visible.idx", 5);
+        data.delete();
+        idx.delete();
+        //模拟其他进程通过独立的索引读取
+        final VersionIndex dataReader = new VersionIndex(data.index.dir, data.getFileName(), 0L);
+        final VersionIndex idxReader = new VersionIndex(idx.index.dir, idx.getFileName(), 0L);
+        final List<Boolean> visible = new ArrayList<Boolean>();
+        BatchTransactionImpl batch = new BatchTransactionImpl(data, idx) {
+            @Override
+            void append(DynamicFileImpl dynamicFile, VersionRecord record) throws IOException {
+                //每次追加之前读取，第二次读取时只有数据文件的提交记录已追加
+                dataReader.refresh();
+                idxReader.refresh();
+                visible.add(dataReader.contains(transactions.get(0).version));
+                visible.add(idxReader.contains(transactions.get(1).version));
+                super.append(dynamicFile, record);
+            }
+        };
+        batch.get(data).write("data");
+        batch.get(idx).write("index");
+        dataReader.refresh();
+        idxReader.refresh();
+        Assert.assertEquals(-1L, dataReader.max());
+        Assert.assertEquals(-1L, idxReader.max());
+        Assert.assertTrue(batch.commit());
+        Assert.assertEquals(Arrays.asList(true, true, true, true), visible);
+        dataReader.refresh();
+        idxReader.refresh();
+        Assert.assertTrue(dataReader.manifestLoaded);
+        Assert.assertEquals(0, dataReader.batchVersions.length);
+        Assert.assertEquals(data.lookupMaxVersion(), dataReader.max());
+        Assert.assertEquals(idx.lookupMaxVersion(), idxReader.max());
+    }
+
+    @Test(timeout = 30000)
+    public void testBatchLockOrder() throws Exception {
+        DynamicFileRegistry registry = DynamicFileRegistry.getInstance();
+        //找到规范路径顺序与分段锁序号顺序相反的两对文件
+        List<String> names = new ArrayList<String>();
+        List<Integer> stripes = new ArrayList<Integer>();
+        String[] pair1 = null;
+        String[] pair2 = null;
+        for (int i = 0; pair2 == null && i < 1000; i++) {
+            String name = "./target/demo/stripe-" + i + ".dat";
+            int stripe = registry.getLockIndex(DynamicFileRegistry.canonicalPath(new File(name)));
+            for (int j = 0; pair2 == null && j < names.size(); j++) {
+                if (stripes.get(j) == stripe) {
+                    continue;
+                }
+                String[] pair = DynamicFileRegistry.canonicalPath(new File(names.get(j))).compareTo(DynamicFileRegistry.canonicalPath(new File(name))) < 0
+                        ? new String[]{names.get(j), name} : new String[]{name, names.get(j)};
+                int first = registry.getLockIndex(DynamicFileRegistry.canonicalPath(new File(pair[0])));
+                int second = registry.getLockIndex(DynamicFileRegistry.canonicalPath(new File(pair[1])));
+                if (pair1 == null) {
+                    pair1 = pair;
+                } else if (first == registry.getLockIndex(DynamicFileRegistry.canonicalPath(new File(pair1[1])))
+                        && second == registry.getLockIndex(DynamicFileRegistry.canonicalPath(new File(pair1[0])))
+                        && !pair[0].equals(pair1[0]) && !pair[0].equals(pair1[1]) && !pair[1].equals(pair1[0]) && !pair[1].equals(pair1[1])) {
+                    pair2 = pair;
+                }
+            }
+            names.add(name);
+            stripes.add(stripe);
+        }
+        if (pair2 == null) {
+            //只有一个分段锁时不存在加锁顺序问题
+            return;
+        }
+        final String[][] pairs = {pair1, pair2};
+        final AtomicInteger success = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < threads.length; i++) {
+            final String[] pair = pairs[i];
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        DynamicFile first = DynamicFile.file(pair[0], 2);
+                        DynamicFile second = DynamicFile.file(pair[1], 2);
+                        for (int n = 0; n < 50; n++) {
+                            BatchTransaction batch = DynamicFile.beginBatch(first, second);
+                            batch.get(first).write("first " + n);
+                            batch.get(second).write("second " + n);
+                            if (batch.commit()) {
+                                success.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        //工作线程中的异常在这里抛出，以便定位失败原因
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        Assert.assertEquals(100, success.get());
+    }
+
+    @Test
+    public void testPin() throws Exception {
+        DynamicFileImpl dynamicFile = (DynamicFileImpl) DynamicFile.file("./target/demo/pin.txt", 2);
+        dynamicFile.delete();
+        FileTransaction fileTransaction = dynamicFile.begin();
+        fileTransaction.write("pinned version");
+        Assert.assertTrue(fileTransaction.commit());
+        VersionHandle handle = dynamicFile.pin();
+        long version = handle.getVersion();
+        for (int i = 0; i < 2; i++) {
+            fileTransaction = dynamicFile.begin();
+            fileTransaction.write("version " + i);
+            Assert.assertTrue(fileTransaction.commit());
+        }
+        dynamicFile.retain();
+        Assert.assertFalse(dynamicFile.versions().contains(version));
+        Assert.assertTrue(dynamicFile.openVersion(version).exists());
+        InputStream is = handle.getFile().stream();
+        Assert.assertEquals("pinned version", IOUtils.toString(is, "UTF-8"));
+        is.close();
+        Assert.assertSame(handle, handle.retain());
+        Assert.assertFalse(handle.release());
+        Assert.assertTrue(handle.release());
+        dynamicFile.retain();
+        Assert.assertFalse(dynamicFile.openVersion(version).exists());
+    }
+
+    @Test
+    public void testSubscribe() throws Exception {
+        DynamicFileImpl dynamicFile = (DynamicFileImpl) DynamicFile.file("./target/demo/subscribe.txt", 5);
+        dynamicFile.delete();
+        final List<Long> notified = new CopyOnWriteArrayList<Long>();
+        final CountDownLatch latch = new CountDownLatch(2);
+        VersionListener listener = new VersionListener() {
+            @Override
+            public void onCommitted(DynamicFile file, long version) {
+                notified.add(version);
+                latch.countDown();
+            }
+        };
+        dynamicFile.subscribe(listener);
+        FileTransaction fileTransaction = dynamicFile.begin();
+        fileTransaction.write("local commit");
+        Assert.assertTrue(fileTransaction.commit());
+        //模拟其他进程通过独立的实例提交
+        DynamicFileImpl other = new DynamicFileImpl(dynamicFile.getDirectory(), dynamicFile.getFileName(), 5);
+        fileTransaction = other.begin();
+        fileTransaction.write("other commit");
+        Assert.assertTrue(fileTransaction.commit());
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        dynamicFile.unsubscribe(listener);
+        Assert.assertEquals(dynamicFile.versions(), notified);
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        final DynamicFileImpl dynamicFile = (DynamicFileImpl) DynamicFile.file("./target/demo/group.txt", 10);
+        dynamicFile.delete();
+        dynamicFile.setGroupCommitMillis(20);
+        dynamicFile.setSyncOnCommit(true);
+        final AtomicInteger success = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        FileTransaction fileTransaction = dynamicFile.begin();
+                        fileTransaction.write("group " + n);
+                        if (fileTransaction.commit() && fileTransaction.isFinished()) {
+                            success.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        Assert.assertEquals(threads.length, success.get());
+        Assert.assertEquals(threads.length, dynamicFile.versions().size());
+        Assert.assertEquals(threads.length, new HashSet<Long>(dynamicFile.versions()).size());
+    }
+
+    @Test(timeout = 10000)
+    public void testGroupCommitInterrupted() throws Exception {
+        final DynamicFileImpl dynamicFile = (DynamicFileImpl) DynamicFile.file("./target/demo/group-interrupt.txt", 10);
+        dynamicFile.delete();
+        dynamicFile.setGroupCommitMillis(1000);
+        final FileTransaction leader = dynamicFile.begin();
+        leader.write("leader");
+        final FileTransaction follower = dynamicFile.begin();
+        follower.write("follower");
+        final List<Object> results = new CopyOnWriteArrayList<Object>();
+        Thread leaderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    results.add(leader.commit());
+                } catch (Exception e) {
+                    results.add(e);
+                }
+            }
+        });
+        Thread followerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    results.add(follower.commit());
+                } catch (Exception e) {
+                    results.add(e);
+                }
+                results.add(Thread.currentThread().isInterrupted());
+            }
+        });
+        leaderThread.start();
+        while (!dynamicFile.groupCommitter.leading.get()) {
+            Thread.sleep(1);
+        }
+        followerThread.start();
+        while (dynamicFile.groupCommitter.queue.size() < 2) {
+            Thread.sleep(1);
+        }
+        //等待窗口内被中断的提交线程退出，不会空转
+        followerThread.interrupt();
+        followerThread.join();
+        Assert.assertTrue(results.get(0) instanceof InterruptedIOException);
+        Assert.assertEquals(true, results.get(1));
+        Assert.assertFalse(follower.isFinished());
+        leaderThread.join();
+        Assert.assertEquals(true, results.get(2));
+        Assert.assertEquals(1, dynamicFile.versions().size());
+        Assert.assertTrue(follower.rollback());
+    }
+
+    @Test
+    public void testGroupCommitAbort() throws Exception {
+        DynamicFileImpl dynamicFile = (DynamicFileImpl) DynamicFile.file("./target/demo/group-abort.txt", 10);
+        dynamicFile.delete();
+        dynamicFile.setGroupCommitMillis(20);
+        FileTransactionImpl transaction = (FileTransactionImpl) dynamicFile.begin();
+        transaction.write("published");
+        //模拟版本文件发布后追加清单失败，撤销整批已发布的版本文件并回滚事务
+        GroupCommitter.CommitRequest request = new GroupCommitter.CommitRequest(transaction);
+        dynamicFile.manifest.lock(1000);
+        try {
+            dynamicFile.index.reload();
+            request.record = transaction.publishVersion(dynamicFile.index.dir, false);
+            Assert.assertTrue(dynamicFile.openVersion(request.record.version).exists());
+            dynamicFile.groupCommitter.abort(Collections.singletonList(request));
+        } finally {
+            dynamicFile.manifest.unlock();
+        }
+        Assert.assertFalse(dynamicFile.openVersion(request.record.version).exists());
+        Assert.assertTrue(transaction.isFinished());
+        Assert.assertTrue(transaction.rollback);
+        Assert.assertFalse(dynamicFile.exists());
+        FileTransaction fileTransaction = dynamicFile.begin();
+        fileTransaction.write("retry");
+        Assert.assertTrue(fileTransaction.commit());
+        Assert.assertEquals("retry", dynamicFile.read(dynamicFile.lookupMaxVersion()).toString(Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        DynamicFile dynamicFile = DynamicFile.file("./target/demo/async.txt", 5);
+        dynamicFile.delete();
+        FileTransaction fileTransaction = dynamicFile.begin();
+        fileTransaction.writeAsync("first".getBytes("UTF-8"));
+        fileTransaction.writeAsync("second".getBytes("UTF-8"));
+        Future<Boolean> commit = fileTransaction.commitAsync();
+        Assert.assertTrue(commit.get());
+        Assert.assertTrue(fileTransaction.isFinished());
+        ByteBuffer byteBuf = dynamicFile.readAsync(dynamicFile.lookupMaxVersion()).get();
+        Assert.assertEquals("second", byteBuf.toString(Charset.forName("UTF-8")));
+    }
+}
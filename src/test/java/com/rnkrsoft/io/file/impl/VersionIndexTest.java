@@ -0,0 +1,104 @@
+package com.rnkrsoft.io.file.impl;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Created by rnkrsoft.com on 2026/10/18.
+ */
+public class VersionIndexTest {
+
+    @Test
+    public void testParseVersion() throws Exception {
+        Assert.assertEquals(20180215101010L, VersionIndex.parseVersion("test.txt.20180215101010", 9));
+        Assert.assertEquals(-1, VersionIndex.parseVersion("test.txt.temp.1234", 9));
+        Assert.assertEquals(-1, VersionIndex.parseVersion("test.txt.", 9));
+    }
+
+    @Test
+    public void testScanAndUpdate() throws Exception {
+        File dir = new File("./target/demo/index/test.txt");
+        FileUtils.deleteQuietly(dir);
+        dir.mkdirs();
+        new File(dir, "test.txt.3").createNewFile();
+        new File(dir, "test.txt.1").createNewFile();
+        new File(dir, "test.txt.temp.abc").createNewFile();
+        new File(dir, "other.txt.2").createNewFile();
+        VersionIndex index = new VersionIndex(dir, "test.txt", 60000L);
+        Assert.assertTrue(index.revalidate());
+        Assert.assertEquals(Arrays.asList(1L, 3L), index.list());
+        Assert.assertFalse(index.revalidate());
+        index.add(2L);
+        index.add(5L);
+        Assert.assertEquals(Arrays.asList(1L, 2L, 3L, 5L), index.list());
+        Assert.assertEquals(5L, index.max());
+        Assert.assertArrayEquals(new long[]{1L, 2L}, index.expired(2));
+        index.remove(1L);
+        Assert.assertEquals(Arrays.asList(2L, 3L, 5L), index.list());
+        index.clear();
+        Assert.assertEquals(-1L, index.max());
+    }
+
+    @Test
+    public void testManifest() throws Exception {
+        File dir = new File("./target/demo/index/manifest.txt");
+        FileUtils.deleteQuietly(dir);
+        dir.mkdirs();
+        new File(dir, "manifest.txt.1").createNewFile();
+        new File(dir, "manifest.txt.2").createNewFile();
+        VersionIndex index = new VersionIndex(dir, "manifest.txt", 0L);
+        index.reload();
+        Assert.assertTrue(index.manifest.exists());
+        Assert.assertEquals(Arrays.asList(1L, 2L), index.list());
+        List<VersionRecord> records = Arrays.asList(VersionRecord.commit(3L, 10L, 0), VersionRecord.delete(1L));
+        index.manifest.append(records, false);
+        index.appended(records);
+        //新的索引只读取清单，不列举目录
+        new File(dir, "manifest.txt.4").createNewFile();
+        VersionIndex other = new VersionIndex(dir, "manifest.txt", 0L);
+        Assert.assertTrue(other.revalidate());
+        Assert.assertEquals(Arrays.asList(2L, 3L), other.list());
+        Assert.assertEquals(10L, other.records.get(3L).length);
+        index.manifest.compact(3L, index.liveRecords(), false);
+        Assert.assertTrue(other.revalidate());
+        Assert.assertEquals(Arrays.asList(2L, 3L), other.list());
+        Assert.assertEquals(2, other.manifestRecords);
+    }
+
+    @Test
+    public void testLockInProcess() throws Exception {
+        File dir = new File("./target/demo/index/lock.txt");
+        FileUtils.deleteQuietly(dir);
+        dir.mkdirs();
+        final VersionManifest first = new VersionManifest(dir, "lock.txt");
+        VersionManifest second = new VersionManifest(dir, "lock.txt");
+        first.lock(1000L);
+        try {
+            second.lock(50L);
+            Assert.fail("lock is held by the other instance");
+        } catch (IOException e) {
+            //同一进程内的其他实例持有锁时等待超时，而不是抛出OverlappingFileLockException
+        }
+        Thread unlock = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                first.unlock();
+            }
+        });
+        unlock.start();
+        second.lock(5000L);
+        second.unlock();
+        unlock.join();
+    }
+}